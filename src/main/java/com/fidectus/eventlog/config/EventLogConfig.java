@@ -1,10 +1,35 @@
 package com.fidectus.eventlog.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventCountRepository;
+import com.fidectus.eventlog.persistence.EventHashChain;
 import com.fidectus.eventlog.persistence.EventRepositoryDao;
+import com.fidectus.eventlog.persistence.EventStore;
+import com.fidectus.eventlog.persistence.segment.FsyncPolicy;
+import com.fidectus.eventlog.persistence.shard.EventShards;
+import com.fidectus.eventlog.persistence.segment.SegmentLogEventStore;
+import com.fidectus.eventlog.services.EventArchiveService;
+import com.fidectus.eventlog.services.EventCounters;
+import com.fidectus.eventlog.services.EventDeduplicator;
+import com.fidectus.eventlog.services.EventFeed;
+import com.fidectus.eventlog.services.EventLogMetrics;
 import com.fidectus.eventlog.services.EventLogService;
+import com.fidectus.eventlog.services.EventWriteBehindQueue;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 
 /**
  * Configuration class for Bean instantiation
@@ -18,7 +43,109 @@ public class EventLogConfig {
     }
 
     @Bean
+    @ConditionalOnProperty(name = "eventlog.storage.engine", havingValue = "jpa", matchIfMissing = true)
     public EventRepositoryDao eventRepositoryDao() {
         return new EventRepositoryDao();
     }
+
+    @Bean
+    @ConditionalOnProperty(name = "eventlog.storage.engine", havingValue = "segment-log")
+    public SegmentLogEventStore segmentLogEventStore(@Value("${eventlog.storage.segment.directory:data/event-log}") String directory,
+                                                     @Value("${eventlog.storage.segment.records-per-segment:1048576}") int recordsPerSegment,
+                                                     @Value("${eventlog.storage.segment.fsync-policy:interval}") FsyncPolicy fsyncPolicy,
+                                                     @Value("${eventlog.storage.segment.fsync-interval:1s}") Duration fsyncInterval,
+                                                     @Value("${eventlog.storage.segment.fsync-batch-size:1000}") int fsyncBatchSize,
+                                                     @Value("${eventlog.storage.segment.retention:0s}") Duration retention,
+                                                     EventHashChain eventHashChain) throws IOException {
+        return new SegmentLogEventStore(Paths.get(directory), recordsPerSegment, fsyncPolicy, fsyncInterval, fsyncBatchSize,
+                retention, eventHashChain);
+    }
+
+    @Bean
+    public EventShards eventShards(@Value("${eventlog.sharding.enabled:false}") boolean enabled,
+                                   @Value("${eventlog.sharding.urls:}") List<String> urls,
+                                   @Value("${eventlog.sharding.virtual-nodes:128}") int virtualNodes,
+                                   @Value("${spring.datasource.hikari.maximum-pool-size:10}") int connectionsPerShard,
+                                   MeterRegistry meterRegistry) {
+        if (enabled && urls.isEmpty()) {
+            throw new IllegalStateException("eventlog.sharding.urls must list the shards' JDBC URLs when sharding is enabled");
+        }
+        return new EventShards(enabled ? urls.size() : 1, virtualNodes, connectionsPerShard, meterRegistry);
+    }
+
+    @Bean
+    public EventHashChain eventHashChain(@Value("${eventlog.chain.lock-stripes:1024}") int lockStripes,
+                                         @Value("${eventlog.chain.cache-size:100000}") long cacheSize) {
+        return new EventHashChain(lockStripes, cacheSize);
+    }
+
+    @Bean
+    public EventCache eventCache(@Value("${eventlog.cache.maximum-size:10000}") long maximumSize,
+                                 @Value("${eventlog.cache.ttl:10m}") Duration ttl,
+                                 @Value("${eventlog.cache.negative-ttl:5s}") Duration negativeTtl) {
+        return new EventCache(maximumSize, ttl, negativeTtl);
+    }
+
+    @Bean
+    public EventCountRepository eventCountRepository(JdbcTemplate jdbcTemplate) {
+        return new EventCountRepository(jdbcTemplate);
+    }
+
+    @Bean
+    public EventCounters eventCounters(EventCountRepository eventCountRepository,
+                                       @Value("${eventlog.stats.flush-interval:5s}") Duration flushInterval) {
+        return new EventCounters(eventCountRepository, flushInterval);
+    }
+
+    @Bean
+    public EventFeed eventFeed(EventLogMetrics eventLogMetrics,
+                               @Value("${eventlog.feed.replay-size:10000}") int replaySize,
+                               @Value("${eventlog.feed.subscriber-buffer:1000}") int subscriberBuffer,
+                               @Value("${eventlog.feed.sender-threads:2}") int senderThreads) {
+        return new EventFeed(eventLogMetrics, replaySize, subscriberBuffer, senderThreads);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "eventlog.ingest.mode", havingValue = "write-behind")
+    public EventWriteBehindQueue eventWriteBehindQueue(EventStore eventStore, EventLogMetrics eventLogMetrics,
+                                                       EventCounters eventCounters, EventFeed eventFeed,
+                                                       ObjectMapper objectMapper,
+                                                       @Value("${eventlog.ingest.queue-capacity:10000}") int capacity,
+                                                       @Value("${eventlog.ingest.batch-size:500}") int batchSize,
+                                                       @Value("${eventlog.ingest.flush-interval:50ms}") Duration flushInterval,
+                                                       @Value("${eventlog.ingest.writer-threads:2}") int writerThreads,
+                                                       @Value("${eventlog.ingest.max-attempts:5}") int maxAttempts,
+                                                       @Value("${eventlog.ingest.dead-letter-file:data/ingest-dead-letter.ndjson}") String deadLetterFile) {
+        return new EventWriteBehindQueue(eventStore, eventLogMetrics, eventCounters, eventFeed, objectMapper, capacity,
+                batchSize, flushInterval, writerThreads, maxAttempts, Paths.get(deadLetterFile));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "eventlog.dedup.enabled", havingValue = "true")
+    public EventDeduplicator eventDeduplicator(EventStore eventStore, EventLogMetrics eventLogMetrics,
+                                               @Value("${eventlog.dedup.expected-events:1000000}") long expectedEvents,
+                                               @Value("${eventlog.dedup.false-positive-rate:0.01}") double falsePositiveRate) {
+        return new EventDeduplicator(eventStore, eventLogMetrics, expectedEvents, falsePositiveRate);
+    }
+
+    @Bean
+    public EventArchiveService eventArchiveService(EventStore eventStore, EventCounters eventCounters, EventCache eventCache,
+                                                   Optional<EventDeduplicator> eventDeduplicator,
+                                                   @Value("${eventlog.archive.directory:data/archive}") String directory,
+                                                   @Value("${eventlog.archive.block-size:10000}") int blockSize,
+                                                   @Value("${eventlog.batch.size:500}") int batchSize) {
+        return new EventArchiveService(eventStore, eventCounters, eventCache, eventDeduplicator,
+                Paths.get(directory), blockSize, batchSize);
+    }
+
+    @Bean
+    public EventLogMetrics eventLogMetrics(MeterRegistry meterRegistry) {
+        return new EventLogMetrics(meterRegistry);
+    }
+
+    // Records the @Timed service and storage methods
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
 }
@@ -0,0 +1,92 @@
+package com.fidectus.eventlog.config;
+
+import com.fidectus.eventlog.persistence.EventHashChain;
+import com.fidectus.eventlog.persistence.EventRepository;
+import com.fidectus.eventlog.persistence.shard.EventShardRebalancer;
+import com.fidectus.eventlog.persistence.shard.EventShards;
+import com.fidectus.eventlog.persistence.shard.ShardRoutingDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.CompositeHealthContributor;
+import org.springframework.boot.actuate.health.HealthContributor;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.jdbc.DataSourceHealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration for spreading the JPA store over several databases by userId, enabled with eventlog.sharding.enabled=true.
+ *
+ * Replaces the auto-configured DataSource with a ShardRoutingDataSource over one Hikari pool per eventlog.sharding.urls
+ * entry, each set up from spring.datasource.username, spring.datasource.password and spring.datasource.hikari.*,
+ * migrates every shard with Flyway and then moves users whose shard has changed.
+ */
+@Configuration
+@ConditionalOnProperty(name = "eventlog.sharding.enabled", havingValue = "true")
+public class EventLogShardingConfig {
+    @Bean
+    public ShardRoutingDataSource dataSource(EventShards eventShards, DataSourceProperties dataSourceProperties,
+                                             Environment environment, MeterRegistry meterRegistry,
+                                             @Value("${eventlog.sharding.urls}") List<String> urls) {
+        HikariConfig poolConfig = Binder.get(environment).bind("spring.datasource.hikari", HikariConfig.class)
+                .orElseGet(HikariConfig::new);
+        String poolName = poolConfig.getPoolName() != null ? poolConfig.getPoolName() : "eventlog";
+        Map<String, DataSource> shardDataSources = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String shard = eventShards.getShards().get(i);
+            HikariConfig shardConfig = new HikariConfig();
+            poolConfig.copyStateTo(shardConfig);
+            shardConfig.setJdbcUrl(urls.get(i));
+            shardConfig.setUsername(dataSourceProperties.determineUsername());
+            shardConfig.setPassword(dataSourceProperties.determinePassword());
+            // Pool metrics are tagged with the pool name, so hikaricp.connections.* are per shard
+            shardConfig.setPoolName(poolName + "-" + shard);
+            shardConfig.setMetricRegistry(meterRegistry);
+            shardDataSources.put(shard, new HikariDataSource(shardConfig));
+        }
+        return new ShardRoutingDataSource(eventShards, shardDataSources);
+    }
+
+    // Spring Boot migrates the DataSource bean, which would only reach the first shard
+    @Bean
+    public FlywayMigrationStrategy shardFlywayMigrationStrategy(ShardRoutingDataSource dataSource) {
+        return flyway -> dataSource.getShardDataSources().values().forEach(shardDataSource ->
+                Flyway.configure().configuration(flyway.getConfiguration()).dataSource(shardDataSource).load().migrate());
+    }
+
+    // Health of each shard's database under /actuator/health's db, in place of Spring Boot's, which skips routing DataSources
+    @Bean
+    public HealthContributor dbHealthContributor(ShardRoutingDataSource dataSource) {
+        Map<String, HealthIndicator> shardHealth = new LinkedHashMap<>();
+        dataSource.getShardDataSources().forEach((shard, shardDataSource) ->
+                shardHealth.put(shard, new DataSourceHealthIndicator(shardDataSource)));
+        return CompositeHealthContributor.fromMap(shardHealth);
+    }
+
+    @Bean
+    public EventShardRebalancer eventShardRebalancer(EventRepository repository, EventShards eventShards,
+                                                     EventHashChain eventHashChain,
+                                                     @Value("${eventlog.batch.size:500}") int batchSize) {
+        return new EventShardRebalancer(repository, eventShards, eventHashChain, batchSize);
+    }
+
+    // Once every bean is ready, which is before the web server is started, so no request sees a user on their old shard
+    @Bean
+    public SmartInitializingSingleton shardRebalanceOnStartup(EventShardRebalancer eventShardRebalancer) {
+        return eventShardRebalancer::rebalance;
+    }
+}
@@ -0,0 +1,28 @@
+package com.fidectus.eventlog.config;
+
+import com.fidectus.eventlog.controller.AccessLogFilter;
+import com.fidectus.eventlog.controller.EventBinaryHttpMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Spring MVC configuration for the API's content types and access logging
+ */
+@Configuration
+public class EventLogWebConfig implements WebMvcConfigurer {
+    // Added after the defaults rather than as a Bean, so JSON stays the response type when a client accepts anything
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new EventBinaryHttpMessageConverter());
+    }
+
+    @Bean
+    public AccessLogFilter accessLogFilter(@Value("${eventlog.access-log.sample-rate:0.01}") double sampleRate) {
+        return new AccessLogFilter(sampleRate);
+    }
+}
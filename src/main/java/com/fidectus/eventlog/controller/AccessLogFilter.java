@@ -0,0 +1,66 @@
+package com.fidectus.eventlog.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs a sample of requests to the com.fidectus.eventlog.access logger, as method, URI, status and time taken.
+ * Requests that fail with a server error, or with an exception that escapes the filter chain, are always logged.
+ * Per-request logging in the application is at DEBUG.
+ *
+ * Async requests (streamed responses, and every request in the async execution mode) are logged once, by the last
+ * dispatch, with the status and time of the whole request rather than of the dispatch that started async processing.
+ */
+public class AccessLogFilter extends OncePerRequestFilter {
+    private static final Logger log = LoggerFactory.getLogger("com.fidectus.eventlog.access");
+    private static final String START_ATTRIBUTE = AccessLogFilter.class.getName() + ".START";
+    private static final String SAMPLED_ATTRIBUTE = AccessLogFilter.class.getName() + ".SAMPLED";
+
+    private final double sampleRate;
+
+    /**
+     * @param sampleRate Fraction of requests to log, from 0 (only server errors) to 1 (every request)
+     */
+    public AccessLogFilter(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!isAsyncDispatch(request)) {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+            request.setAttribute(SAMPLED_ATTRIBUTE, sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+        }
+        boolean failed = true;
+        try {
+            filterChain.doFilter(request, response);
+            failed = false;
+        } finally {
+            // Otherwise a later dispatch completes the request
+            if (failed || !request.isAsyncStarted()) {
+                long micros = (System.nanoTime() - (Long) request.getAttribute(START_ATTRIBUTE)) / 1000;
+                // The container only sets the status of a request that failed with an exception after this filter
+                int status = failed ? Math.max(response.getStatus(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR) : response.getStatus();
+                if (status >= 500) {
+                    log.warn("{} {} {} {}us", request.getMethod(), request.getRequestURI(), status, micros);
+                } else if ((Boolean) request.getAttribute(SAMPLED_ATTRIBUTE)) {
+                    log.info("{} {} {} {}us", request.getMethod(), request.getRequestURI(), status, micros);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.fidectus.eventlog.controller;
+
+import com.fidectus.eventlog.dto.CacheStatistics;
+import com.fidectus.eventlog.dto.EventArchiveReport;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.services.EventArchiveService;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * REST Controller class for operational endpoints that are not part of the Event API
+ */
+@RestController
+@RequestMapping("api/v1/admin")
+public class AdminV1Controller {
+    private EventCache eventCache;
+    private EventArchiveService eventArchiveService;
+
+    @Autowired
+    public AdminV1Controller(EventCache eventCache, EventArchiveService eventArchiveService) {
+        this.eventCache = eventCache;
+        this.eventArchiveService = eventArchiveService;
+    }
+
+    /**
+     * @return Hit, miss and eviction counts for the Event cache, for sizing eventlog.cache.maximum-size
+     */
+    @RequestMapping(path = "/cache", method = RequestMethod.GET)
+    public CacheStatistics getCacheStatistics() {
+        CacheStats stats = eventCache.stats();
+        return new CacheStatistics(eventCache.size(), stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+    }
+
+    /**
+     * Writes every Event to a new archive file in eventlog.archive.directory
+     * @return The file written, with the number of Events and events per second
+     */
+    @RequestMapping(path = "/export", method = RequestMethod.POST)
+    public EventArchiveReport exportEvents() {
+        return eventArchiveService.exportEvents();
+    }
+
+    /**
+     * Loads the Events of an archive file in eventlog.archive.directory, skipping those already stored
+     * @param file Name of the file, as returned by the export
+     * @return The number of Events imported and skipped, with events per second
+     */
+    @RequestMapping(path = "/import", method = RequestMethod.POST)
+    public EventArchiveReport importEvents(@RequestParam(value = "file") String file) {
+        return eventArchiveService.importEvents(file);
+    }
+}
@@ -0,0 +1,93 @@
+package com.fidectus.eventlog.controller;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBinaryFormat;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes an Event, or a List of Events, as {@value EventBinaryFormat#MEDIA_TYPE_VALUE}.
+ * A single Event is one {@link EventBinaryFormat#SIZE} byte record, and a List is the records one after another.
+ */
+public class EventBinaryHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(EventBinaryFormat.MEDIA_TYPE_VALUE);
+
+    public EventBinaryHttpMessageConverter() {
+        super(MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return Event.class == clazz;
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return (isEvent(type) || isEventList(type)) && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        return (Event.class == clazz || isEventList(type)) && canWrite(mediaType);
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        ByteBuffer body = ByteBuffer.wrap(StreamUtils.copyToByteArray(inputMessage.getBody()));
+        int records = body.remaining() / EventBinaryFormat.SIZE;
+        try {
+            if (isEventList(type)) {
+                if (body.remaining() % EventBinaryFormat.SIZE != 0) {
+                    throw new IllegalArgumentException("Body must be a multiple of " + EventBinaryFormat.SIZE + " bytes.");
+                }
+                List<Event> events = new ArrayList<>(records);
+                for (int i = 0; i < records; i++) {
+                    events.add(EventBinaryFormat.read(body));
+                }
+                return events;
+            }
+            if (body.remaining() != EventBinaryFormat.SIZE) {
+                throw new IllegalArgumentException("Body must be " + EventBinaryFormat.SIZE + " bytes.");
+            }
+            return EventBinaryFormat.read(body);
+        } catch (IllegalArgumentException ex) {
+            throw new HttpMessageNotReadableException(ex.getMessage(), ex, inputMessage);
+        }
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return read(clazz, null, inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object body, Type type, HttpOutputMessage outputMessage) throws IOException {
+        List<?> events = body instanceof List ? (List<?>) body : List.of(body);
+        ByteBuffer buffer = ByteBuffer.allocate(events.size() * EventBinaryFormat.SIZE);
+        for (Object event : events) {
+            EventBinaryFormat.write(buffer, (Event) event);
+        }
+        outputMessage.getHeaders().setContentLength(buffer.capacity());
+        outputMessage.getBody().write(buffer.array());
+    }
+
+    private static boolean isEvent(Type type) {
+        return Event.class == type;
+    }
+
+    private static boolean isEventList(Type type) {
+        ResolvableType resolvableType = ResolvableType.forType(type);
+        return List.class == resolvableType.resolve() && Event.class == resolvableType.resolveGeneric(0);
+    }
+}
@@ -0,0 +1,38 @@
+package com.fidectus.eventlog.controller;
+
+import com.fidectus.eventlog.dto.FeedEvent;
+import com.fidectus.eventlog.services.EventFeed;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+/**
+ * Writes one change feed subscription to the response as server-sent events:
+ * an "event" per logged Event with its feed id, a "gap" when Events could not be replayed, and a comment as heartbeat.
+ */
+final class EventFeedEmitter extends SseEmitter implements EventFeed.Subscriber {
+    EventFeedEmitter(long timeoutMillis) {
+        super(timeoutMillis);
+    }
+
+    @Override
+    public void send(FeedEvent feedEvent) throws IOException {
+        switch (feedEvent.getKind()) {
+            case EVENT:
+                send(event().id(feedEvent.getId()).name("event").data(feedEvent.getEvent(), MediaType.APPLICATION_JSON));
+                break;
+            case GAP:
+                send(event().id(feedEvent.getId()).name("gap").data(feedEvent.getId()));
+                break;
+            case HEARTBEAT:
+                send(event().comment("heartbeat"));
+                break;
+        }
+    }
+
+    @Override
+    public void close() {
+        complete();
+    }
+}
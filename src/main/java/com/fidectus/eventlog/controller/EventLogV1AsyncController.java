@@ -0,0 +1,261 @@
+package com.fidectus.eventlog.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fidectus.eventlog.dto.ChainVerification;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.dto.EventBinaryFormat;
+import com.fidectus.eventlog.dto.EventMultiGetResult;
+import com.fidectus.eventlog.dto.EventProjection;
+import com.fidectus.eventlog.dto.EventStatistics;
+import com.fidectus.eventlog.services.EventLogService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The same endpoints as EventLogV1Controller, used when eventlog.execution.mode=async.
+ *
+ * Each request is parsed on a Tomcat thread, which is then released while the work that blocks on the DB runs on a
+ * bounded pool of DB threads, sized to the connection pool. Tomcat threads are only needed for parsing and writing
+ * responses, so many more requests can be in flight than there are threads. When the DB queue is full, requests get a
+ * 503 SERVICE UNAVAILABLE straight away rather than waiting.
+ */
+@RestController
+@RequestMapping("api/v1")
+@ConditionalOnProperty(name = "eventlog.execution.mode", havingValue = "async")
+public class EventLogV1AsyncController {
+    private static final Logger log = LoggerFactory.getLogger(EventLogV1AsyncController.class);
+
+    private final EventLogService eventLogService;
+    // Not registered as a controller in this mode, runs the request logic on DB threads
+    private final EventLogV1Controller blockingController;
+    private final ThreadPoolExecutor dbExecutor;
+
+    @Autowired
+    public EventLogV1AsyncController(EventLogService eventLogService, ObjectMapper objectMapper,
+                                     @Value("${eventlog.execution.db-threads:${spring.datasource.hikari.maximum-pool-size:10}}") int dbThreads,
+                                     @Value("${eventlog.execution.queue-capacity:10000}") int queueCapacity,
+                                     @Value("${eventlog.feed.timeout:30m}") Duration feedTimeout) {
+        this.eventLogService = eventLogService;
+        this.blockingController = new EventLogV1Controller(eventLogService, objectMapper, feedTimeout);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.dbExecutor = new ThreadPoolExecutor(dbThreads, dbThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "event-db-" + threadCount.getAndIncrement()));
+        log.info("Serving requests asynchronously with {} DB threads", dbThreads);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        dbExecutor.shutdown();
+        dbExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @see EventLogV1Controller#getEventsForUser
+     */
+    @RequestMapping(path = "/event/user/{userId}", method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<List<Event>>> getEventsForUser(@PathVariable(value="userId") UUID userId,
+                                                                           @RequestParam(value = "limit", required = false) Integer limit,
+                                                                           @RequestParam(value = "after", required = false) UUID after,
+                                                                           @RequestParam(value = "from", required = false)
+                                                                           @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                                           @RequestParam(value = "to", required = false)
+                                                                           @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                                           @RequestParam(value = "type", required = false) Event.EventType type) {
+        // The request is only available on the Tomcat thread
+        UriComponentsBuilder requestUri = EventLogV1Controller.typeQuery(ServletUriComponentsBuilder.fromCurrentRequestUri(), type);
+        return supplyOnDbThread(() -> EventLogV1Controller.pageResponse(
+                eventLogService.getEventsForUser(userId, limit, after, from, to, type), requestUri, limit, from, to));
+    }
+
+    /**
+     * @see EventLogV1Controller#getEventFieldsForUser
+     */
+    @RequestMapping(path = "/event/user/{userId}", method = RequestMethod.GET, params = "fields")
+    public CompletableFuture<ResponseEntity<List<EventProjection>>> getEventFieldsForUser(@PathVariable(value="userId") UUID userId,
+                                                                                          @RequestParam(value = "fields") List<String> fields,
+                                                                                          @RequestParam(value = "limit", required = false) Integer limit,
+                                                                                          @RequestParam(value = "after", required = false) UUID after,
+                                                                                          @RequestParam(value = "from", required = false)
+                                                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                                                          @RequestParam(value = "to", required = false)
+                                                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                                                          @RequestParam(value = "type", required = false) Event.EventType type) {
+        // The request is only available on the Tomcat thread
+        UriComponentsBuilder requestUri = EventLogV1Controller.fieldsQuery(ServletUriComponentsBuilder.fromCurrentRequestUri(), fields, type);
+        return supplyOnDbThread(() -> EventLogV1Controller.pageResponse(
+                eventLogService.getEventFieldsForUser(userId, fields, limit, after, from, to, type), requestUri, limit, from, to));
+    }
+
+    /**
+     * @see EventLogV1Controller#getEventsByTime
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<List<Event>>> getEventsByTime(@RequestParam(value = "from")
+                                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                                          @RequestParam(value = "to")
+                                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                                          @RequestParam(value = "type", required = false) Event.EventType type,
+                                                                          @RequestParam(value = "limit", required = false) Integer limit,
+                                                                          @RequestParam(value = "after", required = false) UUID after) {
+        // The request is only available on the Tomcat thread
+        UriComponentsBuilder requestUri = EventLogV1Controller.typeQuery(ServletUriComponentsBuilder.fromCurrentRequestUri(), type);
+        return supplyOnDbThread(() -> EventLogV1Controller.pageResponse(
+                eventLogService.getEventsByTime(from, to, type, limit, after), requestUri, limit, from, to));
+    }
+
+    /**
+     * @see EventLogV1Controller#streamEventsForUser
+     * Streamed responses are already written on Spring MVC's async task executor.
+     */
+    @RequestMapping(path = "/event/user/{userId}", method = RequestMethod.GET, produces = EventLogV1Controller.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamEventsForUser(@PathVariable(value="userId") UUID userId) {
+        return blockingController.streamEventsForUser(userId);
+    }
+
+    /**
+     * @see EventLogV1Controller#streamNewEvents
+     * Server-sent events are written by the feed's sender threads, not the DB threads.
+     */
+    @RequestMapping(path = "/events/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamNewEvents(@RequestParam(value = "userId", required = false) UUID userId,
+                                      @RequestParam(value = "type", required = false) Event.EventType type,
+                                      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                      @RequestParam(value = "lastEventId", required = false) String lastEventIdParam) {
+        return blockingController.streamNewEvents(userId, type, lastEventId, lastEventIdParam);
+    }
+
+    /**
+     * @see EventLogV1Controller#verifyChain
+     */
+    @RequestMapping(path = "/event/user/{userId}/verify", method = RequestMethod.GET)
+    public CompletableFuture<ChainVerification> verifyChain(@PathVariable(value="userId") UUID userId,
+                                                            @RequestParam(value = "sequence", required = false) Long sequence,
+                                                            @RequestParam(value = "hash", required = false) String hash) {
+        return supplyOnDbThread(() -> blockingController.verifyChain(userId, sequence, hash));
+    }
+
+    /**
+     * @see EventLogV1Controller#getStatisticsForUser
+     */
+    @RequestMapping(path = "/event/user/{userId}/stats", method = RequestMethod.GET)
+    public CompletableFuture<EventStatistics> getStatisticsForUser(@PathVariable(value="userId") UUID userId,
+                                                                   @RequestParam(value = "interval", defaultValue = "DAY")
+                                                                   EventStatistics.Interval interval) {
+        return supplyOnDbThread(() -> blockingController.getStatisticsForUser(userId, interval));
+    }
+
+    /**
+     * @see EventLogV1Controller#getStatistics
+     */
+    @RequestMapping(path = "/event/stats", method = RequestMethod.GET)
+    public CompletableFuture<EventStatistics> getStatistics(@RequestParam(value = "interval", defaultValue = "DAY")
+                                                            EventStatistics.Interval interval) {
+        return supplyOnDbThread(() -> blockingController.getStatistics(interval));
+    }
+
+    /**
+     * @see EventLogV1Controller#getEventById
+     */
+    @RequestMapping(path = "/event/{eventId}", method = RequestMethod.GET)
+    public CompletableFuture<Event> getEventById(@PathVariable(value="eventId") UUID eventId) {
+        return supplyOnDbThread(() -> blockingController.getEventById(eventId));
+    }
+
+    /**
+     * @see EventLogV1Controller#getEventsByIds
+     */
+    @RequestMapping(path = "/event/_mget", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<EventMultiGetResult> getEventsByIds(@RequestBody List<UUID> eventIds) {
+        return supplyOnDbThread(() -> blockingController.getEventsByIds(eventIds));
+    }
+
+    /**
+     * @see EventLogV1Controller#createEvent
+     */
+    @RequestMapping(path = "/event", method = RequestMethod.POST,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, EventBinaryFormat.MEDIA_TYPE_VALUE})
+    public CompletableFuture<ResponseEntity> createEvent(@RequestBody Event event) {
+        return supplyOnDbThread(() -> blockingController.createEvent(event));
+    }
+
+    /**
+     * @see EventLogV1Controller#createEvents
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<List<EventBatchResult>> createEvents(@RequestBody List<JsonNode> events) {
+        return supplyOnDbThread(() -> blockingController.createEvents(events));
+    }
+
+    /**
+     * @see EventLogV1Controller#createEventsFromNdjson
+     * The body is read on the Tomcat thread, as the request can't be read once it has been released.
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.POST, consumes = EventLogV1Controller.APPLICATION_NDJSON_VALUE)
+    public CompletableFuture<List<EventBatchResult>> createEventsFromNdjson(InputStream body) throws IOException {
+        byte[] ndjson = StreamUtils.copyToByteArray(body);
+        return supplyOnDbThread(() -> {
+            try {
+                return blockingController.createEventsFromNdjson(new ByteArrayInputStream(ndjson));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * @see EventLogV1Controller#createEventsFromBinary
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.POST, consumes = EventBinaryFormat.MEDIA_TYPE_VALUE)
+    public CompletableFuture<List<EventBatchResult>> createEventsFromBinary(@RequestBody List<Event> events) {
+        return supplyOnDbThread(() -> blockingController.createEventsFromBinary(events));
+    }
+
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity handleException(HttpMessageNotReadableException ex) {
+        return blockingController.handleException(ex);
+    }
+
+    private <T> CompletableFuture<T> supplyOnDbThread(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, dbExecutor);
+        } catch (RejectedExecutionException ex) {
+            log.warn("DB queue is full, rejecting request");
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+}
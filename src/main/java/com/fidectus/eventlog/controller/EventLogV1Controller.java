@@ -1,21 +1,52 @@
 package com.fidectus.eventlog.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.InvalidFormatException;
 import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.fidectus.eventlog.dto.ChainVerification;
 import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.dto.EventMultiGetResult;
+import com.fidectus.eventlog.dto.EventBinaryFormat;
+import com.fidectus.eventlog.dto.EventPage;
+import com.fidectus.eventlog.dto.EventProjection;
+import com.fidectus.eventlog.dto.EventStatistics;
+import com.fidectus.eventlog.dto.LoggedEvent;
+import com.fidectus.eventlog.services.EventFeed;
 import com.fidectus.eventlog.services.EventLogService;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -24,23 +55,210 @@ import java.util.UUID;
  */
 @RestController
 @RequestMapping("api/v1")
+@ConditionalOnProperty(name = "eventlog.execution.mode", havingValue = "blocking", matchIfMissing = true)
 public class EventLogV1Controller {
-    private static final Log log = LogFactory.getLog(EventLogV1Controller.class);
+    private static final Logger log = LoggerFactory.getLogger(EventLogV1Controller.class);
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private EventLogService eventLogService;
+    private ObjectMapper objectMapper;
+    private Duration feedTimeout;
 
     @Autowired
-    public EventLogV1Controller(EventLogService eventLogService) {
+    public EventLogV1Controller(EventLogService eventLogService, ObjectMapper objectMapper,
+                                @Value("${eventlog.feed.timeout:30m}") Duration feedTimeout) {
         this.eventLogService = eventLogService;
+        this.objectMapper = objectMapper;
+        this.feedTimeout = feedTimeout;
     }
 
     /**
      * @param userId User UUID to be queried for events
-     * @return List of events that belong to userId. Can be empty if no events found
+     * @param limit Maximum number of events to return
+     * @param after eventId of the last event on the previous page
+     * @param from Only events at or after this time
+     * @param to Only events before this time
+     * @param type Only events of this eventType
+     * @return Page of events that belong to userId, ordered by time. Can be empty if no events found.
+     * A Link header with rel="next" is included if there are more events.
      */
     @RequestMapping(path = "/event/user/{userId}", method = RequestMethod.GET)
-    public List<Event> getEventsForUser(@PathVariable(value="userId") UUID userId) {
-        log.info("Received request for events with userId: " + userId);
-        return eventLogService.getEventsForUser(userId);
+    public ResponseEntity<List<Event>> getEventsForUser(@PathVariable(value="userId") UUID userId,
+                                                        @RequestParam(value = "limit", required = false) Integer limit,
+                                                        @RequestParam(value = "after", required = false) UUID after,
+                                                        @RequestParam(value = "from", required = false)
+                                                        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                        @RequestParam(value = "to", required = false)
+                                                        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                        @RequestParam(value = "type", required = false) Event.EventType type) {
+        log.debug("Received request for events with userId: {}", userId);
+        EventPage<Event> page = eventLogService.getEventsForUser(userId, limit, after, from, to, type);
+        return pageResponse(page, typeQuery(ServletUriComponentsBuilder.fromCurrentRequestUri(), type), limit, from, to);
+    }
+
+    /**
+     * @param userId User UUID to be queried for events
+     * @param fields Names of the event fields to return, comma separated, out of eventId, userId, eventType, time and eventHash
+     * @param limit Maximum number of events to return
+     * @param after eventId of the last event on the previous page
+     * @param from Only events at or after this time
+     * @param to Only events before this time
+     * @param type Only events of this eventType
+     * @return The same page as getEventsForUser, with only the requested fields of each event.
+     * Only those columns are read from the DB.
+     */
+    @RequestMapping(path = "/event/user/{userId}", method = RequestMethod.GET, params = "fields")
+    public ResponseEntity<List<EventProjection>> getEventFieldsForUser(@PathVariable(value="userId") UUID userId,
+                                                                       @RequestParam(value = "fields") List<String> fields,
+                                                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                                                       @RequestParam(value = "after", required = false) UUID after,
+                                                                       @RequestParam(value = "from", required = false)
+                                                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                                       @RequestParam(value = "to", required = false)
+                                                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                                       @RequestParam(value = "type", required = false) Event.EventType type) {
+        log.debug("Received request for fields {} of events with userId: {}", fields, userId);
+        EventPage<EventProjection> page = eventLogService.getEventFieldsForUser(userId, fields, limit, after, from, to, type);
+        return pageResponse(page, fieldsQuery(ServletUriComponentsBuilder.fromCurrentRequestUri(), fields, type), limit, from, to);
+    }
+
+    /**
+     * @param from Only events at or after this time
+     * @param to Only events before this time
+     * @param type Only events of this eventType
+     * @param limit Maximum number of events to return
+     * @param after eventId of the last event on the previous page
+     * @return Page of the events of all users in the time range, ordered by time. Can be empty if no events found.
+     * A Link header with rel="next" is included if there are more events.
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.GET)
+    public ResponseEntity<List<Event>> getEventsByTime(@RequestParam(value = "from")
+                                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                       @RequestParam(value = "to")
+                                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                       @RequestParam(value = "type", required = false) Event.EventType type,
+                                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                                       @RequestParam(value = "after", required = false) UUID after) {
+        log.debug("Received request for events from: {} to: {} of type: {}", from, to, type);
+        EventPage<Event> page = eventLogService.getEventsByTime(from, to, type, limit, after);
+        return pageResponse(page, typeQuery(ServletUriComponentsBuilder.fromCurrentRequestUri(), type), limit, from, to);
+    }
+
+    // Keeps the type filter in the Link to the next page
+    static UriComponentsBuilder typeQuery(UriComponentsBuilder requestUri, Event.EventType type) {
+        return type != null ? requestUri.queryParam("type", type) : requestUri;
+    }
+
+    // Keeps the fields and type filter in the Link to the next page
+    static UriComponentsBuilder fieldsQuery(UriComponentsBuilder requestUri, List<String> fields, Event.EventType type) {
+        return typeQuery(requestUri.queryParam("fields", String.join(",", fields)), type);
+    }
+
+    // Adds a Link to the next page, if there is one, built from the request URI and its paging parameters
+    static <T> ResponseEntity<List<T>> pageResponse(EventPage<T> page, UriComponentsBuilder requestUri,
+                                                    Integer limit, LocalDateTime from, LocalDateTime to) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextAfter() != null) {
+            UriComponentsBuilder nextPage = requestUri.queryParam("after", page.getNextAfter());
+            if (limit != null) {
+                nextPage.queryParam("limit", limit);
+            }
+            if (from != null) {
+                nextPage.queryParam("from", from);
+            }
+            if (to != null) {
+                nextPage.queryParam("to", to);
+            }
+            response.header(HttpHeaders.LINK, "<" + nextPage.toUriString() + ">; rel=\"next\"");
+        }
+        return response.body(page.getEvents());
+    }
+
+    /**
+     * @param userId User UUID to be queried for events
+     * @return Every event that belongs to userId, ordered by time, as newline delimited JSON.
+     * Events are written to the response as they are read from the DB.
+     */
+    @RequestMapping(path = "/event/user/{userId}", method = RequestMethod.GET, produces = APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamEventsForUser(@PathVariable(value="userId") UUID userId) {
+        log.debug("Received request to stream events with userId: {}", userId);
+        return outputStream -> {
+            OutputStream bufferedStream = new BufferedOutputStream(outputStream);
+            try {
+                eventLogService.streamEventsForUser(userId, event -> {
+                    try {
+                        bufferedStream.write(objectMapper.writeValueAsBytes(event));
+                        bufferedStream.write('\n');
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause(); // Client disconnected, this stops reading from the DB
+            }
+            bufferedStream.flush();
+        };
+    }
+
+    /**
+     * @param userId Only events of this user
+     * @param type Only events of this eventType
+     * @param lastEventId Id of the last message received, to resume after it. Sent by EventSource clients when they reconnect.
+     * @param lastEventIdParam The same as a query parameter, for clients that can't set headers
+     * @return Server-sent events of the events logged from now on, or since lastEventId.
+     * The stream is closed after eventlog.feed.timeout, or if the client falls too far behind, and can be resumed.
+     */
+    @RequestMapping(path = "/events/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamNewEvents(@RequestParam(value = "userId", required = false) UUID userId,
+                                      @RequestParam(value = "type", required = false) Event.EventType type,
+                                      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                      @RequestParam(value = "lastEventId", required = false) String lastEventIdParam) {
+        log.debug("Received request to stream new events with userId: {} and type: {}", userId, type);
+        EventFeedEmitter emitter = new EventFeedEmitter(feedTimeout.toMillis());
+        EventFeed.Subscription subscription = eventLogService.subscribeToFeed(userId, type,
+                lastEventId != null ? lastEventId : lastEventIdParam, emitter);
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(ex -> subscription.cancel());
+        return emitter;
+    }
+
+    /**
+     * @param userId User UUID whose hash chain is verified
+     * @param sequence Chain sequence of a checkpoint from an earlier verification, to only verify the events after it
+     * @param hash Chain hash of the checkpoint in hex
+     * @return Whether the chain is intact, and its last verified link to use as the next checkpoint
+     */
+    @RequestMapping(path = "/event/user/{userId}/verify", method = RequestMethod.GET)
+    public ChainVerification verifyChain(@PathVariable(value="userId") UUID userId,
+                                         @RequestParam(value = "sequence", required = false) Long sequence,
+                                         @RequestParam(value = "hash", required = false) String hash) {
+        log.debug("Received request to verify hash chain of userId: {} from sequence: {}", userId, sequence);
+        return eventLogService.verifyChain(userId, sequence, hash);
+    }
+
+    /**
+     * @param userId User UUID whose events are counted
+     * @param interval Length of the periods events are counted in, DAY (default) or HOUR
+     * @return Counts of the user's events by eventType and by period, and the times of the first and last event
+     */
+    @RequestMapping(path = "/event/user/{userId}/stats", method = RequestMethod.GET)
+    public EventStatistics getStatisticsForUser(@PathVariable(value="userId") UUID userId,
+                                                @RequestParam(value = "interval", defaultValue = "DAY")
+                                                EventStatistics.Interval interval) {
+        log.debug("Received request for statistics of userId: {}", userId);
+        return eventLogService.getStatistics(userId, interval);
+    }
+
+    /**
+     * @param interval Length of the periods events are counted in, DAY (default) or HOUR
+     * @return Counts of all users' events by eventType and by period, and the times of the first and last event
+     */
+    @RequestMapping(path = "/event/stats", method = RequestMethod.GET)
+    public EventStatistics getStatistics(@RequestParam(value = "interval", defaultValue = "DAY")
+                                         EventStatistics.Interval interval) {
+        log.debug("Received request for statistics of all events");
+        return eventLogService.getStatistics(null, interval);
     }
 
     /**
@@ -49,7 +267,7 @@ public class EventLogV1Controller {
      */
     @RequestMapping(path = "/event/{eventId}", method = RequestMethod.GET)
     public Event getEventById(@PathVariable(value="eventId") UUID eventId) {
-        log.info("Received request for finding event with id " + eventId);
+        log.debug("Received request for finding event with id {}", eventId);
         Event event = eventLogService.getEventById(eventId);
         if (event == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND);
@@ -58,26 +276,138 @@ public class EventLogV1Controller {
     }
 
     /**
-     * @param event Event JSON with fields eventId, usedId, eventType, time
-     * @return 201 Created if successful along with event
+     * @param eventIds JSON array of Event UUIDs to be queried for, at most eventlog.mget.max-ids
+     * @return 200 OK along with the Events found and the eventIds that weren't, in one round trip
      */
-    @RequestMapping(path = "/event", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(path = "/event/_mget", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public EventMultiGetResult getEventsByIds(@RequestBody List<UUID> eventIds) {
+        log.debug("Received request for finding {} events by id", eventIds.size());
+        return eventLogService.getEventsByIds(eventIds);
+    }
+
+    /**
+     * @param event Event JSON with fields eventId, usedId, eventType, time, or a binary Event
+     * @return 201 Created if successful along with event,
+     * or 202 Accepted if the event has been queued to be written when running in write-behind mode,
+     * or 200 OK along with the original Event if deduplication is on and an Event with the same content was already logged
+     */
+    @RequestMapping(path = "/event", method = RequestMethod.POST,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, EventBinaryFormat.MEDIA_TYPE_VALUE})
     public ResponseEntity createEvent(@RequestBody Event event) {
-        log.info("Received request to log event: " + event);
+        log.debug("Received request to log event: {}", event);
+
+        LoggedEvent loggedEvent = eventLogService.logEvent(event);
+
+        if (loggedEvent.isDuplicate()) {
+            return ResponseEntity.ok(loggedEvent.getEvent());
+        }
+        return ResponseEntity.status(eventLogService.isWriteBehind() ? HttpStatus.ACCEPTED : HttpStatus.CREATED)
+                .body(loggedEvent.getEvent());
+    }
+
+    /**
+     * @param events JSON array of Events, each with fields eventId, usedId, eventType, time
+     * @return 200 OK along with the result of each event, in the order they were submitted
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public List<EventBatchResult> createEvents(@RequestBody List<JsonNode> events) {
+        log.debug("Received request to log {} events", events.size());
+
+        List<Event> parsedEvents = new ArrayList<>(events.size());
+        List<EventBatchResult> results = new ArrayList<>(events.size());
+        for (JsonNode event : events) {
+            parseEvent(event, parsedEvents, results);
+        }
+        return logParsedEvents(parsedEvents, results);
+    }
+
+    /**
+     * @param body Newline delimited JSON, one Event per line
+     * @return 200 OK along with the result of each event, in the order they were submitted
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.POST, consumes = APPLICATION_NDJSON_VALUE)
+    public List<EventBatchResult> createEventsFromNdjson(InputStream body) throws IOException {
+        List<Event> parsedEvents = new ArrayList<>();
+        List<EventBatchResult> results = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonNode event;
+            try {
+                event = objectMapper.readTree(line);
+            } catch (JsonProcessingException ex) {
+                results.add(EventBatchResult.invalid(null, "Invalid JSON received"));
+                continue;
+            }
+            parseEvent(event, parsedEvents, results);
+        }
+        log.debug("Received request to log {} events", results.size());
+
+        return logParsedEvents(parsedEvents, results);
+    }
 
-        Event dbEvent = eventLogService.logEvent(event);
+    /**
+     * @param events Binary Events, one after another
+     * @return 200 OK along with the result of each event, in the order they were submitted
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.POST, consumes = EventBinaryFormat.MEDIA_TYPE_VALUE)
+    public List<EventBatchResult> createEventsFromBinary(@RequestBody List<Event> events) {
+        log.debug("Received request to log {} binary events", events.size());
+
+        return eventLogService.logEvents(events);
+    }
 
-        return ResponseEntity.status(HttpStatus.CREATED)
-                .body(dbEvent);
+    // Adds the parsed event to parsedEvents with a placeholder in results, or an INVALID result if it can't be parsed
+    private void parseEvent(JsonNode event, List<Event> parsedEvents, List<EventBatchResult> results) {
+        try {
+            parsedEvents.add(objectMapper.treeToValue(event, Event.class));
+            results.add(null);
+        } catch (JsonProcessingException ex) {
+            UUID eventId = null;
+            try {
+                eventId = UUID.fromString(event.path("eventId").asText());
+            } catch (IllegalArgumentException idEx) {
+                // eventId is missing or not a UUID, report the result without it
+            }
+            String errorMessage = getErrorMessage(ex);
+            results.add(EventBatchResult.invalid(eventId, errorMessage != null ? errorMessage : "Invalid JSON received"));
+        }
+    }
+
+    private List<EventBatchResult> logParsedEvents(List<Event> parsedEvents, List<EventBatchResult> results) {
+        List<EventBatchResult> logResults = eventLogService.logEvents(parsedEvents);
+        int next = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == null) {
+                results.set(i, logResults.get(next++));
+            }
+        }
+        return results;
     }
 
     // Exception handling for malformed/missing JSON
     @ExceptionHandler(HttpMessageNotReadableException.class)
     public ResponseEntity handleException(HttpMessageNotReadableException ex) {
+        String errorMessage = getErrorMessage(ex.getCause());
+        if (errorMessage == null) {
+            // Ended up with an unexpected JSON exception, log as error to later add code for proper handling.
+            log.error("Unrecognised JSON error", ex);
+            errorMessage = "Invalid JSON received";
+        }
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body("{\"error\": \"" + errorMessage + "\"}");
+    }
+
+    // Maps Jackson and binary Event exceptions to an error message for the caller. Returns null if the exception is not recognised.
+    private static String getErrorMessage(Throwable cause) {
         String errorMessage = "Invalid JSON received";
-        if (ex.getCause() instanceof InvalidFormatException) {
+        if (cause instanceof InvalidFormatException) {
             // Fields are not in the proper format
-            InvalidFormatException nestedException = (InvalidFormatException) ex.getCause();
+            InvalidFormatException nestedException = (InvalidFormatException) cause;
 
             if (nestedException.getCause() instanceof DateTimeParseException) {
                 errorMessage = "Invalid Date-Time format submitted. Please use 2000-01-01T12:00 instead.";
@@ -86,9 +416,9 @@ public class EventLogV1Controller {
             } else if (nestedException.getTargetType().equals(UUID.class)) {
                 errorMessage = "Invalid UUID format.";
             }
-        } else if (ex.getCause() instanceof MismatchedInputException) {
+        } else if (cause instanceof MismatchedInputException) {
             // Required fields are missing OR malformed JSON (missing brace for example)
-            MismatchedInputException nestedException = (MismatchedInputException) ex.getCause();
+            MismatchedInputException nestedException = (MismatchedInputException) cause;
 
             List<JsonMappingException.Reference> pathReferences = nestedException.getPath();
             // if statement for missing field. pathReferences will contain an entry for the field name.
@@ -96,12 +426,12 @@ public class EventLogV1Controller {
             if (pathReferences != null && !pathReferences.isEmpty()) {
                 errorMessage = "Missing JSON field: " + pathReferences.get(0).getFieldName();
             }
+        } else if (cause instanceof IllegalArgumentException) {
+            // Malformed binary Event, the message says which part
+            errorMessage = "Invalid binary Event. " + cause.getMessage();
         } else {
-            // Ended up with an unexpected JSON exception, log as error to later add code for proper handling.
-            log.error("Unrecognised JSON error: " + ex);
+            return null;
         }
-        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                .contentType(MediaType.APPLICATION_JSON)
-                .body("{\"error\": \"" + errorMessage + "\"}");
+        return errorMessage;
     }
 }
@@ -0,0 +1,67 @@
+package com.fidectus.eventlog.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+/**
+ * DTO for the result of verifying a user's hash chain from a checkpoint.
+ *
+ * sequence and hash are the last link that verified, and can be passed back as the checkpoint of the next verification
+ * so that only Events stored since are hashed again. When the chain is broken, brokenEventId and error say where and why.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChainVerification {
+    private final UUID userId;
+    private final boolean valid;
+    private final long fromSequence;
+    private final long verifiedEvents;
+    private final long sequence;
+    private final String hash;
+    private final UUID brokenEventId;
+    private final String error;
+
+    public ChainVerification(UUID userId, boolean valid, long fromSequence, long verifiedEvents, long sequence,
+                             byte[] hash, UUID brokenEventId, String error) {
+        this.userId = userId;
+        this.valid = valid;
+        this.fromSequence = fromSequence;
+        this.verifiedEvents = verifiedEvents;
+        this.sequence = sequence;
+        this.hash = Hex.encode(hash);
+        this.brokenEventId = brokenEventId;
+        this.error = error;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public long getFromSequence() {
+        return fromSequence;
+    }
+
+    public long getVerifiedEvents() {
+        return verifiedEvents;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public UUID getBrokenEventId() {
+        return brokenEventId;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,43 @@
+package com.fidectus.eventlog.dto;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Conversion between Event times and microseconds since 1970-01-01T00:00, for compact binary formats.
+ * Event times have no zone, so they are treated as UTC. Anything finer than a microsecond is truncated.
+ */
+public final class EpochMicros {
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+    // About 290000 years either side of 1970, the nanoseconds of MAX are truncated away
+    private static final LocalDateTime MIN = toLocalDateTime(Long.MIN_VALUE);
+    private static final LocalDateTime MAX = toLocalDateTime(Long.MAX_VALUE).plusNanos(999);
+
+    private EpochMicros() { }
+
+    /**
+     * @return true if of() can convert time. Every time toLocalDateTime() returns can be.
+     */
+    public static boolean isRepresentable(LocalDateTime time) {
+        return !time.isBefore(MIN) && !time.isAfter(MAX);
+    }
+
+    /**
+     * @throws IllegalArgumentException if time is not isRepresentable()
+     */
+    public static long of(LocalDateTime time) {
+        if (!isRepresentable(time)) {
+            throw new IllegalArgumentException("Time out of range: " + time);
+        }
+        Instant instant = time.toInstant(ZoneOffset.UTC);
+        // May overflow part way for times near MIN, but the result is in range so it comes out right
+        return instant.getEpochSecond() * MICROS_PER_SECOND + instant.getNano() / 1000;
+    }
+
+    public static LocalDateTime toLocalDateTime(long epochMicros) {
+        long seconds = Math.floorDiv(epochMicros, MICROS_PER_SECOND);
+        int nanos = (int) Math.floorMod(epochMicros, MICROS_PER_SECOND) * 1000;
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,22 @@
+package com.fidectus.eventlog.dto;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.time.LocalDateTime;
+
+/**
+ * Stores Event times as a BIGINT of microseconds since the epoch rather than a dialect specific TIMESTAMP.
+ * Comparisons and ordering on the column match the LocalDateTime ones, so range queries on time still work.
+ */
+@Converter
+public class EpochMicrosConverter implements AttributeConverter<LocalDateTime, Long> {
+    @Override
+    public Long convertToDatabaseColumn(LocalDateTime time) {
+        return time == null ? null : EpochMicros.of(time);
+    }
+
+    @Override
+    public LocalDateTime convertToEntityAttribute(Long epochMicros) {
+        return epochMicros == null ? null : EpochMicros.toLocalDateTime(epochMicros);
+    }
+}
@@ -1,28 +1,72 @@
 package com.fidectus.eventlog.dto;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.annotations.Type;
+import org.springframework.data.domain.Persistable;
 import org.springframework.format.annotation.DateTimeFormat;
 
+import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Table;
+import javax.persistence.Transient;
 import java.time.LocalDateTime;
 import java.util.Objects;
 import java.util.UUID;
 
 /**
  * DTO & DB object for Events
+ *
+ * Events are never updated once logged, so they are always treated as new by the Repository until loaded or persisted.
+ * This makes save() a plain INSERT rather than a SELECT to check for an existing row followed by an INSERT.
+ *
+ * The columns are kept as small as possible so the (userId, time) index stays in cache: UUIDs as BINARY(16), time as
+ * BIGINT epoch micros and eventType as a TINYINT ordinal, 45 bytes of data per row before the hash chain link.
+ * The (time, eventId) index serves time range queries across users, reading only the rows in the range.
+ *
+ * The table and its indexes are created by the Flyway migrations in db/migration, which must be kept in step with this
+ * mapping. UUIDs are bound as binary on every database, rather than as PostgreSQL's own uuid type, so the same JDBC
+ * code in EventRepositoryCustomImpl and EventCountRepository works against each backend.
+ *
+ * chainSequence and chainHash place the Event in its user's hash chain (see EventHashChain). They are set by the storage
+ * engine when the Event is stored, and are not part of the JSON.
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_event_user_id_time", columnList = "userId, time"),
+        @Index(name = "idx_event_user_id_chain_sequence", columnList = "userId, chainSequence"),
+        @Index(name = "idx_event_time", columnList = "time, eventId")
+})
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class Event {
+public class Event implements Persistable<UUID> {
     @Id
+    @Type(type = "uuid-binary")
+    @Column(columnDefinition = "BINARY(16)")
     private UUID eventId;
+    @Type(type = "uuid-binary")
+    @Column(columnDefinition = "BINARY(16)", nullable = false)
     private UUID userId;
+    @Convert(converter = EventTypeConverter.class)
+    @Column(columnDefinition = "TINYINT", nullable = false)
     private EventType eventType;
+    @Convert(converter = EpochMicrosConverter.class)
+    @Column(columnDefinition = "BIGINT", nullable = false)
     private LocalDateTime time;
+    @Column(nullable = false)
     private int eventHash;
+    @Column(columnDefinition = "BIGINT", nullable = false)
+    private long chainSequence;
+    @Column(columnDefinition = "BINARY(32)", nullable = false)
+    private byte[] chainHash;
+    @Transient
+    private boolean isNew = true;
 
     // Default constructor for Repository usage
     protected Event() { }
@@ -78,10 +122,43 @@ public class Event {
         return eventHash;
     }
 
+    @JsonIgnore
+    public long getChainSequence() {
+        return chainSequence;
+    }
+
+    @JsonIgnore
+    public byte[] getChainHash() {
+        return chainHash;
+    }
+
+    public void setChain(long chainSequence, byte[] chainHash) {
+        this.chainSequence = chainSequence;
+        this.chainHash = chainHash;
+    }
+
     private void updateEventHash() {
         this.eventHash = Objects.hash(eventType, userId, time);
     }
 
+    @Override
+    @JsonIgnore
+    public UUID getId() {
+        return eventId;
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
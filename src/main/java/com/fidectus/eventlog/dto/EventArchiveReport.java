@@ -0,0 +1,53 @@
+package com.fidectus.eventlog.dto;
+
+/**
+ * DTO for the result of exporting the event log to an archive file or importing one.
+ * skipped are the Events of an import that were already stored, always 0 for an export.
+ */
+public class EventArchiveReport {
+    private final String file;
+    private final long events;
+    private final long skipped;
+    private final long bytes;
+    private final long millis;
+    private final double eventsPerSecond;
+
+    public EventArchiveReport(String file, long events, long skipped, long bytes, long millis) {
+        this.file = file;
+        this.events = events;
+        this.skipped = skipped;
+        this.bytes = bytes;
+        this.millis = millis;
+        this.eventsPerSecond = (events + skipped) * 1000.0 / Math.max(1, millis);
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d events, %d skipped, %d bytes in %d ms (%.0f events/s)",
+                file, events, skipped, bytes, millis, eventsPerSecond);
+    }
+}
@@ -0,0 +1,61 @@
+package com.fidectus.eventlog.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+/**
+ * DTO for the outcome of a single Event in a batch request.
+ * Results are returned in the same order as the Events were submitted.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EventBatchResult {
+    private final UUID eventId;
+    private final Status status;
+    private final String error;
+
+    private EventBatchResult(UUID eventId, Status status, String error) {
+        this.eventId = eventId;
+        this.status = status;
+        this.error = error;
+    }
+
+    public static EventBatchResult created(UUID eventId) {
+        return new EventBatchResult(eventId, Status.CREATED, null);
+    }
+
+    public static EventBatchResult duplicate(UUID eventId) {
+        return new EventBatchResult(eventId, Status.DUPLICATE, "Event with this eventId already exists.");
+    }
+
+    public static EventBatchResult invalid(UUID eventId, String error) {
+        return new EventBatchResult(eventId, Status.INVALID, error);
+    }
+
+    public UUID getEventId() {
+        return eventId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "EventBatchResult{" +
+                "eventId=" + eventId +
+                ", status=" + status +
+                ", error=" + error +
+                '}';
+    }
+
+    public enum Status {
+        CREATED,
+        DUPLICATE,
+        INVALID
+    }
+}
@@ -0,0 +1,52 @@
+package com.fidectus.eventlog.dto;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Fixed size binary layout of an Event, big-endian:
+ *
+ * <pre>
+ * eventId     16 bytes
+ * userId      16 bytes
+ * eventType    1 byte   (ordinal)
+ * time         8 bytes  (microseconds since epoch, UTC)
+ * </pre>
+ *
+ * Used as the {@value #MEDIA_TYPE_VALUE} wire format, and as the start of each record in a log segment.
+ */
+public final class EventBinaryFormat {
+    public static final String MEDIA_TYPE_VALUE = "application/x-event-binary";
+    public static final int SIZE = 41;
+    private static final Event.EventType[] EVENT_TYPES = Event.EventType.values();
+
+    private EventBinaryFormat() { }
+
+    /**
+     * Writes event at the buffer's position, advancing it by {@link #SIZE}
+     * @throws IllegalArgumentException if the time is not {@link EpochMicros#isRepresentable}
+     */
+    public static void write(ByteBuffer buffer, Event event) {
+        buffer.putLong(event.getEventId().getMostSignificantBits())
+                .putLong(event.getEventId().getLeastSignificantBits())
+                .putLong(event.getUserId().getMostSignificantBits())
+                .putLong(event.getUserId().getLeastSignificantBits())
+                .put((byte) event.getEventType().ordinal())
+                .putLong(EpochMicros.of(event.getTime()));
+    }
+
+    /**
+     * Reads an Event from the buffer's position, advancing it by {@link #SIZE}
+     * Every time read is {@link EpochMicros#isRepresentable}, so the Event can always be written back.
+     * @throws IllegalArgumentException if the eventType is not a known ordinal
+     */
+    public static Event read(ByteBuffer buffer) {
+        UUID eventId = new UUID(buffer.getLong(), buffer.getLong());
+        UUID userId = new UUID(buffer.getLong(), buffer.getLong());
+        int eventType = buffer.get();
+        if (eventType < 0 || eventType >= EVENT_TYPES.length) {
+            throw new IllegalArgumentException("Invalid eventType. Use 0 to " + (EVENT_TYPES.length - 1) + ".");
+        }
+        return new Event(eventId, EVENT_TYPES[eventType], userId, EpochMicros.toLocalDateTime(buffer.getLong()));
+    }
+}
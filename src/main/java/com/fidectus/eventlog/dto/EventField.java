@@ -0,0 +1,42 @@
+package com.fidectus.eventlog.dto;
+
+import java.util.function.Function;
+
+/**
+ * The fields of an Event's JSON that can be asked for on their own, with the name each has in the JSON and in Event's mapping.
+ */
+public enum EventField {
+    EVENT_ID("eventId", Event::getEventId),
+    USER_ID("userId", Event::getUserId),
+    EVENT_TYPE("eventType", Event::getEventType),
+    TIME("time", Event::getTime),
+    EVENT_HASH("eventHash", Event::getEventHash);
+
+    private final String jsonName;
+    private final Function<Event, Object> getter;
+
+    EventField(String jsonName, Function<Event, Object> getter) {
+        this.jsonName = jsonName;
+        this.getter = getter;
+    }
+
+    public String getName() {
+        return jsonName;
+    }
+
+    public Object get(Event event) {
+        return getter.apply(event);
+    }
+
+    /**
+     * @return The field with this JSON name, or null if there is none
+     */
+    public static EventField of(String name) {
+        for (EventField field : values()) {
+            if (field.jsonName.equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
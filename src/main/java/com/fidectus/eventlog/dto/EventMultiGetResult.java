@@ -0,0 +1,26 @@
+package com.fidectus.eventlog.dto;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * DTO for the result of looking up many Events by eventId at once.
+ * events are the ones found and notFound the eventIds that weren't, each in the order they were asked for.
+ */
+public class EventMultiGetResult {
+    private final List<Event> events;
+    private final List<UUID> notFound;
+
+    public EventMultiGetResult(List<Event> events, List<UUID> notFound) {
+        this.events = events;
+        this.notFound = notFound;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    public List<UUID> getNotFound() {
+        return notFound;
+    }
+}
@@ -0,0 +1,26 @@
+package com.fidectus.eventlog.dto;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A page of Events, or of EventProjections of them, of one user or across users, ordered by time.
+ * nextAfter is the eventId to pass as the after cursor for the next page, or null if this is the last page.
+ */
+public class EventPage<T> {
+    private final List<T> events;
+    private final UUID nextAfter;
+
+    public EventPage(List<T> events, UUID nextAfter) {
+        this.events = events;
+        this.nextAfter = nextAfter;
+    }
+
+    public List<T> getEvents() {
+        return events;
+    }
+
+    public UUID getNextAfter() {
+        return nextAfter;
+    }
+}
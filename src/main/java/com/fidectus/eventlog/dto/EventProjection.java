@@ -0,0 +1,42 @@
+package com.fidectus.eventlog.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * DTO for some of an Event's fields, read without loading the Event itself. Serialised as a JSON object of just those
+ * fields. The eventId is always kept, to page on, but is only in the JSON if it was asked for.
+ */
+public class EventProjection {
+    private final UUID eventId;
+    private final Map<String, Object> fields;
+
+    /**
+     * @param fields Values by JSON name, in the order they are to be serialised
+     */
+    public EventProjection(UUID eventId, Map<String, Object> fields) {
+        this.eventId = eventId;
+        this.fields = fields;
+    }
+
+    @JsonIgnore
+    public UUID getEventId() {
+        return eventId;
+    }
+
+    @JsonValue
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    @Override
+    public String toString() {
+        return "EventProjection{" +
+                "eventId=" + eventId +
+                ", fields=" + fields +
+                '}';
+    }
+}
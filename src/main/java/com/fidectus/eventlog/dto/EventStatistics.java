@@ -0,0 +1,78 @@
+package com.fidectus.eventlog.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * DTO for the Event counts of one user, or of all users when userId is null.
+ *
+ * eventsPerInterval maps the start of each day or hour (UTC) that has Events to the number of Events in it.
+ * firstEventTime and lastEventTime are null when there are no Events.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EventStatistics {
+    private final UUID userId;
+    private final long total;
+    private final Map<Event.EventType, Long> countsByType;
+    private final LocalDateTime firstEventTime;
+    private final LocalDateTime lastEventTime;
+    private final Interval interval;
+    private final Map<LocalDateTime, Long> eventsPerInterval;
+
+    public EventStatistics(UUID userId, long total, Map<Event.EventType, Long> countsByType, LocalDateTime firstEventTime,
+                           LocalDateTime lastEventTime, Interval interval, Map<LocalDateTime, Long> eventsPerInterval) {
+        this.userId = userId;
+        this.total = total;
+        this.countsByType = countsByType;
+        this.firstEventTime = firstEventTime;
+        this.lastEventTime = lastEventTime;
+        this.interval = interval;
+        this.eventsPerInterval = eventsPerInterval;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public Map<Event.EventType, Long> getCountsByType() {
+        return countsByType;
+    }
+
+    public LocalDateTime getFirstEventTime() {
+        return firstEventTime;
+    }
+
+    public LocalDateTime getLastEventTime() {
+        return lastEventTime;
+    }
+
+    public Interval getInterval() {
+        return interval;
+    }
+
+    public Map<LocalDateTime, Long> getEventsPerInterval() {
+        return eventsPerInterval;
+    }
+
+    public enum Interval {
+        DAY(24),
+        HOUR(1);
+
+        private final int hours;
+
+        Interval(int hours) {
+            this.hours = hours;
+        }
+
+        public int getHours() {
+            return hours;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.fidectus.eventlog.dto;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores EventType as its ordinal, in the TINYINT column Event declares. This is the same encoding as the binary wire
+ * format, so new types must only ever be added at the end of the enum.
+ * Integer rather than Byte, as Hibernate binds converted Bytes as binary.
+ */
+@Converter
+public class EventTypeConverter implements AttributeConverter<Event.EventType, Integer> {
+    private static final Event.EventType[] EVENT_TYPES = Event.EventType.values();
+
+    @Override
+    public Integer convertToDatabaseColumn(Event.EventType eventType) {
+        return eventType == null ? null : eventType.ordinal();
+    }
+
+    @Override
+    public Event.EventType convertToEntityAttribute(Integer ordinal) {
+        return ordinal == null ? null : EVENT_TYPES[ordinal];
+    }
+}
@@ -0,0 +1,50 @@
+package com.fidectus.eventlog.dto;
+
+/**
+ * One message of the change feed to a subscriber: a newly logged Event, a gap, or a heartbeat.
+ *
+ * id is "{feedId}-{sequence}", where feedId identifies the running feed and sequence counts logged Events from 1.
+ * A subscriber passes the id of the last message it received to resume from there. A GAP means Events between that id
+ * and the next message could not be replayed, and its id is the one the subscriber resumed from.
+ */
+public class FeedEvent {
+    private final Kind kind;
+    private final String id;
+    private final Event event;
+
+    private FeedEvent(Kind kind, String id, Event event) {
+        this.kind = kind;
+        this.id = id;
+        this.event = event;
+    }
+
+    public static FeedEvent event(String id, Event event) {
+        return new FeedEvent(Kind.EVENT, id, event);
+    }
+
+    public static FeedEvent gap(String resumedFromId) {
+        return new FeedEvent(Kind.GAP, resumedFromId, null);
+    }
+
+    public static FeedEvent heartbeat() {
+        return new FeedEvent(Kind.HEARTBEAT, null, null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    public enum Kind {
+        EVENT,
+        GAP,
+        HEARTBEAT
+    }
+}
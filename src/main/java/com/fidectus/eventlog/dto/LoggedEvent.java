@@ -0,0 +1,33 @@
+package com.fidectus.eventlog.dto;
+
+/**
+ * Result of logging a single Event: the Event as logged, or the already logged original if it was a duplicate
+ */
+public class LoggedEvent {
+    private final Event event;
+    private final boolean duplicate;
+
+    private LoggedEvent(Event event, boolean duplicate) {
+        this.event = event;
+        this.duplicate = duplicate;
+    }
+
+    public static LoggedEvent logged(Event event) {
+        return new LoggedEvent(event, false);
+    }
+
+    public static LoggedEvent duplicateOf(Event original) {
+        return new LoggedEvent(original, true);
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    /**
+     * @return true if nothing was logged because an Event with the same content already was, see EventDeduplicator
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+}
@@ -0,0 +1,40 @@
+package com.fidectus.eventlog.dto;
+
+/**
+ * DTO for the result of moving users' Events to the shards the ring assigns them to.
+ * usersSkipped are users whose new shard already had other Events of theirs, which were left where they were.
+ */
+public class ShardRebalanceReport {
+    private final long usersMoved;
+    private final long eventsMoved;
+    private final long usersSkipped;
+    private final long millis;
+
+    public ShardRebalanceReport(long usersMoved, long eventsMoved, long usersSkipped, long millis) {
+        this.usersMoved = usersMoved;
+        this.eventsMoved = eventsMoved;
+        this.usersSkipped = usersSkipped;
+        this.millis = millis;
+    }
+
+    public long getUsersMoved() {
+        return usersMoved;
+    }
+
+    public long getEventsMoved() {
+        return eventsMoved;
+    }
+
+    public long getUsersSkipped() {
+        return usersSkipped;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d users with %d events moved, %d users skipped in %d ms", usersMoved, eventsMoved, usersSkipped, millis);
+    }
+}
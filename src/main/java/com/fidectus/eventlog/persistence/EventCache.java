@@ -0,0 +1,107 @@
+package com.fidectus.eventlog.persistence;
+
+import com.fidectus.eventlog.dto.Event;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache of Events by eventId, in front of the DB.
+ *
+ * Events are never updated once logged, so cached Events don't need invalidating.
+ * Lookups for events that don't exist are cached too, but only for negativeTtl as the event may be logged later.
+ * Eviction is Caffeine's W-TinyLFU, which keeps frequently read events over events that were only written.
+ */
+public class EventCache {
+    private final Cache<UUID, Optional<Event>> cache;
+
+    public EventCache(long maximumSize, Duration ttl, Duration negativeTtl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new EventExpiry(ttl.toNanos(), negativeTtl.toNanos()))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param loader Called to load the event on a cache miss, returns null if the event doesn't exist
+     * @return Event with eventId, or null if it doesn't exist
+     */
+    public Event get(UUID eventId, Function<UUID, Event> loader) {
+        return cache.get(eventId, id -> Optional.ofNullable(loader.apply(id))).orElse(null);
+    }
+
+    /**
+     * @param loader Called once with all the eventIds that missed, returns the events among them that exist
+     * @return The events among eventIds that exist, by eventId
+     */
+    public Map<UUID, Event> getAll(Collection<UUID> eventIds, Function<Set<UUID>, Map<UUID, Event>> loader) {
+        Map<UUID, Optional<Event>> cached = cache.getAll(eventIds, missingIds -> {
+            Set<UUID> idsToLoad = new HashSet<>();
+            missingIds.forEach(idsToLoad::add);
+            Map<UUID, Event> loaded = loader.apply(idsToLoad);
+            // Missing events are cached as empty, like get() does
+            Map<UUID, Optional<Event>> found = new HashMap<>();
+            for (UUID eventId : idsToLoad) {
+                found.put(eventId, Optional.ofNullable(loaded.get(eventId)));
+            }
+            return found;
+        });
+        Map<UUID, Event> events = new HashMap<>();
+        cached.forEach((eventId, event) -> event.ifPresent(value -> events.put(eventId, value)));
+        return events;
+    }
+
+    public void put(Event event) {
+        cache.put(event.getEventId(), Optional.of(event));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    // Found events live for ttl, missing events for negativeTtl. Reads don't extend either.
+    private static class EventExpiry implements Expiry<UUID, Optional<Event>> {
+        private final long ttlNanos;
+        private final long negativeTtlNanos;
+
+        EventExpiry(long ttlNanos, long negativeTtlNanos) {
+            this.ttlNanos = ttlNanos;
+            this.negativeTtlNanos = negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(UUID eventId, Optional<Event> event, long currentTime) {
+            return event.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(UUID eventId, Optional<Event> event, long currentTime, long currentDuration) {
+            return expireAfterCreate(eventId, event, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(UUID eventId, Optional<Event> event, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.fidectus.eventlog.persistence;
+
+import com.fidectus.eventlog.dto.Event;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * JDBC access to the summary tables of Event counts, one row per (user, eventType, hour) in user_event_counts and per
+ * (eventType, hour) across all users in global_event_counts. Rows only ever grow, by merging in counts from EventCounters.
+ *
+ * The tables are kept in the datasource whichever storage engine holds the Events, and are created by the migrations
+ * in db/migration.
+ */
+public class EventCountRepository {
+    private static final String UPDATE_USER_SQL = "update user_event_counts set event_count = event_count + ?, " +
+            "first_time = least(first_time, ?), last_time = greatest(last_time, ?) " +
+            "where user_id = ? and event_type = ? and bucket_hour = ?";
+    private static final String INSERT_USER_SQL = "insert into user_event_counts " +
+            "(event_count, first_time, last_time, user_id, event_type, bucket_hour) values (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_GLOBAL_SQL = "update global_event_counts set event_count = event_count + ?, " +
+            "first_time = least(first_time, ?), last_time = greatest(last_time, ?) " +
+            "where event_type = ? and bucket_hour = ?";
+    private static final String INSERT_GLOBAL_SQL = "insert into global_event_counts " +
+            "(event_count, first_time, last_time, event_type, bucket_hour) values (?, ?, ?, ?, ?)";
+    private static final String SELECT_COLUMNS = "select event_type, bucket_hour, event_count, first_time, last_time ";
+    private static final RowMapper<Bucket> BUCKET_MAPPER = (resultSet, row) -> new Bucket(null,
+            Event.EventType.values()[resultSet.getInt(1)], resultSet.getLong(2), resultSet.getLong(3),
+            resultSet.getLong(4), resultSet.getLong(5));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public EventCountRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Adds the counts of buckets to the stored ones, in one transaction. Buckets with a null userId are global.
+     * Must only be called by one thread at a time, as a bucket that is new to the table is inserted after the update misses it.
+     */
+    @Transactional
+    public void merge(List<Bucket> buckets) {
+        List<Bucket> userBuckets = new ArrayList<>();
+        List<Bucket> globalBuckets = new ArrayList<>();
+        for (Bucket bucket : buckets) {
+            (bucket.userId != null ? userBuckets : globalBuckets).add(bucket);
+        }
+        merge(userBuckets, UPDATE_USER_SQL, INSERT_USER_SQL);
+        merge(globalBuckets, UPDATE_GLOBAL_SQL, INSERT_GLOBAL_SQL);
+    }
+
+    /**
+     * @return The stored buckets of the user, found through the primary key
+     */
+    public List<Bucket> findByUserId(UUID userId) {
+        return jdbcTemplate.query(SELECT_COLUMNS + "from user_event_counts where user_id = ?", BUCKET_MAPPER, toBytes(userId));
+    }
+
+    /**
+     * @return The stored buckets across all users
+     */
+    public List<Bucket> findGlobal() {
+        return jdbcTemplate.query(SELECT_COLUMNS + "from global_event_counts", BUCKET_MAPPER);
+    }
+
+    private void merge(List<Bucket> buckets, String updateSql, String insertSql) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        int[][] updated = jdbcTemplate.batchUpdate(updateSql, buckets, buckets.size(), EventCountRepository::bind);
+        List<Bucket> newBuckets = new ArrayList<>();
+        for (int i = 0; i < buckets.size(); i++) {
+            if (updated[0][i] == 0) {
+                newBuckets.add(buckets.get(i));
+            }
+        }
+        if (!newBuckets.isEmpty()) {
+            jdbcTemplate.batchUpdate(insertSql, newBuckets, newBuckets.size(), EventCountRepository::bind);
+        }
+    }
+
+    // Parameters of both the update and the insert statements, key columns last
+    private static void bind(PreparedStatement statement, Bucket bucket) throws SQLException {
+        int index = 1;
+        statement.setLong(index++, bucket.count);
+        statement.setLong(index++, bucket.firstTime);
+        statement.setLong(index++, bucket.lastTime);
+        if (bucket.userId != null) {
+            statement.setBytes(index++, toBytes(bucket.userId));
+        }
+        statement.setByte(index++, (byte) bucket.eventType.ordinal());
+        statement.setLong(index, bucket.hour);
+    }
+
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Count of one eventType in one hour, for one user or (with a null userId) all users.
+     * Hours and times are in epoch hours and epoch micros.
+     */
+    public static final class Bucket {
+        private final UUID userId;
+        private final Event.EventType eventType;
+        private final long hour;
+        private final long count;
+        private final long firstTime;
+        private final long lastTime;
+
+        public Bucket(UUID userId, Event.EventType eventType, long hour, long count, long firstTime, long lastTime) {
+            this.userId = userId;
+            this.eventType = eventType;
+            this.hour = hour;
+            this.count = count;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+
+        public Event.EventType getEventType() {
+            return eventType;
+        }
+
+        public long getHour() {
+            return hour;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFirstTime() {
+            return firstTime;
+        }
+
+        public long getLastTime() {
+            return lastTime;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.fidectus.eventlog.persistence;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBinaryFormat;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Per-user SHA-256 hash chains over Events, so that changing, removing or reordering a stored Event can be detected.
+ *
+ * Each user's Events are numbered 1, 2, 3... in the order they are stored, and
+ * chainHash(n) = SHA-256(chainHash(n - 1) || Event n in EventBinaryFormat), where chainHash(0) is 32 zero bytes.
+ *
+ * Storage engines link Events just before storing them and advance the chains once they are stored, holding the locks
+ * of the users involved throughout. Locks are striped by userId, so writes for different users rarely wait on each other.
+ * The last link of recently written users is cached, otherwise it is loaded from the store.
+ * This assumes one application instance writes to the store.
+ */
+public class EventHashChain {
+    public static final int HASH_SIZE = 32;
+    private static final Link GENESIS = new Link(0, new byte[HASH_SIZE]);
+    // Follows a user's Event that didn't continue the chain, no Event has chain sequence 0
+    private static final Link BROKEN = new Link(-1, new byte[HASH_SIZE]);
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is required of every Java platform", ex);
+        }
+    });
+
+    private final ReentrantLock[] stripes;
+    private final Cache<UUID, Link> heads;
+
+    /**
+     * @param lockStripes Number of locks userIds are spread over
+     * @param maximumCachedHeads Number of users whose last link is kept in memory
+     */
+    public EventHashChain(int lockStripes, long maximumCachedHeads) {
+        this.stripes = new ReentrantLock[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.heads = Caffeine.newBuilder()
+                .maximumSize(maximumCachedHeads)
+                .build();
+    }
+
+    /**
+     * Locks the chains of userIds until the returned UserLocks is closed.
+     * Stripes are always taken in the same order, so callers locking overlapping sets of users can't deadlock.
+     */
+    public UserLocks lock(Collection<UUID> userIds) {
+        int[] stripeIndexes = userIds.stream()
+                .mapToInt(this::stripeOf)
+                .distinct()
+                .sorted()
+                .toArray();
+        for (int stripe : stripeIndexes) {
+            stripes[stripe].lock();
+        }
+        return new UserLocks(stripeIndexes);
+    }
+
+    /**
+     * Sets the chain sequence and hash of each Event, continuing its user's chain. Events of the same user are chained
+     * in list order. The chains don't move on until advance(), so Events that fail to be stored can be linked again.
+     * Must hold the locks of the users.
+     *
+     * @param lastEventLoader Returns the user's stored Event with the highest chain sequence, or null if there is none
+     */
+    public void link(List<Event> events, Function<UUID, Event> lastEventLoader) {
+        Map<UUID, Link> linked = new HashMap<>();
+        for (Event event : events) {
+            Link previous = linked.get(event.getUserId());
+            if (previous == null) {
+                previous = head(event.getUserId(), lastEventLoader);
+            }
+            Link next = new Link(previous.sequence + 1, hash(previous.hash, event));
+            event.setChain(next.sequence, next.hash);
+            linked.put(event.getUserId(), next);
+        }
+    }
+
+    /**
+     * Picks out the Events, linked already (e.g. read from an export), that continue their users' chains, for storing
+     * them as they are rather than linking them again. Events of the same user are checked in list order, and once one
+     * doesn't continue the chain none of the user's later ones do, so a chain is never forked or given a gap.
+     * The chains don't move on until advance(). Must hold the locks of the users.
+     *
+     * @param lastEventLoader Returns the user's stored Event with the highest chain sequence, or null if there is none
+     * @return The Events that continue their chains, in list order
+     */
+    public List<Event> continuing(List<Event> events, Function<UUID, Event> lastEventLoader) {
+        Map<UUID, Link> linked = new HashMap<>();
+        List<Event> continuing = new ArrayList<>(events.size());
+        for (Event event : events) {
+            Link previous = linked.get(event.getUserId());
+            if (previous == null) {
+                previous = head(event.getUserId(), lastEventLoader);
+            }
+            // A user with nothing stored takes a chain whose start was dropped by retention from where it begins
+            boolean trimmedStart = previous == GENESIS && event.getChainSequence() > 1;
+            if (trimmedStart || (event.getChainSequence() == previous.sequence + 1
+                    && Arrays.equals(event.getChainHash(), hash(previous.hash, event)))) {
+                continuing.add(event);
+                linked.put(event.getUserId(), new Link(event.getChainSequence(), event.getChainHash()));
+            } else {
+                linked.put(event.getUserId(), BROKEN);
+            }
+        }
+        return continuing;
+    }
+
+    /**
+     * Moves the chains on to the linked Events, once they are stored. Must hold the locks of the users.
+     */
+    public void advance(List<Event> events) {
+        for (Event event : events) {
+            heads.put(event.getUserId(), new Link(event.getChainSequence(), event.getChainHash()));
+        }
+    }
+
+    /**
+     * Forgets the cached chains, for when Events are removed from the store.
+     */
+    public void invalidateAll() {
+        heads.invalidateAll();
+    }
+
+    /**
+     * @return Chain hash of the user's first Event
+     */
+    public static byte[] genesisHash() {
+        return GENESIS.hash.clone();
+    }
+
+    /**
+     * @return Chain hash of event, following previousHash
+     */
+    public static byte[] hash(byte[] previousHash, Event event) {
+        ByteBuffer input = ByteBuffer.allocate(HASH_SIZE + EventBinaryFormat.SIZE);
+        input.put(previousHash);
+        EventBinaryFormat.write(input, event);
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        return digest.digest(input.array());
+    }
+
+    private Link head(UUID userId, Function<UUID, Event> lastEventLoader) {
+        return heads.get(userId, key -> {
+            Event lastEvent = lastEventLoader.apply(key);
+            return lastEvent == null ? GENESIS : new Link(lastEvent.getChainSequence(), lastEvent.getChainHash());
+        });
+    }
+
+    private int stripeOf(UUID userId) {
+        return Math.floorMod(userId.hashCode(), stripes.length);
+    }
+
+    public final class UserLocks implements AutoCloseable {
+        private final int[] stripeIndexes;
+
+        private UserLocks(int[] stripeIndexes) {
+            this.stripeIndexes = stripeIndexes;
+        }
+
+        @Override
+        public void close() {
+            for (int i = stripeIndexes.length - 1; i >= 0; i--) {
+                stripes[stripeIndexes[i]].unlock();
+            }
+        }
+    }
+
+    private static final class Link {
+        private final long sequence;
+        private final byte[] hash;
+
+        private Link(long sequence, byte[] hash) {
+            this.sequence = sequence;
+            this.hash = hash;
+        }
+    }
+}
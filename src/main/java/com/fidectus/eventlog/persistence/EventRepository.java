@@ -1,17 +1,39 @@
 package com.fidectus.eventlog.persistence;
 
 import com.fidectus.eventlog.dto.Event;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 /**
  * Interface definition for additional operations for Repository
  * Implementation bean is instantiated by Spring at runtime.
+ *
+ * Reads run in read-only transactions, like the ones CrudRepository's own finders get from Spring Data: the session
+ * isn't flushed and keeps no snapshot of the Events it loads to dirty-check, and the connection is given back when
+ * the read ends. Each runs on the shard EventShards has chosen, so the transactions can't be started any higher up.
  */
 @Repository
-public interface EventRepository extends CrudRepository<Event, UUID> {
+public interface EventRepository extends CrudRepository<Event, UUID>, EventRepositoryCustom {
+    @Transactional(readOnly = true)
     List<Event> findAllByUserId(UUID userId);
+
+    // Events with the same content as a new one, found through the (userId, time) index
+    @Transactional(readOnly = true)
+    Event findFirstByUserIdAndTimeAndEventType(UUID userId, LocalDateTime time, Event.EventType eventType);
+
+    // Last event in the user's hash chain
+    @Transactional(readOnly = true)
+    Event findFirstByUserIdOrderByChainSequenceDesc(UUID userId);
+
+    @Transactional(readOnly = true)
+    @Query("select e.eventId from Event e where e.eventId in :eventIds")
+    List<UUID> findExistingEventIds(@Param("eventIds") Collection<UUID> eventIds);
 }
@@ -0,0 +1,136 @@
+package com.fidectus.eventlog.persistence;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventField;
+import com.fidectus.eventlog.dto.EventProjection;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Interface definition for Repository operations that are not derived by Spring Data.
+ * Implementation is in EventRepositoryCustomImpl and is picked up by Spring at runtime.
+ */
+public interface EventRepositoryCustom {
+    /**
+     * Inserts all events in a single JDBC batch and transaction.
+     * If any eventId already exists, nothing is inserted and a DuplicateKeyException is thrown.
+     */
+    void insertAll(List<Event> events);
+
+    /**
+     * Keyset pagination over a user's events, ordered by time then eventId. Uses the (userId, time) index.
+     * Read in a read-only transaction, so Hibernate keeps no snapshot of the events to dirty-check.
+     *
+     * @param from Inclusive lower bound on event time, or null for no bound
+     * @param to Exclusive upper bound on event time, or null for no bound
+     * @param eventType Only events of this type, or null for all types
+     * @param after Only return events ordered after this one, or null to start from the beginning
+     * @param limit Maximum number of events to return
+     */
+    List<Event> findPageByUserId(UUID userId, LocalDateTime from, LocalDateTime to, Event.EventType eventType,
+                                 Event after, int limit);
+
+    /**
+     * The same page as findPageByUserId, selecting only the columns of fields and the eventId rather than whole Events,
+     * so nothing is added to the persistence context.
+     */
+    List<EventProjection> findFieldsPageByUserId(UUID userId, LocalDateTime from, LocalDateTime to, Event.EventType eventType,
+                                                 Event after, int limit, Set<EventField> fields);
+
+    /**
+     * Keyset pagination over the events of all users with from <= time < to, ordered by time then eventId.
+     * Uses the (time, eventId) index, so only the rows in the range are read.
+     *
+     * @param eventType Only events of this type, or null for all types
+     * @param after Only return events ordered after this one, or null to start from the beginning
+     * @param limit Maximum number of events to return
+     */
+    List<Event> findPageByTime(LocalDateTime from, LocalDateTime to, Event.EventType eventType, Event after, int limit);
+
+    /**
+     * Streams all of a user's events, ordered by time then eventId, to action as they are read from the DB.
+     * Rows are fetched eventlog.stream.fetch-size at a time and are not kept in the persistence context,
+     * so memory use does not grow with the number of events.
+     */
+    void forEachByUserId(UUID userId, Consumer<Event> action);
+
+    /**
+     * Streams a user's events with a chain sequence above afterSequence, in chain order, the same way as forEachByUserId.
+     * Uses the (userId, chainSequence) index.
+     */
+    void forEachInChainByUserId(UUID userId, long afterSequence, Consumer<Event> action);
+
+    /**
+     * Up to limit of a user's events with a chain sequence above afterSequence, in chain order, for work that writes
+     * elsewhere between pages. Uses the (userId, chainSequence) index.
+     */
+    List<Event> findChainPageByUserId(UUID userId, long afterSequence, int limit);
+
+    /**
+     * Streams every event, by userId then chainSequence, the same way as forEachByUserId.
+     * Uses the (userId, chainSequence) index.
+     */
+    void forEachInChainOrder(Consumer<Event> action);
+
+    /**
+     * Streams each userId that has events once, the same way as forEachEventHash.
+     */
+    void forEachUserId(Consumer<UUID> action);
+
+    /**
+     * Deletes all of a user's events, in one transaction.
+     *
+     * @return Number of events deleted
+     */
+    int deleteByUserId(UUID userId);
+
+    /**
+     * @return true if the event table has no rows
+     */
+    boolean isEmpty();
+
+    /**
+     * Drops the indexes of the event table other than its primary key, so that a bulk load into an empty table
+     * doesn't update them row by row. createSecondaryIndexes() builds them again afterwards in one pass each.
+     */
+    void dropSecondaryIndexes();
+
+    void createSecondaryIndexes();
+
+    /**
+     * Streams the eventHash column of every event to action, fetching eventlog.stream.fetch-size rows at a time.
+     */
+    void forEachEventHash(IntConsumer action);
+
+    /**
+     * Keyset pagination over all events by eventId, for work that writes elsewhere between pages.
+     *
+     * @param after Only return events with an eventId above this one, or null to start from the beginning
+     */
+    List<Event> findPageByEventId(UUID after, int limit);
+
+    /**
+     * Records each event's userId as the owner of its eventId in the event_owner table, in a single JDBC batch and
+     * transaction. If any eventId already has an owner, nothing is inserted and a DuplicateKeyException is thrown.
+     */
+    void insertEventOwners(List<Event> events);
+
+    /**
+     * @return userId owning each of eventIds that has an owner, by eventId
+     */
+    Map<UUID, UUID> findEventOwners(Collection<UUID> eventIds);
+
+    /**
+     * Removes the owners of events' eventIds that are still owned by the events' userIds.
+     */
+    void deleteEventOwners(List<Event> events);
+
+    long countEventOwners();
+}
@@ -0,0 +1,335 @@
+package com.fidectus.eventlog.persistence;
+
+import com.fidectus.eventlog.dto.EpochMicros;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventField;
+import com.fidectus.eventlog.dto.EventProjection;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * JDBC implementation of EventRepositoryCustom.
+ * Writes straight to the event table the migrations create, so the columns here must match Event's mapping,
+ * including the encodings of EventTypeConverter and EpochMicrosConverter.
+ */
+public class EventRepositoryCustomImpl implements EventRepositoryCustom {
+    private static final String INSERT_SQL =
+            "insert into event (event_id, user_id, event_type, time, event_hash, chain_sequence, chain_hash) " +
+                    "values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_OWNER_SQL = "insert into event_owner (event_id, user_id) values (?, ?)";
+    private static final String DELETE_OWNER_SQL = "delete from event_owner where event_id = ? and user_id = ?";
+
+    // The same as in the V1 migrations, with the names Event declares
+    private static final String[][] SECONDARY_INDEXES = {
+            {"idx_event_user_id_time", "user_id, time"},
+            {"idx_event_user_id_chain_sequence", "user_id, chain_sequence"},
+            {"idx_event_time", "time, event_id"}
+    };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${eventlog.stream.fetch-size:500}")
+    private int streamFetchSize;
+
+    @Override
+    @Transactional
+    public void insertAll(List<Event> events) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, events, events.size(), (statement, event) -> {
+            statement.setBytes(1, toBytes(event.getEventId()));
+            statement.setBytes(2, toBytes(event.getUserId()));
+            statement.setByte(3, (byte) event.getEventType().ordinal());
+            statement.setLong(4, EpochMicros.of(event.getTime()));
+            statement.setInt(5, event.getEventHash());
+            statement.setLong(6, event.getChainSequence());
+            statement.setBytes(7, event.getChainHash());
+        });
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Event> findPageByUserId(UUID userId, LocalDateTime from, LocalDateTime to, Event.EventType eventType,
+                                        Event after, int limit) {
+        return findPage(userId, from, to, eventType, after, limit);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Event> findPageByTime(LocalDateTime from, LocalDateTime to, Event.EventType eventType, Event after, int limit) {
+        return findPage(null, from, to, eventType, after, limit);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<EventProjection> findFieldsPageByUserId(UUID userId, LocalDateTime from, LocalDateTime to,
+                                                        Event.EventType eventType, Event after, int limit,
+                                                        Set<EventField> fields) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = builder.createTupleQuery();
+        Root<Event> event = query.from(Event.class);
+
+        // The eventId is always read, as the cursor for the next page
+        List<Selection<?>> selections = new ArrayList<>();
+        selections.add(event.get("eventId").alias("eventId"));
+        for (EventField field : fields) {
+            if (field != EventField.EVENT_ID) {
+                selections.add(event.get(field.getName()).alias(field.getName()));
+            }
+        }
+        query.multiselect(selections)
+                .where(pagePredicates(builder, event, userId, from, to, eventType, after))
+                .orderBy(builder.asc(event.get("time")), builder.asc(event.get("eventId")));
+
+        List<Tuple> rows = entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+        List<EventProjection> projections = new ArrayList<>(rows.size());
+        for (Tuple row : rows) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (EventField field : fields) {
+                values.put(field.getName(), row.get(field.getName()));
+            }
+            projections.add(new EventProjection(row.get("eventId", UUID.class), values));
+        }
+        return projections;
+    }
+
+    // Events ordered by time then eventId, with each of the null-able filters applied if given
+    private List<Event> findPage(UUID userId, LocalDateTime from, LocalDateTime to, Event.EventType eventType,
+                                 Event after, int limit) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Event> query = builder.createQuery(Event.class);
+        Root<Event> event = query.from(Event.class);
+
+        query.select(event)
+                .where(pagePredicates(builder, event, userId, from, to, eventType, after))
+                .orderBy(builder.asc(event.get("time")), builder.asc(event.get("eventId")));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    private static Predicate[] pagePredicates(CriteriaBuilder builder, Root<Event> event, UUID userId,
+                                              LocalDateTime from, LocalDateTime to, Event.EventType eventType, Event after) {
+        List<Predicate> predicates = new ArrayList<>();
+        if (userId != null) {
+            predicates.add(builder.equal(event.get("userId"), userId));
+        }
+        if (from != null) {
+            predicates.add(builder.greaterThanOrEqualTo(event.get("time"), from));
+        }
+        if (to != null) {
+            predicates.add(builder.lessThan(event.get("time"), to));
+        }
+        if (eventType != null) {
+            predicates.add(builder.equal(event.get("eventType"), eventType));
+        }
+        if (after != null) {
+            // (time, eventId) > (after.time, after.eventId)
+            predicates.add(builder.or(
+                    builder.greaterThan(event.get("time"), after.getTime()),
+                    builder.and(
+                            builder.equal(event.get("time"), after.getTime()),
+                            builder.greaterThan(event.get("eventId"), after.getEventId()))));
+        }
+        return predicates.toArray(new Predicate[0]);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachByUserId(UUID userId, Consumer<Event> action) {
+        forEach(entityManager
+                .createQuery("select e from Event e where e.userId = :userId order by e.time, e.eventId", Event.class)
+                .setParameter("userId", userId), action);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachInChainByUserId(UUID userId, long afterSequence, Consumer<Event> action) {
+        forEach(entityManager
+                .createQuery("select e from Event e where e.userId = :userId and e.chainSequence > :afterSequence " +
+                        "order by e.chainSequence", Event.class)
+                .setParameter("userId", userId)
+                .setParameter("afterSequence", afterSequence), action);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Event> findChainPageByUserId(UUID userId, long afterSequence, int limit) {
+        return entityManager
+                .createQuery("select e from Event e where e.userId = :userId and e.chainSequence > :afterSequence " +
+                        "order by e.chainSequence", Event.class)
+                .setParameter("userId", userId)
+                .setParameter("afterSequence", afterSequence)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachInChainOrder(Consumer<Event> action) {
+        forEach(entityManager.createQuery("select e from Event e order by e.userId, e.chainSequence", Event.class), action);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachUserId(Consumer<UUID> action) {
+        Stream<UUID> userIds = entityManager.createQuery("select distinct e.userId from Event e", UUID.class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize)
+                .getResultStream();
+        try (userIds) {
+            userIds.forEach(action);
+        }
+    }
+
+    @Override
+    @Transactional
+    public int deleteByUserId(UUID userId) {
+        return entityManager.createQuery("delete from Event e where e.userId = :userId")
+                .setParameter("userId", userId)
+                .executeUpdate();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("select event_id from event limit 1").isEmpty();
+    }
+
+    @Override
+    public void dropSecondaryIndexes() {
+        for (String[] index : SECONDARY_INDEXES) {
+            jdbcTemplate.execute("drop index if exists " + index[0]);
+        }
+    }
+
+    @Override
+    public void createSecondaryIndexes() {
+        for (String[] index : SECONDARY_INDEXES) {
+            jdbcTemplate.execute("create index if not exists " + index[0] + " on event (" + index[1] + ")");
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachEventHash(IntConsumer action) {
+        // Scalars aren't held by the persistence context, so there is nothing to clear
+        Stream<Integer> hashes = entityManager.createQuery("select e.eventHash from Event e", Integer.class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize)
+                .getResultStream();
+        try (hashes) {
+            hashes.forEach(action::accept);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Event> findPageByEventId(UUID after, int limit) {
+        TypedQuery<Event> query = after == null
+                ? entityManager.createQuery("select e from Event e order by e.eventId", Event.class)
+                : entityManager.createQuery("select e from Event e where e.eventId > :after order by e.eventId", Event.class)
+                .setParameter("after", after);
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    @Transactional
+    public void insertEventOwners(List<Event> events) {
+        jdbcTemplate.batchUpdate(INSERT_OWNER_SQL, events, events.size(), (statement, event) -> {
+            statement.setBytes(1, toBytes(event.getEventId()));
+            statement.setBytes(2, toBytes(event.getUserId()));
+        });
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<UUID, UUID> findEventOwners(Collection<UUID> eventIds) {
+        Map<UUID, UUID> owners = new HashMap<>();
+        if (eventIds.isEmpty()) {
+            return owners;
+        }
+        List<Object> eventIdBytes = new ArrayList<>(eventIds.size());
+        eventIds.forEach(eventId -> eventIdBytes.add(toBytes(eventId)));
+        jdbcTemplate.query("select event_id, user_id from event_owner where event_id in (" +
+                        String.join(", ", Collections.nCopies(eventIds.size(), "?")) + ")", eventIdBytes.toArray(),
+                (RowCallbackHandler) resultSet ->
+                        owners.put(toUuid(resultSet.getBytes(1)), toUuid(resultSet.getBytes(2))));
+        return owners;
+    }
+
+    @Override
+    @Transactional
+    public void deleteEventOwners(List<Event> events) {
+        jdbcTemplate.batchUpdate(DELETE_OWNER_SQL, events, events.size(), (statement, event) -> {
+            statement.setBytes(1, toBytes(event.getEventId()));
+            statement.setBytes(2, toBytes(event.getUserId()));
+        });
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public long countEventOwners() {
+        return jdbcTemplate.queryForObject("select count(*) from event_owner", Long.class);
+    }
+
+    private void forEach(TypedQuery<Event> query, Consumer<Event> action) {
+        Stream<Event> events = query
+                .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize)
+                .getResultStream();
+        try (events) {
+            int count = 0;
+            Iterator<Event> iterator = events.iterator();
+            while (iterator.hasNext()) {
+                action.accept(iterator.next());
+                // Stop the persistence context holding on to every event read so far
+                if (++count % streamFetchSize == 0) {
+                    entityManager.clear();
+                }
+            }
+        }
+    }
+
+    // Event maps UUIDs to BINARY(16) columns
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    private static UUID toUuid(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -1,52 +1,344 @@
 package com.fidectus.eventlog.persistence;
 
 import com.fidectus.eventlog.dto.Event;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.dto.EventField;
+import com.fidectus.eventlog.dto.EventProjection;
+import com.fidectus.eventlog.persistence.shard.EventShards;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
- * DAO layer for DB access
+ * DAO layer for DB access, the JPA storage engine
+ *
+ * Each user's Events are stored on the shard EventShards assigns the userId to, so work for one user goes to one shard.
+ * Lookups by eventId and by time are made on every shard at once and their results combined. As each shard's primary
+ * key only covers its own Events, a new eventId is first claimed for its user in the event_owner table on the first
+ * shard, whose primary key lets only one user have it, and the claim is released again if the Event can't be stored.
+ * A claim left by a write that stopped part way only lets the same user log the eventId.
+ * Without sharding there is a single shard, nothing is claimed and all of this is a pass-through.
  *
  * Javadocs for exceptions thrown by the CrudRepository implementation are sparse.
  * DataAccessException (from StackOverflow) and IllegalArgumentExceptions are the only ones I could find.
  * Catch them if they occur and rethrow as a 500 Internal Server Error.
  */
-public class EventRepositoryDao {
-    private static final Log log = LogFactory.getLog(EventRepositoryDao.class);
+public class EventRepositoryDao implements EventStore {
+    private static final Logger log = LoggerFactory.getLogger(EventRepositoryDao.class);
+    // The order of findPageByTime, with eventIds compared as the unsigned bytes they are stored as
+    private static final Comparator<Event> TIME_ORDER = Comparator.comparing(Event::getTime)
+            .thenComparing(Event::getEventId, (a, b) -> {
+                int compare = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+                return compare != 0 ? compare : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+            });
 
     @Autowired
     private EventRepository repository;
 
+    @Autowired
+    private EventCache eventCache;
+
+    @Autowired
+    private EventHashChain hashChain;
+
+    @Autowired
+    private EventShards shards;
+
+    @Value("${eventlog.archive.drop-indexes:false}")
+    private boolean dropIndexes;
+
+    @Override
+    @Timed("eventlog.store")
     public Event addEvent(Event event) {
+        if (event == null) {
+            log.error("Event passed to DB is null");
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
         Event eventRecord;
-        try {
-            eventRecord = repository.save(event);
+        List<Event> events = Collections.singletonList(event);
+        boolean claimed = false;
+        try (EventHashChain.UserLocks locks = hashChain.lock(List.of(event.getUserId()))) {
+            if (!claimEventIds(events).isEmpty()) {
+                log.debug("Event already exists in DB with ID: {}", event.getEventId());
+                throw new ResponseStatusException(HttpStatus.CONFLICT);
+            }
+            claimed = shards.isSharded();
+            hashChain.link(events, this::loadLastChainEvent);
+            eventRecord = shards.callOnShardOf(event.getUserId(), () -> repository.save(event));
+            hashChain.advance(events);
+        } catch (DataIntegrityViolationException ex) {
+            // Events are always inserted, so this is an eventId that is already in the DB
+            log.debug("Event already exists in DB with ID: {}", event.getEventId());
+            throw new ResponseStatusException(HttpStatus.CONFLICT);
         } catch (DataAccessException ex) {
-            log.error("Data access exception in addEvent: " + ex);
+            log.error("Data access exception in addEvent", ex);
+            if (claimed) {
+                releaseEventIds(events);
+            }
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         } catch (IllegalArgumentException ex) {
-            log.error("Event passed to DB is null");
+            log.error("Invalid event passed to DB: {}", event, ex);
+            if (claimed) {
+                releaseEventIds(events);
+            }
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
-        log.info("Added event in DB with ID: " + event.getEventId());
+        log.debug("Added event in DB with ID: {}", event.getEventId());
+        eventCache.put(eventRecord);
         return eventRecord;
     }
 
-    public List<Event> getEventsForUserId(UUID userId) {
+    /**
+     * Inserts a batch of events with a single JDBC batch per shard.
+     * Events whose eventId is already in the DB (or earlier in the batch) are reported as duplicates and skipped.
+     * The users' chains are locked from before the new events are linked until they are in the DB.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public List<EventBatchResult> addEvents(List<Event> events) {
+        EventBatchResult[] results = new EventBatchResult[events.size()];
+        List<Event> newEvents = new ArrayList<>(events.size());
+        Map<String, List<Integer>> newEventPositionsByShard = new LinkedHashMap<>();
+        try {
+            // Left as duplicates unless inserted below
+            for (int i = 0; i < events.size(); i++) {
+                results[i] = EventBatchResult.duplicate(events.get(i).getEventId());
+            }
+            for (int position : findNewEventPositions(events)) {
+                Event event = events.get(position);
+                newEvents.add(event);
+                newEventPositionsByShard.computeIfAbsent(shards.shardOf(event.getUserId()), shard -> new ArrayList<>()).add(position);
+            }
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in addEvents", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        List<String> newEventShards = new ArrayList<>(newEventPositionsByShard.keySet());
+        List<List<Event>> newShardEvents = new ArrayList<>(newEventShards.size());
+        for (List<Integer> positions : newEventPositionsByShard.values()) {
+            List<Event> shardEvents = new ArrayList<>(positions.size());
+            positions.forEach(position -> shardEvents.add(events.get(position)));
+            newShardEvents.add(shardEvents);
+        }
+        int shardIndex = 0;
+        try (EventHashChain.UserLocks locks = hashChain.lock(userIdsOf(newEvents))) {
+            for (; shardIndex < newEventShards.size(); shardIndex++) {
+                List<Integer> positions = newEventPositionsByShard.get(newEventShards.get(shardIndex));
+                List<Event> shardEvents = newShardEvents.get(shardIndex);
+                List<EventBatchResult> insertResults = shards.call(newEventShards.get(shardIndex), () -> insertAll(shardEvents));
+                for (int i = 0; i < insertResults.size(); i++) {
+                    results[positions.get(i)] = insertResults.get(i);
+                    if (insertResults.get(i).getStatus() == EventBatchResult.Status.CREATED) {
+                        eventCache.put(shardEvents.get(i));
+                    }
+                }
+            }
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in addEvents", ex);
+            releaseLaterShardEventIds(newShardEvents, shardIndex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (RuntimeException ex) {
+            // Thrown on as it is, so callers can tell an Event that can't be stored from the DB being unavailable
+            releaseLaterShardEventIds(newShardEvents, shardIndex);
+            throw ex;
+        }
+        log.debug("Added {} of {} events in DB", newEvents.size(), events.size());
+        return List.of(results);
+    }
+
+    // insertAll has released the claims of the failed shard's unstored events, so only those of the shards after it go
+    private void releaseLaterShardEventIds(List<List<Event>> newShardEvents, int failedShardIndex) {
+        if (!shards.isSharded() || failedShardIndex + 1 >= newShardEvents.size()) {
+            return;
+        }
+        List<Event> unstored = new ArrayList<>();
+        newShardEvents.subList(failedShardIndex + 1, newShardEvents.size()).forEach(unstored::addAll);
+        releaseEventIds(unstored);
+    }
+
+    // Releases the claims of the events it fails to store before throwing
+    private List<EventBatchResult> insertAll(List<Event> events) {
+        List<EventBatchResult> results = new ArrayList<>(events.size());
+        if (events.isEmpty()) {
+            return results;
+        }
+        try {
+            hashChain.link(events, this::loadLastChainEvent);
+            repository.insertAll(events);
+        } catch (DuplicateKeyException ex) {
+            // Another request inserted one of these events since we checked, so the batch was rolled back.
+            // Retry one by one to find out which, linking each onto the chain as it is inserted.
+            log.warn("Duplicate eventId in batch, retrying events individually");
+            for (int i = 0; i < events.size(); i++) {
+                List<Event> single = Collections.singletonList(events.get(i));
+                try {
+                    hashChain.link(single, this::loadLastChainEvent);
+                    repository.insertAll(single);
+                } catch (DuplicateKeyException duplicateEx) {
+                    results.add(EventBatchResult.duplicate(events.get(i).getEventId()));
+                    continue;
+                } catch (RuntimeException singleEx) {
+                    releaseClaimedEventIds(events.subList(i, events.size()));
+                    throw singleEx;
+                }
+                hashChain.advance(single);
+                results.add(EventBatchResult.created(events.get(i).getEventId()));
+            }
+            return results;
+        } catch (RuntimeException ex) {
+            // The batch was rolled back, so none of the events are stored
+            releaseClaimedEventIds(events);
+            throw ex;
+        }
+        hashChain.advance(events);
+        events.forEach(event -> results.add(EventBatchResult.created(event.getEventId())));
+        return results;
+    }
+
+    private void releaseClaimedEventIds(List<Event> events) {
+        if (shards.isSharded()) {
+            releaseEventIds(events);
+        }
+    }
+
+    /**
+     * Positions of the events to insert, leaving out those whose eventId is stored already or comes earlier in events.
+     * Stored eventIds are looked up on the shards of the events' users, then with sharding the rest are claimed.
+     */
+    private List<Integer> findNewEventPositions(List<Event> events) {
+        Map<String, List<UUID>> eventIdsByShard = new LinkedHashMap<>();
+        for (Event event : events) {
+            eventIdsByShard.computeIfAbsent(shards.shardOf(event.getUserId()), shard -> new ArrayList<>()).add(event.getEventId());
+        }
+        Set<UUID> knownEventIds = new HashSet<>();
+        eventIdsByShard.forEach((shard, eventIds) ->
+                knownEventIds.addAll(shards.call(shard, () -> repository.findExistingEventIds(eventIds))));
+        List<Integer> positions = new ArrayList<>(events.size());
+        List<Event> newEvents = new ArrayList<>(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            if (knownEventIds.add(events.get(i).getEventId())) {
+                positions.add(i);
+                newEvents.add(events.get(i));
+            }
+        }
+        Set<UUID> takenEventIds = claimEventIds(newEvents);
+        if (!takenEventIds.isEmpty()) {
+            positions.removeIf(position -> takenEventIds.contains(events.get(position).getEventId()));
+        }
+        return positions;
+    }
+
+    /**
+     * With sharding, records the events' users as the owners of their eventIds on the first shard.
+     * An eventId already owned by the same user is left as it is, for the insert on the user's shard to find out whether
+     * the Event was stored.
+     *
+     * @return eventIds owned by other users, which must not be inserted
+     */
+    private Set<UUID> claimEventIds(List<Event> events) {
+        Set<UUID> takenEventIds = new HashSet<>();
+        if (!shards.isSharded() || events.isEmpty()) {
+            return takenEventIds;
+        }
+        String ownerShard = shards.getShards().get(0);
+        try {
+            shards.run(ownerShard, () -> repository.insertEventOwners(events));
+            return takenEventIds;
+        } catch (DuplicateKeyException ex) {
+            log.debug("Some of {} eventIds are already owned", events.size());
+        }
+        Map<UUID, UUID> owners = shards.call(ownerShard, () -> repository.findEventOwners(eventIdsOf(events)));
+        List<Event> unowned = new ArrayList<>(events.size());
+        for (Event event : events) {
+            UUID owner = owners.get(event.getEventId());
+            if (owner == null) {
+                unowned.add(event);
+            } else if (!owner.equals(event.getUserId())) {
+                takenEventIds.add(event.getEventId());
+            }
+        }
+        try {
+            if (!unowned.isEmpty()) {
+                shards.run(ownerShard, () -> repository.insertEventOwners(unowned));
+            }
+        } catch (DuplicateKeyException ex) {
+            // Another request claimed one of these since we looked, so claim them one by one
+            for (Event event : unowned) {
+                try {
+                    shards.run(ownerShard, () -> repository.insertEventOwners(Collections.singletonList(event)));
+                } catch (DuplicateKeyException duplicateEx) {
+                    UUID owner = shards.call(ownerShard, () -> repository.findEventOwners(List.of(event.getEventId())))
+                            .get(event.getEventId());
+                    if (!event.getUserId().equals(owner)) {
+                        takenEventIds.add(event.getEventId());
+                    }
+                }
+            }
+        }
+        return takenEventIds;
+    }
+
+    // Gives up the claims of events that weren't stored, so their eventIds can be logged again
+    private void releaseEventIds(List<Event> events) {
+        try {
+            shards.run(shards.getShards().get(0), () -> repository.deleteEventOwners(events));
+        } catch (DataAccessException ex) {
+            log.error("Data access exception releasing the eventIds of {} events", events.size(), ex);
+        }
+    }
+
+    private static List<UUID> eventIdsOf(List<Event> events) {
+        List<UUID> eventIds = new ArrayList<>(events.size());
+        events.forEach(event -> eventIds.add(event.getEventId()));
+        return eventIds;
+    }
+
+    private static List<UUID> userIdsOf(List<Event> events) {
+        List<UUID> userIds = new ArrayList<>(events.size());
+        events.forEach(event -> userIds.add(event.getUserId()));
+        return userIds;
+    }
+
+    // Loaded on a chain cache miss, with the user's chain locked
+    private Event loadLastChainEvent(UUID userId) {
+        return shards.callOnShardOf(userId, () -> repository.findFirstByUserIdOrderByChainSequenceDesc(userId));
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public List<Event> getEventsForUserId(UUID userId, LocalDateTime from, LocalDateTime to, Event.EventType eventType,
+                                          Event after, int limit) {
         List<Event> events;
         try {
-            log.info("Getting events for user id: " + userId);
-            events = repository.findAllByUserId(userId);
+            log.debug("Getting events for user id: {}", userId);
+            events = shards.callOnShardOf(userId, () -> repository.findPageByUserId(userId, from, to, eventType, after, limit));
         } catch (DataAccessException ex) {
-            log.error("Data access exception in getEventsForUserId: " + ex);
+            log.error("Data access exception in getEventsForUserId", ex);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         } catch (IllegalArgumentException ex) {
             log.error("UserID passed to DB is null");
@@ -55,13 +347,225 @@ public class EventRepositoryDao {
         return events;
     }
 
+    @Override
+    @Timed("eventlog.store")
+    public List<EventProjection> getEventFieldsForUserId(UUID userId, LocalDateTime from, LocalDateTime to,
+                                                         Event.EventType eventType, Event after, int limit,
+                                                         Set<EventField> fields) {
+        try {
+            log.debug("Getting {} of events for user id: {}", fields, userId);
+            return shards.callOnShardOf(userId,
+                    () -> repository.findFieldsPageByUserId(userId, from, to, eventType, after, limit, fields));
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in getEventFieldsForUserId", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Reads a page from every shard and merges them, in the order the database sorts (time, eventId) in.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public List<Event> getEventsByTime(LocalDateTime from, LocalDateTime to, Event.EventType eventType, Event after, int limit) {
+        try {
+            log.debug("Getting events from: {} to: {} of type: {}", from, to, eventType);
+            List<List<Event>> shardPages = shards.callOnAll(() -> repository.findPageByTime(from, to, eventType, after, limit));
+            if (shardPages.size() == 1) {
+                return shardPages.get(0);
+            }
+            List<Event> events = new ArrayList<>();
+            shardPages.forEach(events::addAll);
+            events.sort(TIME_ORDER);
+            return events.size() > limit ? new ArrayList<>(events.subList(0, limit)) : events;
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in getEventsByTime", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public void streamEventsForUserId(UUID userId, Consumer<Event> action) {
+        try {
+            log.debug("Streaming events for user id: {}", userId);
+            shards.runOnShardOf(userId, () -> repository.forEachByUserId(userId, action));
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in streamEventsForUserId", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public void streamChainForUserId(UUID userId, long afterSequence, Consumer<Event> action) {
+        try {
+            log.debug("Streaming hash chain for user id: {} after sequence: {}", userId, afterSequence);
+            shards.runOnShardOf(userId, () -> repository.forEachInChainByUserId(userId, afterSequence, action));
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in streamChainForUserId", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Events are never dropped, so every chain starts at sequence 1.
+     */
+    @Override
+    public Event getChainBase(UUID userId) {
+        return null;
+    }
+
+    /**
+     * @return Event with eventId, from the cache if possible, or null if it doesn't exist
+     */
+    @Override
+    @Timed("eventlog.store")
     public Event getEvent(UUID eventId) {
+        if (eventId == null) {
+            return loadEvent(null);
+        }
+        return eventCache.get(eventId, this::loadEvent);
+    }
+
+    /**
+     * Events found in the cache are returned from there, the rest are read with one IN query on the primary key.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public Map<UUID, Event> getEvents(Collection<UUID> eventIds) {
+        return eventCache.getAll(eventIds, this::loadEvents);
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public Event findEventLike(Event event) {
+        try {
+            log.debug("Searching for events like: {}", event);
+            return shards.callOnShardOf(event.getUserId(), () ->
+                    repository.findFirstByUserIdAndTimeAndEventType(event.getUserId(), event.getTime(), event.getEventType()));
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in findEventLike", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Events are passed a shard at a time, by userId within each shard.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public void forEachEvent(Consumer<Event> action) {
+        try {
+            shards.runOnEach(() -> repository.forEachInChainOrder(action));
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in forEachEvent", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Inserts each batch with one JDBC batch per shard, after leaving out eventIds that are already stored and Events that
+     * don't continue their user's stored chain. The users of a batch are locked from the check until their chains have
+     * moved on, so Events logged for them meanwhile can't fork a chain, and a user that has a different chain stored is
+     * refused rather than given a second Event with each chain sequence.
+     * With dropIndexes, into a shard with an empty table the secondary indexes are dropped for the load and built again at
+     * the end, which is only for a store that serves no other requests during the import.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public long importEvents(Iterator<List<Event>> batches, Consumer<Event> imported) {
+        long importedCount = 0;
+        try {
+            List<String> emptyShards = new ArrayList<>();
+            if (dropIndexes) {
+                for (String shard : shards.getShards()) {
+                    if (shards.call(shard, repository::isEmpty)) {
+                        emptyShards.add(shard);
+                    }
+                }
+            }
+            for (String shard : emptyShards) {
+                log.info("Dropping secondary indexes of the event table on {} for the import", shard);
+                shards.run(shard, repository::dropSecondaryIndexes);
+            }
+            try {
+                while (batches.hasNext()) {
+                    List<Event> batch = batches.next();
+                    try (EventHashChain.UserLocks locks = hashChain.lock(userIdsOf(batch))) {
+                        List<Event> newEvents = new ArrayList<>(batch.size());
+                        for (int position : findNewEventPositions(batch)) {
+                            newEvents.add(batch.get(position));
+                        }
+                        List<Event> continuing = hashChain.continuing(newEvents, this::loadLastChainEvent);
+                        if (continuing.size() < newEvents.size()) {
+                            log.warn("Skipped {} imported events that don't continue their user's stored chain",
+                                    newEvents.size() - continuing.size());
+                            if (shards.isSharded()) {
+                                List<Event> refused = new ArrayList<>(newEvents);
+                                refused.removeAll(continuing);
+                                releaseEventIds(refused);
+                            }
+                        }
+                        Map<String, List<Event>> continuingByShard = new LinkedHashMap<>();
+                        for (Event event : continuing) {
+                            continuingByShard.computeIfAbsent(shards.shardOf(event.getUserId()), shard -> new ArrayList<>()).add(event);
+                        }
+                        for (Map.Entry<String, List<Event>> shardEvents : continuingByShard.entrySet()) {
+                            List<Event> shardNewEvents = shardEvents.getValue();
+                            shards.run(shardEvents.getKey(), () -> repository.insertAll(shardNewEvents));
+                            hashChain.advance(shardNewEvents);
+                            shardNewEvents.forEach(imported);
+                            importedCount += shardNewEvents.size();
+                        }
+                    }
+                }
+            } finally {
+                for (String shard : emptyShards) {
+                    log.info("Creating secondary indexes of the event table on {} after the import", shard);
+                    shards.run(shard, repository::createSecondaryIndexes);
+                }
+            }
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in importEvents", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return importedCount;
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public void forEachEventHash(IntConsumer action) {
+        try {
+            shards.runOnEach(() -> repository.forEachEventHash(action));
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in forEachEventHash", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private Map<UUID, Event> loadEvents(Set<UUID> eventIds) {
+        Map<UUID, Event> events = new HashMap<>();
+        try {
+            log.debug("Searching for {} events by id", eventIds.size());
+            shards.callOnAll(() -> repository.findAllById(eventIds))
+                    .forEach(shardEvents -> shardEvents.forEach(event -> events.put(event.getEventId(), event)));
+        } catch (DataAccessException ex) {
+            log.error("Data access exception in getEvents", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return events;
+    }
+
+    private Event loadEvent(UUID eventId) {
         Optional<Event> event;
         try {
-            log.info("Searching for event with id: " + eventId);
-            event = repository.findById(eventId);
+            log.debug("Searching for event with id: {}", eventId);
+            event = shards.callOnAll(() -> repository.findById(eventId)).stream()
+                    .flatMap(Optional::stream)
+                    .findFirst();
         } catch (DataAccessException ex) {
-            log.error("Data access exception in getEvent: " + ex);
+            log.error("Data access exception in getEvent", ex);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         } catch (IllegalArgumentException ex) {
             log.error("EventID passed to DB is null");
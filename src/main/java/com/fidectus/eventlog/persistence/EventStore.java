@@ -0,0 +1,117 @@
+package com.fidectus.eventlog.persistence;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.dto.EventField;
+import com.fidectus.eventlog.dto.EventProjection;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Storage engine for Events. The engine in use is chosen with eventlog.storage.engine:
+ * jpa (default) for EventRepositoryDao, or segment-log for SegmentLogEventStore.
+ *
+ * Failures are thrown as ResponseStatusExceptions, 409 Conflict for a duplicate eventId and 500 for anything else.
+ * Engines link each Event into its user's EventHashChain as it is stored.
+ */
+public interface EventStore {
+    /**
+     * @return The stored Event
+     */
+    Event addEvent(Event event);
+
+    /**
+     * Stores a batch of events. Events whose eventId is already stored (or earlier in the batch) are reported as duplicates.
+     *
+     * @return Result for each event, in the same order as the events passed in
+     */
+    List<EventBatchResult> addEvents(List<Event> events);
+
+    /**
+     * @param from Inclusive lower bound on event time, or null for no bound
+     * @param to Exclusive upper bound on event time, or null for no bound
+     * @param eventType Only events of this type, or null for all types
+     * @param after Last event of the previous page, or null for the first page
+     * @return Up to limit events for the user, ordered by time then eventId
+     */
+    List<Event> getEventsForUserId(UUID userId, LocalDateTime from, LocalDateTime to, Event.EventType eventType,
+                                   Event after, int limit);
+
+    /**
+     * The same page as getEventsForUserId, with only fields of each event, reading no more of them than the engine must.
+     */
+    List<EventProjection> getEventFieldsForUserId(UUID userId, LocalDateTime from, LocalDateTime to, Event.EventType eventType,
+                                                  Event after, int limit, Set<EventField> fields);
+
+    /**
+     * @param from Inclusive lower bound on event time
+     * @param to Exclusive upper bound on event time
+     * @param eventType Only events of this type, or null for all types
+     * @param after Last event of the previous page, or null for the first page
+     * @return Up to limit events of any user in the time range, ordered by time
+     */
+    List<Event> getEventsByTime(LocalDateTime from, LocalDateTime to, Event.EventType eventType, Event after, int limit);
+
+    /**
+     * Passes every event for the user to action, in time order, as they are read from storage.
+     */
+    void streamEventsForUserId(UUID userId, Consumer<Event> action);
+
+    /**
+     * Passes the user's events with a chain sequence above afterSequence to action, in chain order (see EventHashChain).
+     */
+    void streamChainForUserId(UUID userId, long afterSequence, Consumer<Event> action);
+
+    /**
+     * @return The last of the user's Events that the engine has dropped, whose chain the stored Events continue, or null
+     * if the user's chain still starts at sequence 1
+     */
+    Event getChainBase(UUID userId);
+
+    /**
+     * @return Event with eventId, or null if it doesn't exist
+     */
+    Event getEvent(UUID eventId);
+
+    /**
+     * Looks up many Events in as few reads as the engine allows, rather than one getEvent() each.
+     *
+     * @return The stored Events among eventIds, by eventId. eventIds that aren't stored are left out.
+     */
+    Map<UUID, Event> getEvents(Collection<UUID> eventIds);
+
+    /**
+     * @return A stored Event with the same userId, eventType and time as event, whatever its eventId, or null if there is none
+     */
+    Event findEventLike(Event event);
+
+    /**
+     * Passes every stored Event to action, by userId and then in chain order, as they are read from storage.
+     * Used to export the whole log.
+     */
+    void forEachEvent(Consumer<Event> action);
+
+    /**
+     * Bulk loads Events exactly as given, chain links included, rather than linking them onto the stored chains as
+     * addEvents does. Meant for loading an export into a store that doesn't hold those users' Events yet.
+     * Events whose eventId is already stored are skipped, so an interrupted import can be run again.
+     *
+     * @param batches Events to load, in batches of up to eventlog.batch.size, each user's in chain order
+     * @param imported Passed each Event that was stored
+     * @return Number of Events stored
+     */
+    long importEvents(Iterator<List<Event>> batches, Consumer<Event> imported);
+
+    /**
+     * Passes the eventHash of every stored Event to action, in no particular order.
+     */
+    void forEachEventHash(IntConsumer action);
+}
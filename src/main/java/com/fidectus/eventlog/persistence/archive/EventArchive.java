@@ -0,0 +1,49 @@
+package com.fidectus.eventlog.persistence.archive;
+
+import com.fidectus.eventlog.persistence.EventHashChain;
+
+/**
+ * Block-compressed, columnar file format for exporting and importing the whole event log, big-endian:
+ *
+ * <pre>
+ * magic             4 bytes  ("EVLA")
+ * version           4 bytes
+ * blocks, each:
+ *   eventCount      4 bytes  (0 for the last block, which has no data)
+ *   dataSize        4 bytes  (uncompressed)
+ *   compressedSize  4 bytes
+ *   crc32           4 bytes  (of the uncompressed data)
+ *   data            compressedSize bytes, Deflate compressed
+ * </pre>
+ *
+ * A block holds the columns of its eventCount Events one after the other, like the row groups of Parquet:
+ *
+ * <pre>
+ * eventId         16 bytes each
+ * userId          16 bytes each
+ * eventType        1 byte each   (ordinal)
+ * time             8 bytes each  (epoch micros, minus the time of the Event before it in the block)
+ * chainSequence    8 bytes each  (minus the chainSequence of the Event before it in the block)
+ * chainHash       32 bytes each
+ * </pre>
+ *
+ * Events are exported by userId then chainSequence, so userIds repeat and the time and chainSequence deltas are
+ * small, which compresses far better than whole rows. eventHash is left out, as it is computed from the other fields.
+ * The empty last block tells a complete file from a truncated one.
+ */
+final class EventArchive {
+    static final int MAGIC = 0x45564C41;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int BLOCK_HEADER_SIZE = 16;
+    static final int EVENT_SIZE = 16 + 16 + 1 + 8 + 8 + EventHashChain.HASH_SIZE;
+
+    private EventArchive() { }
+
+    /**
+     * @return Most bytes Deflate can turn dataSize bytes into, as it can be slightly more for data that doesn't compress
+     */
+    static long maxCompressedSize(long dataSize) {
+        return dataSize + dataSize / 100 + 64;
+    }
+}
@@ -0,0 +1,159 @@
+package com.fidectus.eventlog.persistence.archive;
+
+import com.fidectus.eventlog.dto.EpochMicros;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.persistence.EventHashChain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the Events of an EventArchive from a channel, a block at a time.
+ * A file that isn't an archive, or one that is corrupt or truncated, is reported as an IOException.
+ * Blocks of more than maxBlockSize Events are treated as corrupt, so a bad block header can't make it allocate more
+ * than a block written with that blockSize needs.
+ */
+public class EventArchiveReader implements AutoCloseable {
+    private static final Event.EventType[] EVENT_TYPES = Event.EventType.values();
+
+    private final ReadableByteChannel channel;
+    private final int maxBlockSize;
+    private final Inflater inflater = new Inflater();
+    private ByteBuffer compressed = ByteBuffer.allocate(0);
+    private ByteBuffer data = ByteBuffer.allocate(0);
+    private boolean ended;
+
+    /**
+     * @param maxBlockSize Largest blockSize the archive may have been written with
+     */
+    public EventArchiveReader(ReadableByteChannel channel, int maxBlockSize) throws IOException {
+        this.channel = channel;
+        this.maxBlockSize = maxBlockSize;
+        ByteBuffer header = readFully(EventArchive.HEADER_SIZE);
+        if (header.getInt() != EventArchive.MAGIC) {
+            throw new IOException("Not an event archive");
+        }
+        int version = header.getInt();
+        if (version != EventArchive.VERSION) {
+            throw new IOException("Unsupported event archive version " + version);
+        }
+    }
+
+    /**
+     * @return Events of the next block, in the order they were written, or null after the last block
+     */
+    public List<Event> readBlock() throws IOException {
+        if (ended) {
+            return null;
+        }
+        ByteBuffer header = readFully(EventArchive.BLOCK_HEADER_SIZE);
+        int eventCount = header.getInt();
+        int dataSize = header.getInt();
+        int compressedSize = header.getInt();
+        int checksum = header.getInt();
+        if (eventCount == 0) {
+            ended = true;
+            return null;
+        }
+        if (eventCount < 0 || eventCount > maxBlockSize || dataSize != (long) eventCount * EventArchive.EVENT_SIZE
+                || compressedSize < 0 || compressedSize > EventArchive.maxCompressedSize(dataSize)) {
+            throw new IOException("Corrupt event archive block header, or a block of more than " + maxBlockSize + " events");
+        }
+
+        if (compressed.capacity() < compressedSize) {
+            compressed = ByteBuffer.allocate(compressedSize);
+        }
+        compressed.clear().limit(compressedSize);
+        readFully(compressed);
+        compressed.flip();
+        if (data.capacity() < dataSize) {
+            data = ByteBuffer.allocate(dataSize);
+        }
+        data.clear().limit(dataSize);
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            while (data.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(data) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt event archive block", ex);
+        }
+        data.flip();
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        if (data.remaining() != dataSize || (int) crc.getValue() != checksum) {
+            throw new IOException("Corrupt event archive block");
+        }
+        return decode(eventCount);
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    private List<Event> decode(int eventCount) throws IOException {
+        UUID[] eventIds = new UUID[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            eventIds[i] = new UUID(data.getLong(), data.getLong());
+        }
+        UUID[] userIds = new UUID[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            userIds[i] = new UUID(data.getLong(), data.getLong());
+        }
+        Event.EventType[] eventTypes = new Event.EventType[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            int eventType = data.get();
+            if (eventType < 0 || eventType >= EVENT_TYPES.length) {
+                throw new IOException("Unknown eventType " + eventType + " in event archive");
+            }
+            eventTypes[i] = EVENT_TYPES[eventType];
+        }
+        long[] times = new long[eventCount];
+        long time = 0;
+        for (int i = 0; i < eventCount; i++) {
+            time += data.getLong();
+            times[i] = time;
+        }
+        long[] chainSequences = new long[eventCount];
+        long chainSequence = 0;
+        for (int i = 0; i < eventCount; i++) {
+            chainSequence += data.getLong();
+            chainSequences[i] = chainSequence;
+        }
+
+        List<Event> events = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            byte[] chainHash = new byte[EventHashChain.HASH_SIZE];
+            data.get(chainHash);
+            Event event = new Event(eventIds[i], eventTypes[i], userIds[i], EpochMicros.toLocalDateTime(times[i]));
+            event.setChain(chainSequences[i], chainHash);
+            events.add(event);
+        }
+        return events;
+    }
+
+    private ByteBuffer readFully(int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        readFully(buffer);
+        return buffer.flip();
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Event archive is truncated");
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.fidectus.eventlog.persistence.archive;
+
+import com.fidectus.eventlog.dto.EpochMicros;
+import com.fidectus.eventlog.dto.Event;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes Events to a channel in the EventArchive format, blockSize Events to a block.
+ * close() writes the last block and the end of the archive, but doesn't close the channel.
+ */
+public class EventArchiveWriter implements AutoCloseable {
+    private final WritableByteChannel channel;
+    private final int blockSize;
+    private final List<Event> block;
+    private final ByteBuffer data;
+    private final ByteBuffer compressed;
+    private final Deflater deflater = new Deflater();
+    private long eventCount;
+
+    public EventArchiveWriter(WritableByteChannel channel, int blockSize) throws IOException {
+        this.channel = channel;
+        this.blockSize = blockSize;
+        this.block = new ArrayList<>(blockSize);
+        this.data = ByteBuffer.allocate(blockSize * EventArchive.EVENT_SIZE);
+        this.compressed = ByteBuffer.allocate(EventArchive.BLOCK_HEADER_SIZE + (int) EventArchive.maxCompressedSize(data.capacity()));
+        writeFully(ByteBuffer.allocate(EventArchive.HEADER_SIZE).putInt(EventArchive.MAGIC).putInt(EventArchive.VERSION).flip());
+    }
+
+    public void write(Event event) throws IOException {
+        block.add(event);
+        eventCount++;
+        if (block.size() == blockSize) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * @return Number of Events passed to write so far
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!block.isEmpty()) {
+                writeBlock();
+            }
+            writeFully(ByteBuffer.allocate(EventArchive.BLOCK_HEADER_SIZE).putInt(0).putInt(0).putInt(0).putInt(0).flip());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        data.clear();
+        for (Event event : block) {
+            data.putLong(event.getEventId().getMostSignificantBits()).putLong(event.getEventId().getLeastSignificantBits());
+        }
+        for (Event event : block) {
+            data.putLong(event.getUserId().getMostSignificantBits()).putLong(event.getUserId().getLeastSignificantBits());
+        }
+        for (Event event : block) {
+            data.put((byte) event.getEventType().ordinal());
+        }
+        long previousTime = 0;
+        for (Event event : block) {
+            long time = EpochMicros.of(event.getTime());
+            data.putLong(time - previousTime);
+            previousTime = time;
+        }
+        long previousSequence = 0;
+        for (Event event : block) {
+            data.putLong(event.getChainSequence() - previousSequence);
+            previousSequence = event.getChainSequence();
+        }
+        for (Event event : block) {
+            data.put(event.getChainHash());
+        }
+        data.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        int dataSize = data.remaining();
+        compressed.clear().position(EventArchive.BLOCK_HEADER_SIZE);
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflater.deflate(compressed);
+        }
+        int compressedSize = compressed.position() - EventArchive.BLOCK_HEADER_SIZE;
+        compressed.putInt(0, block.size()).putInt(4, dataSize).putInt(8, compressedSize).putInt(12, (int) crc.getValue());
+        writeFully(compressed.flip());
+
+        block.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
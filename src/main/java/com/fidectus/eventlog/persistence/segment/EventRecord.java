@@ -0,0 +1,69 @@
+package com.fidectus.eventlog.persistence.segment;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBinaryFormat;
+import com.fidectus.eventlog.persistence.EventHashChain;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed size binary layout of an Event in a log segment, big-endian:
+ *
+ * <pre>
+ * event          41 bytes  (see {@link EventBinaryFormat})
+ * eventHash       4 bytes
+ * chainSequence   8 bytes
+ * chainHash      32 bytes  (see {@link EventHashChain})
+ * crc32           4 bytes  (of the 85 bytes before it)
+ * </pre>
+ *
+ * A record that fails its checksum is either unwritten (zeroes) or torn by a crash, and marks the end of the log.
+ */
+final class EventRecord {
+    static final int SIZE = EventBinaryFormat.SIZE + 16 + EventHashChain.HASH_SIZE;
+    private static final int CHECKSUMMED_SIZE = SIZE - 4;
+
+    private EventRecord() { }
+
+    static void write(ByteBuffer buffer, int position, Event event) {
+        ByteBuffer record = ByteBuffer.allocate(SIZE);
+        EventBinaryFormat.write(record, event);
+        record.putInt(event.getEventHash());
+        record.putLong(event.getChainSequence());
+        record.put(event.getChainHash());
+        record.putInt(checksum(record.array()));
+
+        ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        target.put(record.array());
+    }
+
+    /**
+     * @return Event at position, or null if there is no valid record there
+     */
+    static Event read(ByteBuffer buffer, int position) {
+        byte[] bytes = new byte[SIZE];
+        ByteBuffer source = buffer.duplicate();
+        source.position(position);
+        source.get(bytes);
+
+        ByteBuffer record = ByteBuffer.wrap(bytes);
+        if (record.getInt(CHECKSUMMED_SIZE) != checksum(bytes)) {
+            return null;
+        }
+        Event event = EventBinaryFormat.read(record);
+        record.getInt(); // eventHash, recomputed from the Event's fields
+        long chainSequence = record.getLong();
+        byte[] chainHash = new byte[EventHashChain.HASH_SIZE];
+        record.get(chainHash);
+        event.setChain(chainSequence, chainHash);
+        return event;
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, CHECKSUMMED_SIZE);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,114 @@
+package com.fidectus.eventlog.persistence.segment;
+
+import java.util.Arrays;
+
+/**
+ * Log offsets of events kept sorted by (event time, offset), for one user's events or for the events of one segment.
+ *
+ * Events mostly arrive in time order, so adding one is usually an append. Late events are shifted into place.
+ */
+final class EventTimeIndex {
+    private long[] times = new long[4];
+    private long[] offsets = new long[4];
+    private int size;
+    private long lastOffset = -1;
+
+    synchronized void add(long timeMicros, long offset) {
+        lastOffset = Math.max(lastOffset, offset);
+        if (size == offsets.length) {
+            times = Arrays.copyOf(times, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        int position = size;
+        while (position > 0 && compare(position - 1, timeMicros, offset) > 0) {
+            position--;
+        }
+        System.arraycopy(times, position, times, position + 1, size - position);
+        System.arraycopy(offsets, position, offsets, position + 1, size - position);
+        times[position] = timeMicros;
+        offsets[position] = offset;
+        size++;
+    }
+
+    /**
+     * @return Offsets of up to limit events ordered after (afterTime, afterOffset), with fromTime <= time < toTime
+     */
+    synchronized long[] page(long fromTime, long toTime, long afterTime, long afterOffset, int limit) {
+        // First entry after both (afterTime, afterOffset) and (fromTime, -1)
+        int start = afterTime > fromTime || (afterTime == fromTime && afterOffset >= 0)
+                ? firstAfter(afterTime, afterOffset)
+                : firstAfter(fromTime, -1);
+        int end = start;
+        while (end < size && end - start < limit && times[end] < toTime) {
+            end++;
+        }
+        return Arrays.copyOfRange(offsets, start, end);
+    }
+
+    /**
+     * @return true if any event has fromTime <= time < toTime
+     */
+    synchronized boolean overlaps(long fromTime, long toTime) {
+        return size > 0 && times[0] < toTime && times[size - 1] >= fromTime;
+    }
+
+    /**
+     * @return Time of the latest event, or Long.MIN_VALUE if there are none
+     */
+    synchronized long lastTime() {
+        return size > 0 ? times[size - 1] : Long.MIN_VALUE;
+    }
+
+    /**
+     * @return Offset of the most recently appended event
+     */
+    synchronized long lastOffset() {
+        return lastOffset;
+    }
+
+    /**
+     * @return All offsets in the order the events were appended, which is their hash chain order
+     */
+    synchronized long[] offsetsInLogOrder() {
+        long[] sorted = Arrays.copyOf(offsets, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Removes the events with an offset below offset, once the segments holding them have been dropped.
+     *
+     * @return true if no events are left
+     */
+    synchronized boolean removeBefore(long offset) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (offsets[i] >= offset) {
+                times[kept] = times[i];
+                offsets[kept] = offsets[i];
+                kept++;
+            }
+        }
+        size = kept;
+        return size == 0;
+    }
+
+    private int firstAfter(long timeMicros, long offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, timeMicros, offset) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int position, long timeMicros, long offset) {
+        int byTime = Long.compare(times[position], timeMicros);
+        return byTime != 0 ? byTime : Long.compare(offsets[position], offset);
+    }
+}
@@ -0,0 +1,14 @@
+package com.fidectus.eventlog.persistence.segment;
+
+/**
+ * When SegmentLogEventStore forces appended records to disk.
+ * Records that have not been forced can be lost if the machine (not just the process) crashes.
+ */
+public enum FsyncPolicy {
+    /** Before every addEvent/addEvents call returns. Nothing acknowledged is lost, slowest. */
+    PER_WRITE,
+    /** Every fsync-interval, on a background thread. Loses at most one interval of events. */
+    INTERVAL,
+    /** Once fsync-batch-size records have been appended since the last fsync. Loses at most one batch of events. */
+    BATCH
+}
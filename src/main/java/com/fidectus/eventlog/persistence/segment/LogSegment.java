@@ -0,0 +1,172 @@
+package com.fidectus.eventlog.persistence.segment;
+
+import com.fidectus.eventlog.dto.EpochMicros;
+import com.fidectus.eventlog.dto.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+
+/**
+ * One append-only, memory-mapped file of fixed size EventRecords.
+ * The file is named after the log offset of its first record and is sized for its capacity up front.
+ * Each segment keeps an in-memory index of its records by event time, so time range queries can skip segments that
+ * have no events in the range and seek within those that do.
+ *
+ * Appends must be done by one thread at a time. Reads of records that have been appended are safe from any thread.
+ */
+final class LogSegment implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(LogSegment.class);
+    static final String FILE_SUFFIX = ".log";
+    private static final int MAGIC = 0x45564c47; // "EVLG"
+    private static final int VERSION = 2; // 2 added the hash chain to EventRecords
+    private static final int HEADER_SIZE = 8;
+
+    private final Path path;
+    private final long baseOffset;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final EventTimeIndex timeIndex = new EventTimeIndex();
+    private int recordCount;
+
+    private LogSegment(Path path, long baseOffset, int capacity, FileChannel channel) throws IOException {
+        this.path = path;
+        this.baseOffset = baseOffset;
+        this.capacity = capacity;
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * EventRecord.SIZE);
+    }
+
+    static LogSegment create(Path directory, long baseOffset, int capacity) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", baseOffset, FILE_SUFFIX));
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        LogSegment segment = new LogSegment(path, baseOffset, capacity, channel);
+        segment.buffer.putInt(0, MAGIC).putInt(4, VERSION);
+        segment.buffer.force();
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment and passes each valid record, with its log offset, to action.
+     * Appends continue after the last valid record. Anything after it is zeroed first: a crash can tear a record while
+     * later ones reach the disk, and those must not be read back once appends have written over the torn one.
+     */
+    static LogSegment open(Path path, BiConsumer<Long, Event> action) throws IOException {
+        String fileName = path.getFileName().toString();
+        long baseOffset = Long.parseLong(fileName.substring(0, fileName.length() - FILE_SUFFIX.length()));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int capacity = (int) ((channel.size() - HEADER_SIZE) / EventRecord.SIZE);
+        LogSegment segment = new LogSegment(path, baseOffset, capacity, channel);
+
+        if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION) {
+            segment.close();
+            throw new IOException("Not an event log segment of version " + VERSION + ": " + path);
+        }
+        while (segment.recordCount < capacity) {
+            Event event = EventRecord.read(segment.buffer, positionOf(segment.recordCount));
+            if (event == null) {
+                break;
+            }
+            long offset = baseOffset + segment.recordCount;
+            segment.timeIndex.add(EpochMicros.of(event.getTime()), offset);
+            action.accept(offset, event);
+            segment.recordCount++;
+        }
+        int cleared = segment.clearFrom(segment.recordCount);
+        if (cleared > 0) {
+            log.warn("Zeroed {} records after the last valid one, at offset {}, in {}", cleared, segment.getNextOffset(), path);
+        }
+        return segment;
+    }
+
+    /**
+     * @return Log offset of the appended record
+     */
+    long append(Event event) {
+        EventRecord.write(buffer, positionOf(recordCount), event);
+        long offset = baseOffset + recordCount++;
+        timeIndex.add(EpochMicros.of(event.getTime()), offset);
+        return offset;
+    }
+
+    Event read(long offset) {
+        return EventRecord.read(buffer, positionOf((int) (offset - baseOffset)));
+    }
+
+    boolean isFull() {
+        return recordCount >= capacity;
+    }
+
+    /**
+     * @return Offsets of the segment's records, by event time
+     */
+    EventTimeIndex getTimeIndex() {
+        return timeIndex;
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    long getNextOffset() {
+        return baseOffset + recordCount;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Closes the segment and deletes its file. Records already read stay valid, the mapping is released once unreachable.
+     */
+    void delete() throws IOException {
+        channel.close();
+        Files.delete(path);
+    }
+
+    // Zeroes the slots from record on that aren't zero already, reading each once
+    private int clearFrom(int record) {
+        int cleared = 0;
+        byte[] zeroes = new byte[EventRecord.SIZE];
+        ByteBuffer target = buffer.duplicate();
+        for (int i = record; i < capacity; i++) {
+            int position = positionOf(i);
+            for (int j = 0; j < EventRecord.SIZE; j++) {
+                if (buffer.get(position + j) != 0) {
+                    target.position(position);
+                    target.put(zeroes);
+                    cleared++;
+                    break;
+                }
+            }
+        }
+        if (cleared > 0) {
+            buffer.force();
+        }
+        return cleared;
+    }
+
+    private static int positionOf(int record) {
+        return HEADER_SIZE + record * EventRecord.SIZE;
+    }
+}
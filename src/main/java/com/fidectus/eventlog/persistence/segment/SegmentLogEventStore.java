@@ -0,0 +1,625 @@
+package com.fidectus.eventlog.persistence.segment;
+
+import com.fidectus.eventlog.dto.EpochMicros;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.dto.EventField;
+import com.fidectus.eventlog.dto.EventProjection;
+import com.fidectus.eventlog.persistence.EventHashChain;
+import com.fidectus.eventlog.persistence.EventStore;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Durable storage engine that appends Events to memory-mapped segment files in a directory.
+ *
+ * Every Event gets a log offset, its position in the log. An eventId index and per-user and per-segment time-ordered
+ * indexes of offsets are held in memory and are rebuilt by scanning the segments on startup.
+ * Appends are serialised on one lock, reads don't take it. Each user's hash chain follows the order of the log.
+ *
+ * Segments are the unit of retention. With a retention set, whenever a new segment is started the oldest segments whose
+ * events are all older than the retention are dropped by deleting their files, rather than removing events one by one.
+ * The last dropped Event of each user is kept as the base of their chain in a file of EventRecords, replaced before
+ * each segment is deleted, so the chain can still be verified and is continued rather than started again at sequence 1.
+ */
+public class SegmentLogEventStore implements EventStore, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SegmentLogEventStore.class);
+    private static final int STREAM_PAGE_SIZE = 500;
+    private static final String CHAIN_BASES_FILE = "chain-bases.dat";
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final FsyncPolicy fsyncPolicy;
+    private final int fsyncBatchSize;
+    private final Duration retention;
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<UUID, Long> eventIdIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, EventTimeIndex> userIndexes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, Event> chainBases = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final EventHashChain hashChain;
+    private final ScheduledExecutorService fsyncScheduler;
+    private volatile LogSegment activeSegment;
+    private int unsyncedRecords;
+
+    public SegmentLogEventStore(Path directory, int recordsPerSegment, FsyncPolicy fsyncPolicy,
+                                Duration fsyncInterval, int fsyncBatchSize, Duration retention, EventHashChain hashChain)
+            throws IOException {
+        this.directory = directory;
+        this.hashChain = hashChain;
+        this.recordsPerSegment = recordsPerSegment;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncBatchSize = fsyncBatchSize;
+        this.retention = retention;
+
+        Files.createDirectories(directory);
+        loadChainBases();
+        List<Path> segmentFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            segmentFiles = files.filter(file -> file.getFileName().toString().endsWith(LogSegment.FILE_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path segmentFile : segmentFiles) {
+            LogSegment segment = LogSegment.open(segmentFile, this::index);
+            segments.put(segment.getBaseOffset(), segment);
+        }
+        activeSegment = segments.isEmpty() ? createSegment(0) : segments.lastEntry().getValue();
+        log.info("Opened event log in {} with {} events in {} segments", directory, eventIdIndex.size(), segments.size());
+        applyRetention();
+
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            fsyncScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-log-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = fsyncInterval.toMillis();
+            fsyncScheduler.scheduleWithFixedDelay(() -> activeSegment.force(), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            fsyncScheduler = null;
+        }
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public Event addEvent(Event event) {
+        checkNotNull(event);
+        synchronized (writeLock) {
+            if (eventIdIndex.containsKey(event.getEventId())) {
+                log.debug("Event already exists in log with ID: {}", event.getEventId());
+                throw new ResponseStatusException(HttpStatus.CONFLICT);
+            }
+            try (EventHashChain.UserLocks locks = hashChain.lock(List.of(event.getUserId()))) {
+                appendToChain(event);
+            }
+            if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+                activeSegment.force();
+            }
+        }
+        log.debug("Added event in log with ID: {}", event.getEventId());
+        return event;
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public List<EventBatchResult> addEvents(List<Event> events) {
+        events.forEach(SegmentLogEventStore::checkNotNull);
+        List<EventBatchResult> results = new ArrayList<>(events.size());
+        List<UUID> userIds = events.stream().map(Event::getUserId).collect(Collectors.toList());
+        synchronized (writeLock) {
+            try (EventHashChain.UserLocks locks = hashChain.lock(userIds)) {
+                for (Event event : events) {
+                    if (eventIdIndex.containsKey(event.getEventId())) {
+                        results.add(EventBatchResult.duplicate(event.getEventId()));
+                    } else {
+                        appendToChain(event);
+                        results.add(EventBatchResult.created(event.getEventId()));
+                    }
+                }
+            }
+            if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+                activeSegment.force();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Pages through the user's time index. With an eventType, events of other types are read to be skipped,
+     * as the index only holds times.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public List<Event> getEventsForUserId(UUID userId, LocalDateTime from, LocalDateTime to, Event.EventType eventType,
+                                          Event after, int limit) {
+        EventTimeIndex userIndex = userIndexes.get(userId);
+        if (userIndex == null) {
+            return new ArrayList<>();
+        }
+        long fromTime = from != null ? EpochMicros.of(from) : Long.MIN_VALUE;
+        long toTime = to != null ? EpochMicros.of(to) : Long.MAX_VALUE;
+        long afterTime = Long.MIN_VALUE;
+        long afterOffset = -1;
+        if (after != null) {
+            afterTime = EpochMicros.of(after.getTime());
+            afterOffset = eventIdIndex.getOrDefault(after.getEventId(), -1L);
+        }
+        if (eventType == null) {
+            return read(userIndex.page(fromTime, toTime, afterTime, afterOffset, limit));
+        }
+        List<TimedEvent> matches = new ArrayList<>();
+        collectByTime(userIndex, fromTime, toTime, eventType, afterTime, afterOffset, limit, matches);
+        return matches.stream().map(match -> match.event).collect(Collectors.toList());
+    }
+
+    /**
+     * Records are read whole, so the fields are picked out of the events of getEventsForUserId.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public List<EventProjection> getEventFieldsForUserId(UUID userId, LocalDateTime from, LocalDateTime to,
+                                                         Event.EventType eventType, Event after, int limit,
+                                                         Set<EventField> fields) {
+        List<Event> events = getEventsForUserId(userId, from, to, eventType, after, limit);
+        List<EventProjection> projections = new ArrayList<>(events.size());
+        for (Event event : events) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (EventField field : fields) {
+                values.put(field.getName(), field.get(event));
+            }
+            projections.add(new EventProjection(event.getEventId(), values));
+        }
+        return projections;
+    }
+
+    /**
+     * Pages through the time index of each segment with events in the range, skipping the others, and merges the results.
+     * Events with the same time are ordered by log offset.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public List<Event> getEventsByTime(LocalDateTime from, LocalDateTime to, Event.EventType eventType, Event after, int limit) {
+        long fromTime = EpochMicros.of(from);
+        long toTime = EpochMicros.of(to);
+        long afterTime = Long.MIN_VALUE;
+        long afterOffset = -1;
+        if (after != null) {
+            afterTime = EpochMicros.of(after.getTime());
+            afterOffset = eventIdIndex.getOrDefault(after.getEventId(), -1L);
+        }
+        List<TimedEvent> matches = new ArrayList<>();
+        for (LogSegment segment : segments.values()) {
+            if (segment.getTimeIndex().overlaps(fromTime, toTime)) {
+                collectByTime(segment.getTimeIndex(), fromTime, toTime, eventType, afterTime, afterOffset, limit, matches);
+            }
+        }
+        matches.sort(Comparator.comparingLong((TimedEvent match) -> match.time).thenComparingLong(match -> match.offset));
+        List<Event> events = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            events.add(matches.get(i).event);
+        }
+        return events;
+    }
+
+    // Adds up to limit events of eventType from the index to matches, reading a page of the index at a time
+    private void collectByTime(EventTimeIndex index, long fromTime, long toTime, Event.EventType eventType,
+                               long afterTime, long afterOffset, int limit, List<TimedEvent> matches) {
+        int found = 0;
+        long[] page;
+        do {
+            page = index.page(fromTime, toTime, afterTime, afterOffset, limit);
+            for (long offset : page) {
+                Event event = readAt(offset);
+                if (event == null) {
+                    return; // Dropped by retention
+                }
+                afterTime = EpochMicros.of(event.getTime());
+                afterOffset = offset;
+                if (eventType == null || event.getEventType() == eventType) {
+                    matches.add(new TimedEvent(afterTime, offset, event));
+                    if (++found == limit) {
+                        return;
+                    }
+                }
+            }
+        } while (page.length == limit);
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public void streamEventsForUserId(UUID userId, Consumer<Event> action) {
+        EventTimeIndex userIndex = userIndexes.get(userId);
+        if (userIndex == null) {
+            return;
+        }
+        long afterTime = Long.MIN_VALUE;
+        long afterOffset = -1;
+        long[] page;
+        do {
+            page = userIndex.page(Long.MIN_VALUE, Long.MAX_VALUE, afterTime, afterOffset, STREAM_PAGE_SIZE);
+            for (long offset : page) {
+                Event event = readAt(offset);
+                if (event == null) {
+                    return; // Dropped by retention while streaming
+                }
+                action.accept(event);
+                afterTime = EpochMicros.of(event.getTime());
+                afterOffset = offset;
+            }
+        } while (page.length == STREAM_PAGE_SIZE);
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public void streamChainForUserId(UUID userId, long afterSequence, Consumer<Event> action) {
+        EventTimeIndex userIndex = userIndexes.get(userId);
+        if (userIndex == null) {
+            return;
+        }
+        // Chain sequences count up by 1 in log order, from 1 or from the first event not dropped by retention
+        long[] offsets = userIndex.offsetsInLogOrder();
+        Event first = offsets.length > 0 ? readAt(offsets[0]) : null;
+        if (first == null) {
+            return;
+        }
+        for (long i = Math.max(0, afterSequence - (first.getChainSequence() - 1)); i < offsets.length; i++) {
+            Event event = readAt(offsets[(int) i]);
+            if (event == null) {
+                return;
+            }
+            action.accept(event);
+        }
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public Event getEvent(UUID eventId) {
+        if (eventId == null) {
+            log.error("EventID passed to log is null");
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        Long offset = eventIdIndex.get(eventId);
+        return offset != null ? readAt(offset) : null;
+    }
+
+    /**
+     * Looks each eventId up in the in-memory index, then reads the records in log order rather than request order.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public Map<UUID, Event> getEvents(Collection<UUID> eventIds) {
+        List<Long> offsets = new ArrayList<>(eventIds.size());
+        for (UUID eventId : eventIds) {
+            Long offset = eventIdIndex.get(eventId);
+            if (offset != null) {
+                offsets.add(offset);
+            }
+        }
+        offsets.sort(null);
+        Map<UUID, Event> events = new HashMap<>();
+        for (long offset : offsets) {
+            Event event = readAt(offset);
+            if (event != null) {
+                events.put(event.getEventId(), event);
+            }
+        }
+        return events;
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public Event findEventLike(Event event) {
+        checkNotNull(event);
+        EventTimeIndex userIndex = userIndexes.get(event.getUserId());
+        if (userIndex == null) {
+            return null;
+        }
+        long time = EpochMicros.of(event.getTime());
+        for (long offset : userIndex.page(time, time + 1, Long.MIN_VALUE, -1, Integer.MAX_VALUE)) {
+            Event candidate = readAt(offset);
+            if (candidate != null && candidate.getEventType() == event.getEventType()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public void forEachEvent(Consumer<Event> action) {
+        List<UUID> userIds = new ArrayList<>(userIndexes.keySet());
+        userIds.sort(null);
+        for (UUID userId : userIds) {
+            streamChainForUserId(userId, 0, action);
+        }
+    }
+
+    /**
+     * Appends the records as given, under the write lock for the whole import, and forces them to disk at the end.
+     * Events that don't continue their user's stored chain are skipped, so a user with a different chain in the log
+     * isn't given a second Event with each chain sequence.
+     */
+    @Override
+    @Timed("eventlog.store")
+    public long importEvents(Iterator<List<Event>> batches, Consumer<Event> imported) {
+        long importedCount = 0;
+        synchronized (writeLock) {
+            while (batches.hasNext()) {
+                List<Event> batch = batches.next();
+                List<Event> newEvents = new ArrayList<>(batch.size());
+                Set<UUID> userIds = new HashSet<>();
+                for (Event event : batch) {
+                    checkNotNull(event);
+                    if (!eventIdIndex.containsKey(event.getEventId())) {
+                        newEvents.add(event);
+                        userIds.add(event.getUserId());
+                    }
+                }
+                try (EventHashChain.UserLocks locks = hashChain.lock(userIds)) {
+                    List<Event> continuing = hashChain.continuing(newEvents, this::lastChainEvent);
+                    if (continuing.size() < newEvents.size()) {
+                        log.warn("Skipped {} imported events that don't continue their user's stored chain",
+                                newEvents.size() - continuing.size());
+                    }
+                    for (Event event : continuing) {
+                        append(event);
+                        imported.accept(event);
+                        importedCount++;
+                    }
+                    hashChain.advance(continuing);
+                }
+            }
+            activeSegment.force();
+        }
+        return importedCount;
+    }
+
+    @Override
+    @Timed("eventlog.store")
+    public void forEachEventHash(IntConsumer action) {
+        for (long offset : eventIdIndex.values()) {
+            Event event = readAt(offset);
+            if (event != null) {
+                action.accept(event.getEventHash());
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest segments, except the one being appended to, while all of their events are before cutoff.
+     * Each segment is dropped by deleting its file. The events are then removed from the in-memory indexes.
+     *
+     * @return Number of events dropped
+     */
+    public long dropSegmentsBefore(LocalDateTime cutoff) {
+        long cutoffTime = EpochMicros.of(cutoff);
+        long dropped = 0;
+        synchronized (writeLock) {
+            Map.Entry<Long, LogSegment> oldest;
+            while ((oldest = segments.firstEntry()) != null && oldest.getValue() != activeSegment
+                    && oldest.getValue().getTimeIndex().lastTime() < cutoffTime) {
+                long count = drop(oldest.getValue());
+                if (count == 0) {
+                    break; // Kept, as its chain bases couldn't be saved
+                }
+                dropped += count;
+            }
+        }
+        return dropped;
+    }
+
+    // Must hold writeLock. Unindexes the segment's events before deleting it, so readers find them gone rather than broken.
+    private long drop(LogSegment segment) {
+        long nextOffset = segment.getNextOffset();
+        Map<UUID, Event> lastEvents = new HashMap<>();
+        for (long offset = segment.getBaseOffset(); offset < nextOffset; offset++) {
+            Event event = segment.read(offset);
+            lastEvents.put(event.getUserId(), event);
+        }
+        Map<UUID, Event> bases = new HashMap<>(chainBases);
+        bases.putAll(lastEvents);
+        try {
+            saveChainBases(bases);
+        } catch (IOException ex) {
+            log.error("Could not save the chain bases of event log segment {}, keeping it", segment.getPath(), ex);
+            return 0;
+        }
+        chainBases.putAll(lastEvents);
+        for (long offset = segment.getBaseOffset(); offset < nextOffset; offset++) {
+            eventIdIndex.remove(segment.read(offset).getEventId());
+        }
+        for (UUID userId : lastEvents.keySet()) {
+            userIndexes.computeIfPresent(userId, (key, userIndex) -> userIndex.removeBefore(nextOffset) ? null : userIndex);
+        }
+        segments.remove(segment.getBaseOffset());
+        try {
+            segment.delete();
+        } catch (IOException ex) {
+            log.error("Could not delete dropped event log segment {}", segment.getPath(), ex);
+        }
+        long count = nextOffset - segment.getBaseOffset();
+        log.info("Dropped event log segment {} with {} events", segment.getPath(), count);
+        return count;
+    }
+
+    // Must hold writeLock, or be called before the store is in use
+    private void applyRetention() {
+        if (retention.isZero()) {
+            return;
+        }
+        dropSegmentsBefore(LocalDateTime.now(ZoneOffset.UTC).minus(retention));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fsyncScheduler != null) {
+            fsyncScheduler.shutdown();
+        }
+        synchronized (writeLock) {
+            for (LogSegment segment : segments.values()) {
+                segment.close();
+            }
+        }
+        log.info("Closed event log in {}", directory);
+    }
+
+    // Must hold writeLock and the user's chain lock
+    private void appendToChain(Event event) {
+        List<Event> single = List.of(event);
+        hashChain.link(single, this::lastChainEvent);
+        append(event);
+        hashChain.advance(single);
+    }
+
+    private Event lastChainEvent(UUID userId) {
+        EventTimeIndex userIndex = userIndexes.get(userId);
+        return userIndex != null ? readAt(userIndex.lastOffset()) : chainBases.get(userId);
+    }
+
+    @Override
+    public Event getChainBase(UUID userId) {
+        return chainBases.get(userId);
+    }
+
+    private void loadChainBases() throws IOException {
+        Path file = directory.resolve(CHAIN_BASES_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        for (int position = 0; position + EventRecord.SIZE <= buffer.capacity(); position += EventRecord.SIZE) {
+            Event base = EventRecord.read(buffer, position);
+            if (base == null) {
+                throw new IOException("Corrupt chain bases file " + file);
+            }
+            chainBases.put(base.getUserId(), base);
+        }
+    }
+
+    // Written under another name and renamed over the file, so a crash leaves either the old bases or the new ones
+    private void saveChainBases(Map<UUID, Event> bases) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bases.size() * EventRecord.SIZE);
+        int position = 0;
+        for (Event base : bases.values()) {
+            EventRecord.write(buffer, position, base);
+            position += EventRecord.SIZE;
+        }
+        Path partial = directory.resolve(CHAIN_BASES_FILE + ".part");
+        try (FileChannel channel = FileChannel.open(partial,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(partial, directory.resolve(CHAIN_BASES_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Must hold writeLock
+    private void append(Event event) {
+        if (activeSegment.isFull()) {
+            activeSegment.force();
+            activeSegment = createSegment(activeSegment.getNextOffset());
+            applyRetention();
+        }
+        index(activeSegment.append(event), event);
+        if (fsyncPolicy == FsyncPolicy.BATCH && ++unsyncedRecords >= fsyncBatchSize) {
+            activeSegment.force();
+            unsyncedRecords = 0;
+        }
+    }
+
+    private void index(long offset, Event event) {
+        userIndexes.computeIfAbsent(event.getUserId(), userId -> new EventTimeIndex())
+                .add(EpochMicros.of(event.getTime()), offset);
+        eventIdIndex.put(event.getEventId(), offset);
+    }
+
+    private LogSegment createSegment(long baseOffset) {
+        try {
+            LogSegment segment = LogSegment.create(directory, baseOffset, recordsPerSegment);
+            segments.put(baseOffset, segment);
+            log.info("Created event log segment {}", segment.getPath());
+            return segment;
+        } catch (IOException ex) {
+            log.error("Could not create event log segment in {}", directory, ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private List<Event> read(long[] offsets) {
+        List<Event> events = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            Event event = readAt(offset);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    // Null if the event's segment has been dropped by retention since its offset was looked up.
+    // Only the oldest segments are dropped, so a dropped offset is below the first segment.
+    private Event readAt(long offset) {
+        Map.Entry<Long, LogSegment> segment = segments.floorEntry(offset);
+        if (segment == null) {
+            return null;
+        }
+        return segment.getValue().read(offset);
+    }
+
+    private static void checkNotNull(Event event) {
+        if (event == null || event.getEventId() == null || event.getUserId() == null
+                || event.getEventType() == null || event.getTime() == null) {
+            log.error("Event passed to log is null or has null fields");
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static final class TimedEvent {
+        private final long time;
+        private final long offset;
+        private final Event event;
+
+        private TimedEvent(long time, long offset, Event event) {
+            this.time = time;
+            this.offset = offset;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.fidectus.eventlog.persistence.shard;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.ShardRebalanceReport;
+import com.fidectus.eventlog.persistence.EventHashChain;
+import com.fidectus.eventlog.persistence.EventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Moves users' Events to the shard the ring assigns them to, after shards have been added to eventlog.sharding.urls.
+ *
+ * Runs on startup, before the web server takes requests: until a user has been moved their Events can't be read by
+ * userId, and a new Event of theirs would start a second chain on their new shard.
+ * Each shard's userIds are read, and every user found on a shard other than their own has their chain copied to
+ * their shard a page at a time and then deleted from the old one, with the user's chain locked.
+ * Events already copied are skipped, so a rebalance that stopped part way carries on where it stopped. A user whose new
+ * shard already has Events of theirs that aren't in the chain being moved is skipped and logged, as the chains can't
+ * be joined.
+ *
+ * Events stored before sharding was enabled have no owner in the first shard's event_owner table, which keeps eventIds
+ * unique across shards, so if there are fewer owners than Events the eventIds of every shard are claimed first.
+ */
+public class EventShardRebalancer {
+    private static final Logger log = LoggerFactory.getLogger(EventShardRebalancer.class);
+
+    private final EventRepository repository;
+    private final EventShards shards;
+    private final EventHashChain hashChain;
+    private final int batchSize;
+
+    public EventShardRebalancer(EventRepository repository, EventShards shards, EventHashChain hashChain, int batchSize) {
+        this.repository = repository;
+        this.shards = shards;
+        this.hashChain = hashChain;
+        this.batchSize = batchSize;
+    }
+
+    public ShardRebalanceReport rebalance() {
+        long start = System.nanoTime();
+        long usersMoved = 0;
+        long eventsMoved = 0;
+        long usersSkipped = 0;
+        claimUnownedEventIds();
+        for (String shard : shards.getShards()) {
+            List<UUID> misplacedUserIds = new ArrayList<>();
+            shards.run(shard, () -> repository.forEachUserId(userId -> {
+                if (!shard.equals(shards.shardOf(userId))) {
+                    misplacedUserIds.add(userId);
+                }
+            }));
+            for (UUID userId : misplacedUserIds) {
+                long moved = moveUser(userId, shard, shards.shardOf(userId));
+                if (moved < 0) {
+                    usersSkipped++;
+                } else {
+                    usersMoved++;
+                    eventsMoved += moved;
+                }
+            }
+        }
+        ShardRebalanceReport report = new ShardRebalanceReport(usersMoved, eventsMoved, usersSkipped,
+                (System.nanoTime() - start) / 1_000_000);
+        log.info("Rebalanced shards: {}", report);
+        return report;
+    }
+
+    private void claimUnownedEventIds() {
+        long eventCount = 0;
+        for (String shard : shards.getShards()) {
+            eventCount += shards.call(shard, repository::count);
+        }
+        String ownerShard = shards.getShards().get(0);
+        if (shards.call(ownerShard, repository::countEventOwners) >= eventCount) {
+            return;
+        }
+        long claimed = 0;
+        for (String shard : shards.getShards()) {
+            List<Event> page = shards.call(shard, () -> repository.findPageByEventId(null, batchSize));
+            while (!page.isEmpty()) {
+                List<UUID> eventIds = new ArrayList<>(page.size());
+                page.forEach(event -> eventIds.add(event.getEventId()));
+                Map<UUID, UUID> owners = shards.call(ownerShard, () -> repository.findEventOwners(eventIds));
+                List<Event> unowned = new ArrayList<>(page.size());
+                for (Event event : page) {
+                    UUID owner = owners.get(event.getEventId());
+                    if (owner == null) {
+                        unowned.add(event);
+                    } else if (!owner.equals(event.getUserId())) {
+                        log.warn("eventId {} is stored for both user {} and user {}", event.getEventId(), owner, event.getUserId());
+                    }
+                }
+                if (!unowned.isEmpty()) {
+                    shards.run(ownerShard, () -> repository.insertEventOwners(unowned));
+                    claimed += unowned.size();
+                }
+                UUID lastEventId = page.get(page.size() - 1).getEventId();
+                page = shards.call(shard, () -> repository.findPageByEventId(lastEventId, batchSize));
+            }
+        }
+        log.info("Claimed {} eventIds of events stored before sharding", claimed);
+    }
+
+    /**
+     * @return Number of the user's Events copied, or -1 if the user was skipped
+     */
+    private long moveUser(UUID userId, String fromShard, String toShard) {
+        try (EventHashChain.UserLocks locks = hashChain.lock(List.of(userId))) {
+            // Left by a rebalance that stopped part way if the old shard has the same Event, as batches are copied whole
+            Event lastOnTarget = shards.call(toShard, () -> repository.findFirstByUserIdOrderByChainSequenceDesc(userId));
+            if (lastOnTarget != null) {
+                Event lastOnSource = shards.call(fromShard, () -> repository.findById(lastOnTarget.getEventId()).orElse(null));
+                if (lastOnSource == null || !userId.equals(lastOnSource.getUserId())) {
+                    log.warn("Not moving user {} from {} to {}, which already has other events of theirs", userId, fromShard, toShard);
+                    return -1;
+                }
+            }
+            // A page at a time, as the target shard's inserts can't run inside a read of the source shard
+            long copied = 0;
+            long afterSequence = lastOnTarget == null ? 0 : lastOnTarget.getChainSequence();
+            List<Event> page = shards.call(fromShard, () -> repository.findChainPageByUserId(userId, afterSequence, batchSize));
+            while (!page.isEmpty()) {
+                List<Event> batch = page;
+                shards.run(toShard, () -> repository.insertAll(batch));
+                copied += batch.size();
+                long lastSequence = batch.get(batch.size() - 1).getChainSequence();
+                page = shards.call(fromShard, () -> repository.findChainPageByUserId(userId, lastSequence, batchSize));
+            }
+            shards.run(fromShard, () -> repository.deleteByUserId(userId));
+            log.debug("Moved user {} from {} to {}, copying {} events", userId, fromShard, toShard, copied);
+            return copied;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.fidectus.eventlog.persistence.shard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The shards the JPA store's Events are spread over by userId, and the shard the current thread's database work goes to.
+ *
+ * Work run with call() or run() on a shard uses that shard's DataSource, through ShardRoutingDataSource, and is timed
+ * per shard as eventlog.shard.calls. Work run outside them uses the first shard, which also holds the summary tables
+ * of EventCountRepository. callOnAll() runs work on every shard at once, on the calling thread for the first shard and
+ * a pool thread for each of the others, for lookups that can't be routed by userId. The pool has a thread for each
+ * connection of the other shards' pools, so it doesn't limit how many of these lookups a shard serves at once.
+ *
+ * Without sharding there is one shard, shard0, and the DataSource isn't routed.
+ */
+public class EventShards implements AutoCloseable {
+    private final ShardRing ring;
+    private final Map<String, Timer> timers = new HashMap<>();
+    private final ThreadLocal<String> currentShard = new ThreadLocal<>();
+    private final ExecutorService scatterThreads;
+
+    /**
+     * @param connectionsPerShard Size of each shard's connection pool
+     */
+    public EventShards(int shardCount, int virtualNodes, int connectionsPerShard, MeterRegistry meterRegistry) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        List<String> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add("shard" + i);
+        }
+        this.ring = new ShardRing(shards, virtualNodes);
+        for (String shard : shards) {
+            timers.put(shard, Timer.builder("eventlog.shard.calls")
+                    .description("Database work done on each shard")
+                    .tag("shard", shard)
+                    .register(meterRegistry));
+        }
+        if (shardCount > 1) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.scatterThreads = Executors.newFixedThreadPool((shardCount - 1) * connectionsPerShard, runnable -> {
+                Thread thread = new Thread(runnable, "event-shard-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.scatterThreads = null;
+        }
+    }
+
+    /**
+     * @return Names of the shards, in the order of eventlog.sharding.urls
+     */
+    public List<String> getShards() {
+        return ring.getShards();
+    }
+
+    public boolean isSharded() {
+        return ring.getShards().size() > 1;
+    }
+
+    public String shardOf(UUID userId) {
+        return ring.shardOf(userId);
+    }
+
+    /**
+     * @return Shard the current thread's database work goes to, or null for the first one
+     */
+    public String currentShard() {
+        return currentShard.get();
+    }
+
+    /**
+     * Runs work with its database access going to shard. Calls for the shard the thread is already on run as they are.
+     */
+    public <T> T call(String shard, Supplier<T> work) {
+        String previousShard = currentShard.get();
+        if (shard.equals(previousShard)) {
+            return work.get();
+        }
+        Timer.Sample sample = Timer.start();
+        currentShard.set(shard);
+        try {
+            return work.get();
+        } finally {
+            restore(previousShard);
+            sample.stop(timers.get(shard));
+        }
+    }
+
+    public void run(String shard, Runnable work) {
+        call(shard, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public <T> T callOnShardOf(UUID userId, Supplier<T> work) {
+        return call(shardOf(userId), work);
+    }
+
+    public void runOnShardOf(UUID userId, Runnable work) {
+        run(shardOf(userId), work);
+    }
+
+    /**
+     * Runs work on every shard at once, the first shard's on the calling thread.
+     * If work fails on any shard, the first of its exceptions is thrown once all have finished.
+     *
+     * @return Results by shard, in the order of getShards()
+     */
+    public <T> List<T> callOnAll(Supplier<T> work) {
+        List<String> shards = ring.getShards();
+        if (shards.size() == 1) {
+            return Collections.singletonList(call(shards.get(0), work));
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (String shard : shards.subList(1, shards.size())) {
+            futures.add(CompletableFuture.supplyAsync(() -> call(shard, work), scatterThreads));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        RuntimeException failure = null;
+        try {
+            results.add(call(shards.get(0), work));
+        } catch (RuntimeException ex) {
+            failure = ex;
+        }
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Runs work on each shard in turn, on the calling thread, for work that passes what it reads to a callback.
+     */
+    public void runOnEach(Runnable work) {
+        for (String shard : ring.getShards()) {
+            run(shard, work);
+        }
+    }
+
+    private void restore(String previousShard) {
+        if (previousShard == null) {
+            currentShard.remove();
+        } else {
+            currentShard.set(previousShard);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scatterThreads != null) {
+            scatterThreads.shutdown();
+        }
+    }
+}
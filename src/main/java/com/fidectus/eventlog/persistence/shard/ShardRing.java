@@ -0,0 +1,67 @@
+package com.fidectus.eventlog.persistence.shard;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Consistent hash ring assigning userIds to shards.
+ *
+ * Each shard is placed on the ring at virtualNodes points hashed from its name, and a userId belongs to the first
+ * shard point at or after the userId's hash. As a shard's points depend only on its name, adding a shard takes over
+ * about 1/N of the userIds, all from the other shards, and leaves the rest where they were.
+ */
+public class ShardRing {
+    private final List<String> shards;
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    public ShardRing(List<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be at least 1");
+        }
+        this.shards = List.copyOf(shards);
+        for (String shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(pointOf(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    public List<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * @return Name of the shard the user's Events are stored on
+     */
+    public String shardOf(UUID userId) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(userId));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    // SplitMix64 finalizer over both halves, so userIds that differ in a few bits land far apart
+    private static long hash(UUID userId) {
+        long z = userId.getMostSignificantBits() * 31 + userId.getLeastSignificantBits();
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long pointOf(String name) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(name.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+}
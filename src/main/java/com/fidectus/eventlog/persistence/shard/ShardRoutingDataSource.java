@@ -0,0 +1,56 @@
+package com.fidectus.eventlog.persistence.shard;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DataSource handing out connections to the shard EventShards has the current thread on, or to the first shard.
+ * A transaction keeps the connection it started with, so the shard must be chosen before the transaction begins.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+    private final EventShards eventShards;
+    private final Map<String, DataSource> shardDataSources;
+
+    /**
+     * @param shardDataSources DataSource of each of eventShards' shards, by name
+     */
+    public ShardRoutingDataSource(EventShards eventShards, Map<String, DataSource> shardDataSources) {
+        if (!shardDataSources.keySet().equals(Set.copyOf(eventShards.getShards()))) {
+            throw new IllegalArgumentException("A DataSource is needed for each of the shards " + eventShards.getShards());
+        }
+        this.eventShards = eventShards;
+        this.shardDataSources = new LinkedHashMap<>(shardDataSources);
+        setTargetDataSources(new LinkedHashMap<>(shardDataSources));
+        setDefaultTargetDataSource(shardDataSources.get(eventShards.getShards().get(0)));
+        setLenientFallback(false);
+    }
+
+    /**
+     * @return The DataSource of each shard, by name
+     */
+    public Map<String, DataSource> getShardDataSources() {
+        return shardDataSources;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return eventShards.currentShard();
+    }
+
+    /**
+     * Closes the shards' DataSources that can be, such as their connection pools. Called by Spring on shutdown.
+     */
+    public void close() throws IOException {
+        for (DataSource shardDataSource : shardDataSources.values()) {
+            if (shardDataSource instanceof Closeable) {
+                ((Closeable) shardDataSource).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.fidectus.eventlog.services;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventArchiveReport;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventStore;
+import com.fidectus.eventlog.persistence.archive.EventArchiveReader;
+import com.fidectus.eventlog.persistence.archive.EventArchiveWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Exports the whole event log to EventArchive files in a directory and imports them again, e.g. to move the log to
+ * another storage engine or database.
+ *
+ * Export streams every Event from the store, by userId and in chain order, into blocks of blockSize Events, so
+ * memory use doesn't grow with the log. The file is written under a temporary name and renamed once complete.
+ * Import reads a block at a time and loads it with EventStore.importEvents in batches of batchSize, keeping the chains
+ * as exported, and skips Events already stored and those that don't continue their user's stored chain. Archives
+ * written with a larger blockSize than this one's are rejected as corrupt.
+ * Imported Events are counted in the statistics but not published to the change feed.
+ */
+public class EventArchiveService {
+    private static final Logger log = LoggerFactory.getLogger(EventArchiveService.class);
+    private static final String EXTENSION = ".evla";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS");
+
+    private final EventStore eventStore;
+    private final EventCounters eventCounters;
+    private final EventCache eventCache;
+    private final Optional<EventDeduplicator> eventDeduplicator;
+    private final Path directory;
+    private final int blockSize;
+    private final int batchSize;
+
+    public EventArchiveService(EventStore eventStore, EventCounters eventCounters, EventCache eventCache, Optional<EventDeduplicator> eventDeduplicator, Path directory,
+                               int blockSize, int batchSize) {
+        if (blockSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("blockSize and batchSize must be at least 1");
+        }
+        this.eventStore = eventStore;
+        this.eventCounters = eventCounters;
+        this.eventCache = eventCache;
+        this.eventDeduplicator = eventDeduplicator;
+        this.directory = directory;
+        this.blockSize = blockSize;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Writes every stored Event to a new archive file in the directory.
+     *
+     * @return Report naming the file written
+     */
+    public EventArchiveReport exportEvents() {
+        long start = System.nanoTime();
+        String file = "events-" + LocalDateTime.now(ZoneOffset.UTC).format(FILE_TIME) + EXTENSION;
+        Path target = directory.resolve(file);
+        Path partial = directory.resolve(file + ".part");
+        long eventCount;
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                try (EventArchiveWriter writer = new EventArchiveWriter(channel, blockSize)) {
+                    eventStore.forEachEvent(event -> {
+                        try {
+                            writer.write(event);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+                    eventCount = writer.getEventCount();
+                }
+                channel.force(true);
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            EventArchiveReport report = new EventArchiveReport(file, eventCount, 0, Files.size(target), elapsedMillis(start));
+            log.info("Exported {}", report);
+            return report;
+        } catch (IOException | UncheckedIOException ex) {
+            log.error("Failed to export events to {}", target, ex);
+            deleteQuietly(partial);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to write " + file);
+        }
+    }
+
+    /**
+     * Loads the Events of an archive file in the directory into the store.
+     *
+     * @param file Name of the file, as returned by exportEvents
+     * @return Report of the Events imported and skipped
+     */
+    public EventArchiveReport importEvents(String file) {
+        if (file == null || file.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "file must be given");
+        }
+        Path base = directory.toAbsolutePath().normalize();
+        Path source = base.resolve(file).normalize();
+        if (!base.equals(source.getParent())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "file must be the name of a file in the archive directory");
+        }
+        if (!Files.isRegularFile(source)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No archive named " + file);
+        }
+        long start = System.nanoTime();
+        Consumer<Event> imported = event -> {
+            eventCounters.record(event);
+            eventDeduplicator.ifPresent(deduplicator -> deduplicator.add(event));
+        };
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+             EventArchiveReader reader = new EventArchiveReader(channel, blockSize)) {
+            BatchIterator batches = new BatchIterator(reader, batchSize);
+            long importedCount;
+            try {
+                importedCount = eventStore.importEvents(batches, imported);
+            } finally {
+                // Lookups of eventIds that weren't stored yet may have been cached
+                eventCache.invalidateAll();
+            }
+            EventArchiveReport report = new EventArchiveReport(file, importedCount, batches.eventCount - importedCount,
+                    channel.size(), elapsedMillis(start));
+            log.info("Imported {}", report);
+            return report;
+        } catch (IOException | UncheckedIOException ex) {
+            log.error("Failed to import events from {}", source, ex);
+            // Events read before the failure are stored, running the import again skips them
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, file + " is not a valid event archive");
+        }
+    }
+
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            log.warn("Failed to delete {}", path, ex);
+        }
+    }
+
+    /**
+     * Events of an archive as an Iterator of batches of up to batchSize, reading a block when the one before is used up.
+     */
+    private static class BatchIterator implements Iterator<List<Event>> {
+        private final EventArchiveReader reader;
+        private final int batchSize;
+        private List<Event> block = List.of();
+        private int position;
+        private boolean done;
+        private long eventCount;
+
+        BatchIterator(EventArchiveReader reader, int batchSize) {
+            this.reader = reader;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (position == block.size() && !done) {
+                List<Event> nextBlock;
+                try {
+                    nextBlock = reader.readBlock();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                if (nextBlock == null) {
+                    done = true;
+                } else {
+                    block = nextBlock;
+                    position = 0;
+                    eventCount += block.size();
+                }
+            }
+            return position < block.size();
+        }
+
+        @Override
+        public List<Event> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int end = Math.min(position + batchSize, block.size());
+            List<Event> batch = block.subList(position, end);
+            position = end;
+            return batch;
+        }
+    }
+}
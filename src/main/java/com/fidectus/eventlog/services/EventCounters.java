@@ -0,0 +1,224 @@
+package com.fidectus.eventlog.services;
+
+import com.fidectus.eventlog.dto.EpochMicros;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventStatistics;
+import com.fidectus.eventlog.persistence.EventCountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Event counts per user and across all users, by eventType and hour, kept up to date as Events are logged so that
+ * statistics never need to read the Events themselves.
+ *
+ * Logged Events are counted in memory, in LongAdders per (user, eventType, hour) bucket, which spread concurrent
+ * increments over cells instead of contending on one value. Every flushInterval the buckets are swapped out and merged
+ * into the summary tables of EventCountRepository by one thread. Statistics add the buckets not yet flushed to the
+ * stored ones, so they are always up to date. Counts still in memory when the application is killed are lost.
+ */
+public class EventCounters implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EventCounters.class);
+    private static final long MICROS_PER_HOUR = 3_600_000_000L;
+
+    private final EventCountRepository repository;
+    private final ScheduledExecutorService flushScheduler;
+    // Recording takes the read lock, so many threads can record at once. Swapping the buckets out takes the write lock.
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    // Held while flushed buckets are neither in pending nor in the tables, and while reading both
+    private final Object flushLock = new Object();
+    private volatile ConcurrentHashMap<BucketKey, Counter> pending = new ConcurrentHashMap<>();
+
+    public EventCounters(EventCountRepository repository, Duration flushInterval) {
+        this.repository = repository;
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-counts-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = flushInterval.toMillis();
+        flushScheduler.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Counts a logged Event for its user and for all users.
+     */
+    public void record(Event event) {
+        long time = EpochMicros.of(event.getTime());
+        long hour = Math.floorDiv(time, MICROS_PER_HOUR);
+        swapLock.readLock().lock();
+        try {
+            pending.computeIfAbsent(new BucketKey(event.getUserId(), event.getEventType(), hour), key -> new Counter())
+                    .add(time);
+            pending.computeIfAbsent(new BucketKey(null, event.getEventType(), hour), key -> new Counter())
+                    .add(time);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Statistics for the user's Events, from the user's rows of the summary table and the unflushed counts
+     */
+    public EventStatistics getStatisticsForUser(UUID userId, EventStatistics.Interval interval) {
+        return getStatistics(userId, interval);
+    }
+
+    /**
+     * @return Statistics for all Events, from the global rows of the summary table and the unflushed counts
+     */
+    public EventStatistics getStatistics(EventStatistics.Interval interval) {
+        return getStatistics(null, interval);
+    }
+
+    /**
+     * Merges the counts recorded since the last flush into the summary tables. If that fails they are kept for the next flush.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            ConcurrentHashMap<BucketKey, Counter> flushed;
+            swapLock.writeLock().lock();
+            try {
+                flushed = pending;
+                pending = new ConcurrentHashMap<>();
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            if (flushed.isEmpty()) {
+                return;
+            }
+            try {
+                repository.merge(toBuckets(flushed.entrySet()));
+                log.debug("Flushed {} event count buckets", flushed.size());
+            } catch (RuntimeException ex) {
+                log.error("Failed to flush {} event count buckets, retrying on the next flush", flushed.size(), ex);
+                swapLock.readLock().lock();
+                try {
+                    flushed.forEach((key, counter) -> pending.merge(key, counter, Counter::plus));
+                } finally {
+                    swapLock.readLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic flush and flushes what has been counted since the last one.
+     */
+    @Override
+    public void close() {
+        flushScheduler.shutdown();
+        flush();
+    }
+
+    private EventStatistics getStatistics(UUID userId, EventStatistics.Interval interval) {
+        List<EventCountRepository.Bucket> buckets;
+        synchronized (flushLock) {
+            buckets = userId != null ? repository.findByUserId(userId) : repository.findGlobal();
+            List<Map.Entry<BucketKey, Counter>> unflushed = new ArrayList<>();
+            for (Map.Entry<BucketKey, Counter> entry : pending.entrySet()) {
+                if (Objects.equals(entry.getKey().userId, userId)) {
+                    unflushed.add(entry);
+                }
+            }
+            buckets.addAll(toBuckets(unflushed));
+        }
+
+        long total = 0;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        Map<Event.EventType, Long> countsByType = new EnumMap<>(Event.EventType.class);
+        for (Event.EventType eventType : Event.EventType.values()) {
+            countsByType.put(eventType, 0L);
+        }
+        Map<LocalDateTime, Long> eventsPerInterval = new TreeMap<>();
+        for (EventCountRepository.Bucket bucket : buckets) {
+            total += bucket.getCount();
+            firstTime = Math.min(firstTime, bucket.getFirstTime());
+            lastTime = Math.max(lastTime, bucket.getLastTime());
+            countsByType.merge(bucket.getEventType(), bucket.getCount(), Long::sum);
+            long intervalStartHour = Math.floorDiv(bucket.getHour(), interval.getHours()) * interval.getHours();
+            eventsPerInterval.merge(EpochMicros.toLocalDateTime(intervalStartHour * MICROS_PER_HOUR), bucket.getCount(), Long::sum);
+        }
+        return new EventStatistics(userId, total, countsByType,
+                total > 0 ? EpochMicros.toLocalDateTime(firstTime) : null,
+                total > 0 ? EpochMicros.toLocalDateTime(lastTime) : null,
+                interval, eventsPerInterval);
+    }
+
+    private static List<EventCountRepository.Bucket> toBuckets(Iterable<Map.Entry<BucketKey, Counter>> entries) {
+        List<EventCountRepository.Bucket> buckets = new ArrayList<>();
+        for (Map.Entry<BucketKey, Counter> entry : entries) {
+            BucketKey key = entry.getKey();
+            Counter counter = entry.getValue();
+            buckets.add(new EventCountRepository.Bucket(key.userId, key.eventType, key.hour,
+                    counter.count.sum(), counter.firstTime.get(), counter.lastTime.get()));
+        }
+        return buckets;
+    }
+
+    // userId is null for the bucket counting all users
+    private static final class BucketKey {
+        private final UUID userId;
+        private final Event.EventType eventType;
+        private final long hour;
+
+        private BucketKey(UUID userId, Event.EventType eventType, long hour) {
+            this.userId = userId;
+            this.eventType = eventType;
+            this.hour = hour;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BucketKey bucketKey = (BucketKey) o;
+            return hour == bucketKey.hour &&
+                    Objects.equals(userId, bucketKey.userId) &&
+                    eventType == bucketKey.eventType;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, eventType, hour);
+        }
+    }
+
+    private static final class Counter {
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator firstTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator lastTime = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        void add(long timeMicros) {
+            count.increment();
+            firstTime.accumulate(timeMicros);
+            lastTime.accumulate(timeMicros);
+        }
+
+        // Combines the counts of a bucket that failed to flush into this one
+        Counter plus(Counter other) {
+            count.add(other.count.sum());
+            firstTime.accumulate(other.firstTime.get());
+            lastTime.accumulate(other.lastTime.get());
+            return this;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.fidectus.eventlog.services;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.LoggedEvent;
+import com.fidectus.eventlog.persistence.EventStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Drops Events whose content (eventType, userId and time) has already been logged under another eventId, as happens when
+ * producers retry. Enabled with eventlog.dedup.enabled=true.
+ *
+ * A Bloom filter over the eventHash of every stored Event answers "definitely new" for most Events without touching the
+ * store. Only on a possible match is the store searched for the original, which is then returned instead of logging again.
+ * The filter is sized for eventlog.dedup.expected-events at eventlog.dedup.false-positive-rate and is rebuilt from the
+ * store on startup. Past the expected number of Events the false positive rate climbs, costing more store lookups.
+ *
+ * Checking and logging are done under a lock striped by userId, so concurrent retries of one Event can't both get in.
+ * In write-behind mode an original still waiting in the queue is not found, so a retry arriving before it is written is logged.
+ */
+public class EventDeduplicator {
+    private static final Logger log = LoggerFactory.getLogger(EventDeduplicator.class);
+    private static final int LOCK_STRIPES = 1024;
+
+    private final EventStore eventStore;
+    private final EventLogMetrics metrics;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLongArray bits;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * @param expectedEvents Number of Events the filter is sized for
+     * @param falsePositiveRate Fraction of new Events that cost a store lookup once expectedEvents are stored
+     */
+    public EventDeduplicator(EventStore eventStore, EventLogMetrics metrics, long expectedEvents, double falsePositiveRate) {
+        if (expectedEvents < 1) {
+            throw new IllegalArgumentException("expectedEvents must be at least 1");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+        }
+        this.eventStore = eventStore;
+        this.metrics = metrics;
+        // Optimal Bloom filter size and number of hash functions for n elements at false positive rate p
+        double ln2 = Math.log(2);
+        this.bitCount = Math.max(64, (long) Math.ceil(-expectedEvents * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedEvents * ln2));
+        this.bits = new AtomicLongArray(Math.toIntExact((bitCount + 63) / 64));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        rebuild();
+    }
+
+    /**
+     * Logs event with logger, unless an Event with the same content is already stored.
+     *
+     * @return The stored original if event is a duplicate, otherwise what logger returned
+     */
+    public LoggedEvent logOnce(Event event, UnaryOperator<Event> logger) {
+        ReentrantLock lock = stripes[Math.floorMod(event.getUserId().hashCode(), LOCK_STRIPES)];
+        lock.lock();
+        try {
+            if (mightContain(event.getEventHash())) {
+                Event original = eventStore.findEventLike(event);
+                if (original != null) {
+                    log.debug("Event with ID: {} duplicates logged event with ID: {}", event.getEventId(), original.getEventId());
+                    metrics.eventDeduplicated();
+                    return LoggedEvent.duplicateOf(original);
+                }
+                metrics.dedupFalsePositive();
+            }
+            Event loggedEvent = logger.apply(event);
+            add(event);
+            return LoggedEvent.logged(loggedEvent);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a logged Event, for Events logged without logOnce.
+     */
+    public void add(Event event) {
+        addHash(event.getEventHash());
+    }
+
+    /**
+     * Clears the filter and adds every Event in the store again, e.g. after Events have been removed.
+     */
+    public void rebuild() {
+        long start = System.nanoTime();
+        for (int i = 0; i < bits.length(); i++) {
+            bits.set(i, 0);
+        }
+        long[] count = new long[1];
+        eventStore.forEachEventHash(hash -> {
+            addHash(hash);
+            count[0]++;
+        });
+        log.info("Built dedup filter of {} KiB with {} hashes from {} events in {} ms",
+                bits.length() / 128, hashCount, count[0], (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @return false if no Event with this eventHash has been added, true if one may have been
+     */
+    public boolean mightContain(int eventHash) {
+        long h1 = mix(eventHash);
+        long h2 = mix(h1);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addHash(int eventHash) {
+        long h1 = mix(eventHash);
+        long h2 = mix(h1);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            // Most bits of a repeated add are already set, skip the CAS for those
+            if ((bits.get(word) & mask) == 0) {
+                bits.accumulateAndGet(word, mask, (current, set) -> current | set);
+            }
+        }
+    }
+
+    // SplitMix64 finaliser, spreads the 32-bit eventHash over 64 bits for the double hashing above
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
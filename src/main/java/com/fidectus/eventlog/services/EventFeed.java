@@ -0,0 +1,282 @@
+package com.fidectus.eventlog.services;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.FeedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory fan-out of newly logged Events to change feed subscribers, so they don't have to poll the store.
+ *
+ * Each Event published after it is stored gets the next sequence number, and the last replaySize are kept so a
+ * subscriber that reconnects can resume after the last one it received. Sequences restart with the application, which
+ * the feedId in every id tells apart. A subscriber resuming from further back than the replay, or from another feedId,
+ * gets a GAP first and then everything that can be replayed.
+ *
+ * Each subscriber has a buffer of bufferSize messages, sent to it by a small pool of sender threads so a slow subscriber
+ * never holds up the writers. A subscriber whose buffer fills up is closed, and can reconnect to resume where it got to.
+ * The Events replayed to a resuming subscriber aren't buffered: its sender reads them from the replay one at a time,
+ * before the buffer, which only holds the Events published since it subscribed. If newer Events overwrite ones it hasn't
+ * been sent yet, it gets a GAP and carries on from the oldest left.
+ */
+public class EventFeed implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EventFeed.class);
+    // Keeps idle connections from being closed by proxies, and finds subscribers that have gone away
+    private static final long HEARTBEAT_SECONDS = 15;
+
+    private final long feedId = System.currentTimeMillis();
+    private final FeedEvent[] replay;
+    private final int bufferSize;
+    private final EventLogMetrics metrics;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService heartbeats;
+    private long lastSequence; // Guarded by this
+
+    public EventFeed(EventLogMetrics metrics, int replaySize, int bufferSize, int senderThreads) {
+        this.metrics = metrics;
+        this.replay = new FeedEvent[replaySize];
+        this.bufferSize = bufferSize;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "event-feed-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-feed-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Passes a stored Event to the subscribers it matches. Must be called once per Event, after it is stored.
+     */
+    public synchronized void publish(Event event) {
+        FeedEvent feedEvent = FeedEvent.event(feedId + "-" + ++lastSequence, event);
+        replay[(int) (lastSequence % replay.length)] = feedEvent;
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(feedEvent);
+        }
+    }
+
+    /**
+     * @param userId Only Events of this user, or null for all users
+     * @param eventType Only Events of this type, or null for all types
+     * @param lastEventId Id of the last message received before reconnecting, or null to only receive new Events
+     * @param subscriber Receives the messages, one at a time
+     */
+    public Subscription subscribe(UUID userId, Event.EventType eventType, String lastEventId, Subscriber subscriber) {
+        Subscription subscription = new Subscription(userId, eventType, subscriber);
+        synchronized (this) {
+            if (lastEventId != null) {
+                long oldestSequence = Math.max(1, lastSequence - replay.length + 1);
+                long resumeSequence = sequenceOf(lastEventId);
+                if (resumeSequence < oldestSequence - 1 || resumeSequence > lastSequence) {
+                    subscription.replayGap = FeedEvent.gap(lastEventId);
+                    resumeSequence = oldestSequence - 1;
+                }
+                subscription.replayNext = resumeSequence + 1;
+                subscription.replayLast = lastSequence;
+            }
+            subscriptions.add(subscription);
+        }
+        subscription.scheduleSend();
+        log.debug("Subscribed to event feed for userId: {} and eventType: {}, {} subscribers", userId, eventType, subscriptions.size());
+        return subscription;
+    }
+
+    /**
+     * @return Number of open subscriptions
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Closes every subscription and stops sending.
+     */
+    @Override
+    public void close() {
+        heartbeats.shutdown();
+        subscriptions.forEach(Subscription::end);
+        senders.shutdown();
+    }
+
+    // Sequence of an id from this feed, or -1 for an id from an earlier run or that isn't an id at all
+    private long sequenceOf(String id) {
+        String prefix = feedId + "-";
+        if (!id.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(id.substring(prefix.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private void heartbeat() {
+        for (Subscription subscription : subscriptions) {
+            subscription.offerHeartbeat();
+        }
+    }
+
+    /**
+     * Receiver of one subscription's messages. Messages are passed one at a time, in order, on a sender thread.
+     */
+    public interface Subscriber {
+        void send(FeedEvent feedEvent) throws IOException;
+
+        /**
+         * Called once when the subscription ends from the feed's side: the buffer filled up or the feed closed.
+         */
+        void close();
+    }
+
+    /**
+     * One subscriber's filter and buffer. cancel() it when the subscriber goes away.
+     */
+    public final class Subscription {
+        private final UUID userId;
+        private final Event.EventType eventType;
+        private final Subscriber subscriber;
+        private final BlockingQueue<FeedEvent> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicBoolean closeSent = new AtomicBoolean();
+        private volatile boolean cancelled;
+        // Still to be sent from the replay, before the buffer. Guarded by the feed
+        private FeedEvent replayGap;
+        private long replayNext = 1;
+        private long replayLast;
+
+        private Subscription(UUID userId, Event.EventType eventType, Subscriber subscriber) {
+            this.userId = userId;
+            this.eventType = eventType;
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Stops sending to the subscriber, without calling its close(). Messages still in the buffer are dropped.
+         */
+        public void cancel() {
+            closeSent.set(true);
+            end();
+        }
+
+        // Ends the subscription from the feed's side, the subscriber is closed once any send in progress is done
+        private void end() {
+            cancelled = true;
+            subscriptions.remove(this);
+            scheduleSend();
+        }
+
+        private void offer(FeedEvent feedEvent) {
+            if (matches(feedEvent)) {
+                enqueue(feedEvent);
+            }
+        }
+
+        private boolean matches(FeedEvent feedEvent) {
+            Event event = feedEvent.getEvent();
+            return (userId == null || userId.equals(event.getUserId()))
+                    && (eventType == null || eventType == event.getEventType());
+        }
+
+        // Next message of the replay, or null once it has all been sent
+        private FeedEvent nextReplayed() {
+            synchronized (EventFeed.this) {
+                if (replayGap != null) {
+                    FeedEvent gap = replayGap;
+                    replayGap = null;
+                    return gap;
+                }
+                while (replayNext <= replayLast) {
+                    long sequence = replayNext++;
+                    long oldestSequence = lastSequence - replay.length + 1;
+                    if (sequence < oldestSequence) {
+                        // Overwritten while this subscriber was behind, it resumes from the last one it was sent
+                        replayNext = oldestSequence;
+                        return FeedEvent.gap(feedId + "-" + (sequence - 1));
+                    }
+                    FeedEvent feedEvent = replay[(int) (sequence % replay.length)];
+                    if (matches(feedEvent)) {
+                        return feedEvent;
+                    }
+                }
+                return null;
+            }
+        }
+
+        private void offerHeartbeat() {
+            // Only needed when there is nothing else to send
+            if (buffer.isEmpty()) {
+                enqueue(FeedEvent.heartbeat());
+            }
+        }
+
+        private void enqueue(FeedEvent feedEvent) {
+            if (cancelled) {
+                return;
+            }
+            if (!buffer.offer(feedEvent)) {
+                log.info("Event feed subscriber fell {} messages behind, closing it", bufferSize);
+                metrics.feedSubscriberOverflow();
+                end();
+                return;
+            }
+            scheduleSend();
+        }
+
+        private void scheduleSend() {
+            if (sending.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::send);
+                } catch (RejectedExecutionException ex) {
+                    sending.set(false); // Feed is closed
+                }
+            }
+        }
+
+        // Runs on one sender thread at a time, until the buffer is empty
+        private void send() {
+            try {
+                FeedEvent feedEvent;
+                while (!cancelled && ((feedEvent = nextReplayed()) != null || (feedEvent = buffer.poll()) != null)) {
+                    subscriber.send(feedEvent);
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.debug("Event feed subscriber has gone away", ex);
+                closeSent.set(true);
+                cancelled = true;
+                subscriptions.remove(this);
+            } finally {
+                sending.set(false);
+            }
+            if (cancelled) {
+                buffer.clear();
+                if (closeSent.compareAndSet(false, true)) {
+                    subscriber.close();
+                }
+            } else if (!buffer.isEmpty()) {
+                scheduleSend();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.fidectus.eventlog.services;
+
+import com.fidectus.eventlog.dto.EventBatchResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Counters for Event outcomes. The metric names are relied on by dashboards and alerts, so don't rename them.
+ *
+ * eventlog.events.created   - Events written to the store
+ * eventlog.events.duplicate - Events rejected because their eventId was already logged or queued
+ * eventlog.events.not.found - Lookups by eventId that found nothing
+ * eventlog.events.deduplicated - Events not logged because one with the same content was, see EventDeduplicator
+ * eventlog.dedup.false.positives - Possible duplicates that the store had no original for
+ * eventlog.feed.overflows - Change feed subscribers closed because they fell too far behind, see EventFeed
+ */
+public class EventLogMetrics {
+    private final Counter created;
+    private final Counter duplicate;
+    private final Counter notFound;
+    private final Counter deduplicated;
+    private final Counter dedupFalsePositives;
+    private final Counter feedOverflows;
+    private final Counter deadLetters;
+
+    public EventLogMetrics(MeterRegistry registry) {
+        created = Counter.builder("eventlog.events.created")
+                .description("Events written to the store")
+                .register(registry);
+        duplicate = Counter.builder("eventlog.events.duplicate")
+                .description("Events rejected because their eventId was already logged")
+                .register(registry);
+        notFound = Counter.builder("eventlog.events.not.found")
+                .description("Lookups by eventId that found no Event")
+                .register(registry);
+        deduplicated = Counter.builder("eventlog.events.deduplicated")
+                .description("Events not logged because an Event with the same content already was")
+                .register(registry);
+        dedupFalsePositives = Counter.builder("eventlog.dedup.false.positives")
+                .description("Events the dedup filter matched that had no original in the store")
+                .register(registry);
+        feedOverflows = Counter.builder("eventlog.feed.overflows")
+                .description("Change feed subscribers closed because their buffer filled up")
+                .register(registry);
+        deadLetters = Counter.builder("eventlog.ingest.dead.letters")
+                .description("Queued Events added to the dead letter file after their writes kept failing")
+                .register(registry);
+    }
+
+    public void eventCreated() {
+        created.increment();
+    }
+
+    public void eventDuplicate() {
+        duplicate.increment();
+    }
+
+    public void eventNotFound() {
+        notFound.increment();
+    }
+
+    public void eventsNotFound(int count) {
+        notFound.increment(count);
+    }
+
+    public void eventDeduplicated() {
+        deduplicated.increment();
+    }
+
+    public void dedupFalsePositive() {
+        dedupFalsePositives.increment();
+    }
+
+    public void feedSubscriberOverflow() {
+        feedOverflows.increment();
+    }
+
+    public void eventsDeadLettered(int count) {
+        deadLetters.increment(count);
+    }
+
+    /**
+     * Counts the CREATED and DUPLICATE results of a batch write. INVALID results never reached the store.
+     */
+    public void eventsWritten(Iterable<EventBatchResult> results) {
+        for (EventBatchResult result : results) {
+            if (result.getStatus() == EventBatchResult.Status.CREATED) {
+                created.increment();
+            } else if (result.getStatus() == EventBatchResult.Status.DUPLICATE) {
+                duplicate.increment();
+            }
+        }
+    }
+}
@@ -1,33 +1,543 @@
 package com.fidectus.eventlog.services;
 
+import com.fidectus.eventlog.dto.ChainVerification;
+import com.fidectus.eventlog.dto.EpochMicros;
 import com.fidectus.eventlog.dto.Event;
-import com.fidectus.eventlog.persistence.EventRepositoryDao;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.dto.EventField;
+import com.fidectus.eventlog.dto.EventMultiGetResult;
+import com.fidectus.eventlog.dto.EventPage;
+import com.fidectus.eventlog.dto.EventProjection;
+import com.fidectus.eventlog.dto.EventStatistics;
+import com.fidectus.eventlog.dto.Hex;
+import com.fidectus.eventlog.dto.LoggedEvent;
+import com.fidectus.eventlog.persistence.EventHashChain;
+import com.fidectus.eventlog.persistence.EventStore;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Middle-layer class between Controller and Persistence layers.
  * Additional logic can be added here if the Events from the DB/Controller need something done with them.
  */
 public class EventLogService {
-    private static final Log log = LogFactory.getLog(EventLogService.class);
+    private static final Logger log = LoggerFactory.getLogger(EventLogService.class);
+    private static final String INVALID_TIME = "Invalid Date-Time format submitted. Please use 2000-01-01T12:00 instead.";
 
     @Autowired
-    private EventRepositoryDao eventRepositoryDao;
+    private EventStore eventStore;
 
-    public List<Event> getEventsForUser(UUID userId) {
-        return eventRepositoryDao.getEventsForUserId(userId);
+    @Autowired
+    private EventLogMetrics metrics;
+
+    @Autowired
+    private EventCounters counters;
+
+    @Autowired
+    private EventFeed feed;
+
+    // Only present when eventlog.ingest.mode=write-behind
+    @Autowired(required = false)
+    private EventWriteBehindQueue writeBehindQueue;
+
+    // Only present when eventlog.dedup.enabled=true
+    @Autowired(required = false)
+    private EventDeduplicator deduplicator;
+
+    @Value("${eventlog.batch.size:500}")
+    private int batchSize;
+
+    @Value("${eventlog.mget.max-ids:10000}")
+    private int maxMultiGetIds;
+
+    @Value("${eventlog.page.default-limit:100}")
+    private int defaultPageLimit;
+
+    @Value("${eventlog.page.max-limit:1000}")
+    private int maxPageLimit;
+
+    /**
+     * @param limit Page size, or null for eventlog.page.default-limit
+     * @param after eventId of the last event on the previous page, or null for the first page
+     * @param from Inclusive lower bound on event time, or null for no bound
+     * @param to Exclusive upper bound on event time, or null for no bound
+     * @param eventType Only events of this type, or null for all types
+     */
+    @Timed("eventlog.service")
+    public EventPage<Event> getEventsForUser(UUID userId, Integer limit, UUID after, LocalDateTime from, LocalDateTime to,
+                                             Event.EventType eventType) {
+        int pageLimit = pageLimit(limit);
+        checkTimeBounds(from, to);
+        Event afterEvent = userCursor(userId, after);
+
+        // Fetch one extra event to know if there is a next page without another query
+        return toPage(eventStore.getEventsForUserId(userId, from, to, eventType, afterEvent, pageLimit + 1), pageLimit,
+                Event::getEventId);
+    }
+
+    /**
+     * The same page as getEventsForUser, with only the given fields of each event, so only they are read and serialised.
+     *
+     * @param fields JSON names of the fields wanted, see EventField
+     */
+    @Timed("eventlog.service")
+    public EventPage<EventProjection> getEventFieldsForUser(UUID userId, List<String> fields, Integer limit, UUID after,
+                                                            LocalDateTime from, LocalDateTime to, Event.EventType eventType) {
+        Set<EventField> eventFields = eventFields(fields);
+        int pageLimit = pageLimit(limit);
+        checkTimeBounds(from, to);
+        Event afterEvent = userCursor(userId, after);
+
+        return toPage(eventStore.getEventFieldsForUserId(userId, from, to, eventType, afterEvent, pageLimit + 1, eventFields),
+                pageLimit, EventProjection::getEventId);
+    }
+
+    // Ordered as EventField declares them, whatever order they were asked for in
+    private static Set<EventField> eventFields(List<String> fields) {
+        Set<EventField> eventFields = EnumSet.noneOf(EventField.class);
+        for (String name : fields) {
+            EventField field = EventField.of(name);
+            if (field == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "fields must be some of " + Arrays.stream(EventField.values()).map(EventField::getName).collect(Collectors.joining(", ")));
+            }
+            eventFields.add(field);
+        }
+        if (eventFields.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fields must not be empty");
+        }
+        return eventFields;
+    }
+
+    private Event userCursor(UUID userId, UUID after) {
+        if (after == null) {
+            return null;
+        }
+        Event afterEvent = eventStore.getEvent(after);
+        if (afterEvent == null || !afterEvent.getUserId().equals(userId)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after must be an eventId for this user");
+        }
+        return afterEvent;
+    }
+
+    /**
+     * Pages through the events of all users in a time range, reading only the events in the range.
+     *
+     * @param from Inclusive lower bound on event time
+     * @param to Exclusive upper bound on event time
+     * @param eventType Only events of this type, or null for all types
+     * @param limit Page size, or null for eventlog.page.default-limit
+     * @param after eventId of the last event on the previous page, or null for the first page
+     */
+    @Timed("eventlog.service")
+    public EventPage<Event> getEventsByTime(LocalDateTime from, LocalDateTime to, Event.EventType eventType, Integer limit, UUID after) {
+        int pageLimit = pageLimit(limit);
+        checkTimeBounds(from, to);
+        if (!from.isBefore(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+
+        Event afterEvent = null;
+        if (after != null) {
+            afterEvent = eventStore.getEvent(after);
+            if (afterEvent == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after must be an eventId of a logged event");
+            }
+        }
+        return toPage(eventStore.getEventsByTime(from, to, eventType, afterEvent, pageLimit + 1), pageLimit, Event::getEventId);
+    }
+
+    private int pageLimit(Integer limit) {
+        int pageLimit = limit != null ? limit : defaultPageLimit;
+        if (pageLimit < 1 || pageLimit > maxPageLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + maxPageLimit);
+        }
+        return pageLimit;
+    }
+
+    // Either bound may be null. The stores compare times as epoch microseconds, which can't hold every LocalDateTime.
+    private static void checkTimeBounds(LocalDateTime from, LocalDateTime to) {
+        if ((from != null && !EpochMicros.isRepresentable(from)) || (to != null && !EpochMicros.isRepresentable(to))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_TIME);
+        }
+    }
+
+    // events holds up to pageLimit + 1 events, the extra one only says there is a next page
+    private static <T> EventPage<T> toPage(List<T> events, int pageLimit, Function<T, UUID> eventId) {
+        if (events.size() <= pageLimit) {
+            return new EventPage<>(events, null);
+        }
+        List<T> page = events.subList(0, pageLimit);
+        return new EventPage<>(page, eventId.apply(page.get(pageLimit - 1)));
+    }
+
+    /**
+     * Passes all of the user's events to action, in time order, without holding them all in memory.
+     */
+    @Timed("eventlog.service")
+    public void streamEventsForUser(UUID userId, Consumer<Event> action) {
+        eventStore.streamEventsForUserId(userId, action);
+    }
+
+    /**
+     * Hashes the user's chain again from a checkpoint, a link the caller already trusts such as the result of an earlier
+     * verification, so only the Events stored since are read. With no checkpoint the whole chain is verified, from the
+     * store's chain base if its oldest Events have been dropped.
+     *
+     * @param sequence Chain sequence of the checkpoint, or null to start from the beginning
+     * @param hash Chain hash of the checkpoint in hex, given if and only if sequence is
+     */
+    @Timed("eventlog.service")
+    public ChainVerification verifyChain(UUID userId, Long sequence, String hash) {
+        if ((sequence == null) != (hash == null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sequence and hash must be given together");
+        }
+        if (sequence != null && sequence < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sequence must not be negative");
+        }
+        byte[] checkpointHash = EventHashChain.genesisHash();
+        if (hash != null) {
+            try {
+                checkpointHash = Hex.decode(hash);
+            } catch (IllegalArgumentException ex) {
+                checkpointHash = null;
+            }
+            if (checkpointHash == null || checkpointHash.length != EventHashChain.HASH_SIZE) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "hash must be " + EventHashChain.HASH_SIZE * 2 + " hex digits");
+            }
+        }
+
+        // Events dropped by retention can't be read again, so the chain is verified from the last of them instead of the
+        // beginning, as it was when they were dropped
+        Event base = eventStore.getChainBase(userId);
+        ChainVerifier verifier;
+        if (base != null && (sequence == null
+                || (sequence == base.getChainSequence() && Arrays.equals(checkpointHash, base.getChainHash())))) {
+            verifier = new ChainVerifier(base.getChainSequence(), base.getChainHash(), true);
+            eventStore.streamChainForUserId(userId, base.getChainSequence(), verifier);
+        } else {
+            verifier = new ChainVerifier(sequence != null ? sequence : 0, checkpointHash, false);
+            // Read from the checkpoint itself, to check it is still in the chain
+            eventStore.streamChainForUserId(userId, Math.max(0, verifier.checkpointSequence - 1), verifier);
+        }
+        return verifier.result(userId);
+    }
+
+    /**
+     * @param userId User whose Events are counted, or null for all users
+     * @return Counts of the Events logged, from counters kept up to date on write rather than by reading the Events
+     */
+    @Timed("eventlog.service")
+    public EventStatistics getStatistics(UUID userId, EventStatistics.Interval interval) {
+        return userId != null ? counters.getStatisticsForUser(userId, interval) : counters.getStatistics(interval);
+    }
+
+    /**
+     * Subscribes to the Events logged from now on, or since lastEventId, see EventFeed.
+     *
+     * @param userId Only Events of this user, or null for all users
+     * @param eventType Only Events of this type, or null for all types
+     * @param lastEventId Id of the last feed message received, or null
+     */
+    public EventFeed.Subscription subscribeToFeed(UUID userId, Event.EventType eventType, String lastEventId,
+                                                  EventFeed.Subscriber subscriber) {
+        return feed.subscribe(userId, eventType, lastEventId, subscriber);
     }
 
+    @Timed("eventlog.service")
     public Event getEventById(UUID eventId) {
-        return eventRepositoryDao.getEvent(eventId);
+        if (writeBehindQueue != null && eventId != null) {
+            Event pendingEvent = writeBehindQueue.getPendingEvent(eventId);
+            if (pendingEvent != null) {
+                return pendingEvent;
+            }
+        }
+        Event event = eventStore.getEvent(eventId);
+        if (event == null) {
+            metrics.eventNotFound();
+        }
+        return event;
+    }
+
+    /**
+     * Looks up many events by eventId, reading them from the store in chunks of eventlog.batch.size rather than one at a time.
+     * An eventId asked for more than once is looked up and returned once.
+     */
+    @Timed("eventlog.service")
+    public EventMultiGetResult getEventsByIds(List<UUID> eventIds) {
+        if (eventIds == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "eventIds must be given");
+        }
+        if (eventIds.size() > maxMultiGetIds) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxMultiGetIds + " eventIds can be looked up at once");
+        }
+        Set<UUID> uniqueIds = new LinkedHashSet<>(eventIds.size());
+        for (UUID eventId : eventIds) {
+            if (eventId == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "eventIds must not be null");
+            }
+            uniqueIds.add(eventId);
+        }
+
+        Map<UUID, Event> found = new HashMap<>();
+        List<UUID> chunk = new ArrayList<>(Math.min(batchSize, uniqueIds.size()));
+        for (UUID eventId : uniqueIds) {
+            Event pendingEvent = writeBehindQueue != null ? writeBehindQueue.getPendingEvent(eventId) : null;
+            if (pendingEvent != null) {
+                found.put(eventId, pendingEvent);
+                continue;
+            }
+            chunk.add(eventId);
+            if (chunk.size() == batchSize) {
+                found.putAll(eventStore.getEvents(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            found.putAll(eventStore.getEvents(chunk));
+        }
+
+        List<Event> events = new ArrayList<>(found.size());
+        List<UUID> notFound = new ArrayList<>();
+        for (UUID eventId : uniqueIds) {
+            Event event = found.get(eventId);
+            if (event != null) {
+                events.add(event);
+            } else {
+                notFound.add(eventId);
+            }
+        }
+        if (!notFound.isEmpty()) {
+            metrics.eventsNotFound(notFound.size());
+        }
+        return new EventMultiGetResult(events, notFound);
+    }
+
+    /**
+     * Logs the event, either straight to the DB or to the write-behind queue if isWriteBehind().
+     * Queued events are written to the DB shortly afterwards.
+     *
+     * @return The logged event, or when deduplicating, the already logged Event with the same content if there is one
+     */
+    @Timed("eventlog.service")
+    public LoggedEvent logEvent(Event event) {
+        String error = validate(event);
+        if (error != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, error);
+        }
+        if (deduplicator != null) {
+            return deduplicator.logOnce(event, this::logValidEvent);
+        }
+        return LoggedEvent.logged(logValidEvent(event));
+    }
+
+    private Event logValidEvent(Event event) {
+        if (writeBehindQueue == null) {
+            Event loggedEvent;
+            try {
+                loggedEvent = eventStore.addEvent(event);
+            } catch (ResponseStatusException ex) {
+                if (ex.getStatus() == HttpStatus.CONFLICT) {
+                    metrics.eventDuplicate();
+                }
+                throw ex;
+            }
+            metrics.eventCreated();
+            counters.record(event);
+            feed.publish(loggedEvent);
+            return loggedEvent;
+        }
+
+        boolean accepted;
+        try {
+            accepted = writeBehindQueue.offer(event);
+        } catch (IllegalStateException ex) {
+            metrics.eventDuplicate();
+            throw new ResponseStatusException(HttpStatus.CONFLICT);
+        }
+        if (!accepted) {
+            log.warn("Write-behind queue is full, rejecting event with ID: {}", event.getEventId());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return event;
+    }
+
+    /**
+     * @return true if logEvent queues events to be written to the DB later, rather than writing them before returning
+     */
+    public boolean isWriteBehind() {
+        return writeBehindQueue != null;
     }
 
-    public Event logEvent(Event event) {
-        return eventRepositoryDao.addEvent(event);
+    /**
+     * Logs a batch of events, writing them to the DB in chunks of eventlog.batch.size.
+     * Each chunk is written in its own transaction, so an invalid or duplicate event only affects itself.
+     *
+     * @return Result for each event, in the same order as the events passed in
+     */
+    @Timed("eventlog.service")
+    public List<EventBatchResult> logEvents(List<Event> events) {
+        List<EventBatchResult> results = new ArrayList<>(events.size());
+        List<Event> chunk = new ArrayList<>(Math.min(batchSize, events.size()));
+        List<Integer> chunkPositions = new ArrayList<>(Math.min(batchSize, events.size()));
+
+        for (Event event : events) {
+            String error = validate(event);
+            if (error != null) {
+                results.add(EventBatchResult.invalid(event.getEventId(), error));
+                continue;
+            }
+            chunk.add(event);
+            chunkPositions.add(results.size());
+            results.add(null); // Filled in once the chunk is written
+            if (chunk.size() == batchSize) {
+                writeChunk(chunk, chunkPositions, results);
+            }
+        }
+        writeChunk(chunk, chunkPositions, results);
+        return results;
+    }
+
+    private void writeChunk(List<Event> chunk, List<Integer> chunkPositions, List<EventBatchResult> results) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<EventBatchResult> chunkResults;
+        if (writeBehindQueue == null) {
+            chunkResults = eventStore.addEvents(chunk);
+        } else {
+            // Events still queued are duplicates, and the queue refuses the chunk's eventIds until it is written
+            List<Event> reserved = writeBehindQueue.reserve(chunk);
+            List<EventBatchResult> reservedResults;
+            try {
+                reservedResults = reserved.isEmpty() ? List.of() : eventStore.addEvents(reserved);
+            } finally {
+                writeBehindQueue.release(reserved);
+            }
+            chunkResults = new ArrayList<>(chunk.size());
+            int next = 0;
+            for (Event event : chunk) {
+                if (next < reserved.size() && reserved.get(next) == event) {
+                    chunkResults.add(reservedResults.get(next++));
+                } else {
+                    chunkResults.add(EventBatchResult.duplicate(event.getEventId()));
+                }
+            }
+        }
+        metrics.eventsWritten(chunkResults);
+        for (int i = 0; i < chunkResults.size(); i++) {
+            results.set(chunkPositions.get(i), chunkResults.get(i));
+            if (chunkResults.get(i).getStatus() != EventBatchResult.Status.CREATED) {
+                continue;
+            }
+            counters.record(chunk.get(i));
+            feed.publish(chunk.get(i));
+            // Batches aren't deduplicated, but later single Events are checked against them
+            if (deduplicator != null) {
+                deduplicator.add(chunk.get(i));
+            }
+        }
+        chunk.clear();
+        chunkPositions.clear();
+    }
+
+    // Jackson enforces that all fields are present, but they can still be explicitly null
+    private static String validate(Event event) {
+        if (event.getEventId() == null) {
+            return "Missing JSON field: eventId";
+        } else if (event.getEventType() == null) {
+            return "Missing JSON field: eventType";
+        } else if (event.getUserId() == null) {
+            return "Missing JSON field: userId";
+        } else if (event.getTime() == null) {
+            return "Missing JSON field: time";
+        } else if (!EpochMicros.isRepresentable(event.getTime())) {
+            // Jackson parses years far beyond what the store and hash chain can hold
+            return INVALID_TIME;
+        }
+        return null;
+    }
+
+    // Follows a chain in sequence order from a checkpoint, stopping at the first link that doesn't match
+    private static final class ChainVerifier implements Consumer<Event> {
+        private final long checkpointSequence;
+        private final byte[] checkpointHash;
+        private boolean checkpointFound;
+        private long sequence;
+        private byte[] hash;
+        private long verifiedEvents;
+        private UUID brokenEventId;
+        private String error;
+
+        /**
+         * @param stored false if the checkpoint is the caller's, and must be found in the chain, true if it comes from
+         * the store and isn't read again
+         */
+        ChainVerifier(long checkpointSequence, byte[] checkpointHash, boolean stored) {
+            this.checkpointSequence = checkpointSequence;
+            this.checkpointHash = checkpointHash;
+            this.sequence = checkpointSequence;
+            this.hash = checkpointHash;
+            this.checkpointFound = stored
+                    || (checkpointSequence == 0 && Arrays.equals(checkpointHash, EventHashChain.genesisHash()));
+        }
+
+        @Override
+        public void accept(Event event) {
+            if (error != null) {
+                return;
+            }
+            if (!checkpointFound) {
+                if (event.getChainSequence() != checkpointSequence || !Arrays.equals(event.getChainHash(), checkpointHash)) {
+                    broken(event, "Checkpoint is not in the chain");
+                }
+                checkpointFound = true;
+                return;
+            }
+            if (event.getChainSequence() != sequence + 1) {
+                broken(event, "Expected sequence " + (sequence + 1) + " but found " + event.getChainSequence());
+                return;
+            }
+            byte[] expectedHash = EventHashChain.hash(hash, event);
+            if (!Arrays.equals(expectedHash, event.getChainHash())) {
+                broken(event, "Hash does not match at sequence " + event.getChainSequence());
+                return;
+            }
+            sequence = event.getChainSequence();
+            hash = expectedHash;
+            verifiedEvents++;
+        }
+
+        ChainVerification result(UUID userId) {
+            if (!checkpointFound && error == null) {
+                error = "Checkpoint is not in the chain";
+            }
+            return new ChainVerification(userId, error == null, checkpointSequence, verifiedEvents, sequence, hash,
+                    brokenEventId, error);
+        }
+
+        private void broken(Event event, String reason) {
+            brokenEventId = event.getEventId();
+            error = reason;
+        }
     }
 }
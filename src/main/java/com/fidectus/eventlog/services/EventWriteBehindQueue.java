@@ -0,0 +1,283 @@
+package com.fidectus.eventlog.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.persistence.EventStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bounded in-memory queue of Events waiting to be written to the DB.
+ *
+ * Writer threads take Events off the queue and group commit them with EventStore.addEvents,
+ * flushing once batchSize Events are waiting or flushInterval after the first Event of a batch arrived.
+ * Events are readable by eventId from the moment they are queued until they are in the DB (and the Event cache).
+ * Batches from POST /api/v1/events are written straight to the DB, but reserve their eventIds here while they are, so
+ * an eventId is never both queued and in a batch being written.
+ * A batch that still fails after maxAttempts writes is appended to deadLetterFile as NDJSON, which
+ * POST /api/v1/events takes as it is, so the Events aren't lost if the DB is down for longer. A batch that fails
+ * because of one of its Events is written one Event at a time instead, so only that Event is dead lettered.
+ * close() stops accepting Events and waits for the writers to flush everything already accepted.
+ */
+public class EventWriteBehindQueue implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EventWriteBehindQueue.class);
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private final EventStore eventStore;
+    private final EventLogMetrics metrics;
+    private final EventCounters counters;
+    private final EventFeed feed;
+    private final BlockingQueue<Event> queue;
+    private final ConcurrentHashMap<UUID, Event> pendingEvents = new ConcurrentHashMap<>();
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int maxAttempts;
+    private final Path deadLetterFile;
+    private final ObjectWriter deadLetterWriter;
+    private final List<Thread> writers;
+    // Held to accept an Event, so close() can't stop the writers between an offer's check of running and its enqueue
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    public EventWriteBehindQueue(EventStore eventStore, EventLogMetrics metrics, EventCounters counters, EventFeed feed,
+                                 ObjectMapper objectMapper, int capacity, int batchSize, Duration flushInterval,
+                                 int writerThreads, int maxAttempts, Path deadLetterFile) {
+        this.eventStore = eventStore;
+        this.metrics = metrics;
+        this.counters = counters;
+        this.feed = feed;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.maxAttempts = maxAttempts;
+        this.deadLetterFile = deadLetterFile;
+        this.deadLetterWriter = objectMapper.writerFor(Event.class);
+        this.writers = new ArrayList<>(writerThreads);
+        for (int i = 0; i < writerThreads; i++) {
+            Thread writer = new Thread(this::runWriter, "event-writer-" + i);
+            writers.add(writer);
+            writer.start();
+        }
+    }
+
+    /**
+     * @return false if the queue is full or closed, in which case the Event is not accepted
+     * @throws IllegalStateException if an Event with the same eventId is already queued
+     */
+    public boolean offer(Event event) {
+        Lock lock = acceptLock.readLock();
+        lock.lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            if (pendingEvents.putIfAbsent(event.getEventId(), event) != null) {
+                throw new IllegalStateException("Event already queued with ID: " + event.getEventId());
+            }
+            if (!queue.offer(event)) {
+                pendingEvents.remove(event.getEventId());
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Event that has been accepted but not yet written to the DB, or null if there is none with eventId
+     */
+    public Event getPendingEvent(UUID eventId) {
+        return pendingEvents.get(eventId);
+    }
+
+    /**
+     * Marks events as pending while the caller writes them to the DB itself, so that Events with the same eventIds
+     * aren't accepted meanwhile. Events whose eventId is already queued or reserved, including earlier in events,
+     * are left out.
+     *
+     * @return The events reserved, in order, to be released once written
+     */
+    public List<Event> reserve(List<Event> events) {
+        List<Event> reserved = new ArrayList<>(events.size());
+        for (Event event : events) {
+            if (pendingEvents.putIfAbsent(event.getEventId(), event) == null) {
+                reserved.add(event);
+            }
+        }
+        return reserved;
+    }
+
+    public void release(List<Event> reserved) {
+        for (Event event : reserved) {
+            pendingEvents.remove(event.getEventId(), event);
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        // Waits for offers in progress, so every Event accepted is on the queue before the writers stop
+        Lock lock = acceptLock.writeLock();
+        lock.lock();
+        try {
+            running = false;
+        } finally {
+            lock.unlock();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        // Left by a writer that was interrupted
+        List<Event> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            write(remaining);
+        }
+        log.info("Event write-behind queue drained");
+    }
+
+    private void runWriter() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                fillBatch(batch);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException ex) {
+                // The interrupt is cleared while the Events already taken off the queue are written, so the DB calls work
+                log.error("Event writer interrupted, writing its {} events and leaving {} queued", batch.size(), queue.size());
+                write(batch);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Waits for the first Event, then for batchSize Events or until flushInterval has passed since the first arrived
+    private void fillBatch(List<Event> batch) throws InterruptedException {
+        Event first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                return;
+            }
+            Event next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    // A batch that fails for a reason other than the store being unavailable has an Event in it that can't be
+    // written, so its Events are written one at a time, and only the ones that still fail are dead lettered.
+    private void write(List<Event> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            writeRetrying(batch);
+        } catch (RuntimeException ex) {
+            if (batch.size() == 1) {
+                log.error("Failed to write queued event, adding it to {}", deadLetterFile, ex);
+                deadLetter(batch);
+            } else {
+                log.error("Failed to write {} queued events, writing them one at a time", batch.size(), ex);
+                for (Event event : batch) {
+                    write(List.of(event));
+                }
+            }
+        }
+        for (Event event : batch) {
+            pendingEvents.remove(event.getEventId());
+        }
+    }
+
+    // Retries up to maxAttempts times, so accepted Events are not lost while the DB is unavailable for a while.
+    // The queue filling up in the meantime pushes back on callers. Interrupted, it gives up straight away.
+    // The stores report being unavailable as a ResponseStatusException, anything else is thrown without retrying.
+    private void writeRetrying(List<Event> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                List<EventBatchResult> results = eventStore.addEvents(batch);
+                metrics.eventsWritten(results);
+                for (int i = 0; i < results.size(); i++) {
+                    if (results.get(i).getStatus() == EventBatchResult.Status.CREATED) {
+                        counters.record(batch.get(i));
+                        feed.publish(batch.get(i));
+                    } else {
+                        log.warn("Queued event not written: {}", results.get(i));
+                    }
+                }
+                return;
+            } catch (ResponseStatusException ex) {
+                if (attempt >= maxAttempts) {
+                    log.error("Failed to write {} queued events {} times, adding them to {}", batch.size(), attempt, deadLetterFile, ex);
+                    deadLetter(batch);
+                    return;
+                }
+                log.error("Failed to write {} queued events, retrying", batch.size(), ex);
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MILLIS);
+                } catch (InterruptedException interruptedEx) {
+                    Thread.currentThread().interrupt();
+                    log.error("Event writer interrupted, adding {} queued events to {}", batch.size(), deadLetterFile);
+                    deadLetter(batch);
+                    return;
+                }
+            }
+        }
+    }
+
+    // One Event per line, appended by one writer at a time
+    private synchronized void deadLetter(List<Event> batch) {
+        metrics.eventsDeadLettered(batch.size());
+        try {
+            if (deadLetterFile.getParent() != null) {
+                Files.createDirectories(deadLetterFile.getParent());
+            }
+            try (Writer writer = Files.newBufferedWriter(deadLetterFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Event event : batch) {
+                    writer.write(deadLetterWriter.writeValueAsString(event));
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException ex) {
+            log.error("Failed to add {} queued events to {}, they are lost: {}", batch.size(), deadLetterFile, batch, ex);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+-- Events, with the column types Event declares: UUIDs as BINARY(16), time as BIGINT epoch micros and eventType as a
+-- TINYINT ordinal, so the (user_id, time) index stays small
+create table event (
+    event_id BINARY(16) not null,
+    user_id BINARY(16) not null,
+    event_type TINYINT not null,
+    time BIGINT not null,
+    event_hash INTEGER not null,
+    chain_sequence BIGINT not null,
+    chain_hash BINARY(32) not null,
+    primary key (event_id)
+);
+create index idx_event_user_id_time on event (user_id, time);
+create index idx_event_user_id_chain_sequence on event (user_id, chain_sequence);
+create index idx_event_time on event (time, event_id);
+
+-- Event counts behind the stats endpoints, see EventCountRepository
+create table user_event_counts (
+    user_id BINARY(16) not null,
+    event_type TINYINT not null,
+    bucket_hour BIGINT not null,
+    event_count BIGINT not null,
+    first_time BIGINT not null,
+    last_time BIGINT not null,
+    primary key (user_id, event_type, bucket_hour)
+);
+create table global_event_counts (
+    event_type TINYINT not null,
+    bucket_hour BIGINT not null,
+    event_count BIGINT not null,
+    first_time BIGINT not null,
+    last_time BIGINT not null,
+    primary key (event_type, bucket_hour)
+);
@@ -0,0 +1,7 @@
+-- The user each eventId was logged for. Only used with sharding, on the first shard: each shard's event table keys
+-- only its own Events, so this table's primary key is what keeps an eventId from being logged on two shards
+create table event_owner (
+    event_id BINARY(16) not null,
+    user_id BINARY(16) not null,
+    primary key (event_id)
+);
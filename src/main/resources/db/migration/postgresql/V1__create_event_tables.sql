@@ -0,0 +1,34 @@
+-- The same tables as db/migration/h2, in the nearest PostgreSQL types: BYTEA for the BINARY UUIDs and hashes (16 and 32
+-- bytes, plus a 1 byte header) and SMALLINT for eventType, as there is no TINYINT
+create table event (
+    event_id BYTEA not null,
+    user_id BYTEA not null,
+    event_type SMALLINT not null,
+    time BIGINT not null,
+    event_hash INTEGER not null,
+    chain_sequence BIGINT not null,
+    chain_hash BYTEA not null,
+    primary key (event_id)
+);
+create index idx_event_user_id_time on event (user_id, time);
+create index idx_event_user_id_chain_sequence on event (user_id, chain_sequence);
+create index idx_event_time on event (time, event_id);
+
+-- Event counts behind the stats endpoints, see EventCountRepository
+create table user_event_counts (
+    user_id BYTEA not null,
+    event_type SMALLINT not null,
+    bucket_hour BIGINT not null,
+    event_count BIGINT not null,
+    first_time BIGINT not null,
+    last_time BIGINT not null,
+    primary key (user_id, event_type, bucket_hour)
+);
+create table global_event_counts (
+    event_type SMALLINT not null,
+    bucket_hour BIGINT not null,
+    event_count BIGINT not null,
+    first_time BIGINT not null,
+    last_time BIGINT not null,
+    primary key (event_type, bucket_hour)
+);
@@ -0,0 +1,6 @@
+-- The same table as db/migration/h2, with BYTEA for the BINARY UUIDs
+create table event_owner (
+    event_id BYTEA not null,
+    user_id BYTEA not null,
+    primary key (event_id)
+);
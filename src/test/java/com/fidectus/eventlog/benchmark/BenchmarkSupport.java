@@ -0,0 +1,64 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fidectus.eventlog.Application;
+import com.fidectus.eventlog.dto.Event;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Shared setup for benchmarks: starting the application and generating Events
+ */
+final class BenchmarkSupport {
+    private static final Event.EventType[] EVENT_TYPES = Event.EventType.values();
+    private static final LocalDateTime START_TIME = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    private BenchmarkSupport() { }
+
+    /**
+     * Starts the application against the in-memory H2 database, with application logging at WARN so it doesn't
+     * dominate the measurements. SERVLET contexts don't open a port, they are meant for MockMvc.
+     * @param properties Extra properties in key=value form, overriding application.properties
+     */
+    static ConfigurableApplicationContext startApplication(WebApplicationType webApplicationType, String... properties) {
+        return startApplication(List.of(), webApplicationType, properties);
+    }
+
+    /**
+     * @param extraSources Configuration classes or beans to start along with the application
+     */
+    static ConfigurableApplicationContext startApplication(List<Class<?>> extraSources, WebApplicationType webApplicationType,
+                                                           String... properties) {
+        return new SpringApplicationBuilder(Application.class)
+                .sources(extraSources.toArray(new Class<?>[0]))
+                .web(webApplicationType)
+                .properties("logging.level.com.fidectus.eventlog=WARN", "server.port=-1")
+                .properties(properties)
+                .run();
+    }
+
+    static List<UUID> randomUserIds(int count) {
+        List<UUID> userIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            userIds.add(UUID.randomUUID());
+        }
+        return userIds;
+    }
+
+    /**
+     * @return Event for a random one of userIds, at a random time in 2020
+     */
+    static Event randomEvent(List<UUID> userIds) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new Event(UUID.randomUUID(),
+                EVENT_TYPES[random.nextInt(EVENT_TYPES.length)],
+                userIds.get(random.nextInt(userIds.size())),
+                START_TIME.plusSeconds(random.nextInt(366 * 24 * 3600)));
+    }
+}
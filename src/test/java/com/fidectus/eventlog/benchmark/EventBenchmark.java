@@ -0,0 +1,66 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fidectus.eventlog.dto.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-Event CPU costs: Jackson serialisation and deserialisation, and computing the eventHash
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EventBenchmark {
+    private ObjectMapper objectMapper;
+    private Event event;
+    private byte[] eventJson;
+    private LocalDateTime[] times;
+    private int nextTime;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // Configured as Spring Boot configures the application's ObjectMapper
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        event = new Event(UUID.randomUUID(), Event.EventType.USER_UPDATED_REGISTRATION_INFO, UUID.randomUUID(),
+                LocalDateTime.of(2020, 1, 1, 12, 0));
+        eventJson = objectMapper.writeValueAsBytes(event);
+        // Alternate between times so the hash input changes on every call
+        times = new LocalDateTime[]{LocalDateTime.of(2020, 1, 1, 12, 0), LocalDateTime.of(2020, 1, 2, 12, 0)};
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public Event deserialize() throws IOException {
+        return objectMapper.readValue(eventJson, Event.class);
+    }
+
+    // updateEventHash is private, setTime is the cheapest public way to call it
+    @Benchmark
+    public int updateEventHash() {
+        event.setTime(times[nextTime++ & 1]);
+        return event.getEventHash();
+    }
+}
@@ -0,0 +1,65 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.persistence.EventHashChain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency the hash chain adds to each write: SHA-256 of one link, and locking, linking and advancing a user's chain
+ * from 4 writer threads. With 1 user every write contends for the same lock, with 1000 they are spread over the stripes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EventHashChainBenchmark {
+    @Param({"1", "1000"})
+    private int users;
+
+    private EventHashChain hashChain;
+    private List<UUID> userIds;
+    private byte[] previousHash;
+    private Event event;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        hashChain = new EventHashChain(1024, 100_000);
+        userIds = BenchmarkSupport.randomUserIds(users);
+        previousHash = EventHashChain.genesisHash();
+        event = BenchmarkSupport.randomEvent(userIds);
+    }
+
+    @Benchmark
+    public byte[] hash() {
+        return EventHashChain.hash(previousHash, event);
+    }
+
+    @Benchmark
+    public Event linkAndAdvance() {
+        List<Event> events = List.of(BenchmarkSupport.randomEvent(userIds));
+        try (EventHashChain.UserLocks locks = hashChain.lock(List.of(events.get(0).getUserId()))) {
+            hashChain.link(events, userId -> null);
+            hashChain.advance(events);
+        }
+        return events.get(0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fidectus.eventlog.dto.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Requests through the whole Spring MVC stack with MockMvc: argument resolution, JSON conversion, the service
+ * and the in-memory H2 database. There is no network or servlet container overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class EventLogControllerBenchmark {
+    private static final int USERS = 1000;
+    private static final int PRELOADED_EVENTS = 100_000;
+
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private ObjectMapper objectMapper;
+    private List<UUID> userIds;
+    private List<UUID> eventIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = BenchmarkSupport.startApplication(WebApplicationType.SERVLET);
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        objectMapper = context.getBean(ObjectMapper.class);
+
+        userIds = BenchmarkSupport.randomUserIds(USERS);
+        eventIds = new ArrayList<>(PRELOADED_EVENTS);
+        List<Event> batch = new ArrayList<>();
+        for (int i = 0; i < PRELOADED_EVENTS; i++) {
+            Event event = BenchmarkSupport.randomEvent(userIds);
+            eventIds.add(event.getEventId());
+            batch.add(event);
+            if (batch.size() == 1000) {
+                postEvents(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        context.close();
+    }
+
+    @Benchmark
+    public MvcResult postEvent() throws Exception {
+        return mockMvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(BenchmarkSupport.randomEvent(userIds))))
+                .andReturn();
+    }
+
+    @Benchmark
+    public MvcResult getEvent() throws Exception {
+        return mockMvc.perform(get("/api/v1/event/" + eventIds.get(ThreadLocalRandom.current().nextInt(eventIds.size()))))
+                .andReturn();
+    }
+
+    @Benchmark
+    public MvcResult getEventsForUser() throws Exception {
+        return mockMvc.perform(get("/api/v1/event/user/" + userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()))))
+                .andReturn();
+    }
+
+    private void postEvents(List<Event> events) throws Exception {
+        mockMvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(events)));
+    }
+}
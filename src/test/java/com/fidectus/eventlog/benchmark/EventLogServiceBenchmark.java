@@ -0,0 +1,86 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventPage;
+import com.fidectus.eventlog.dto.LoggedEvent;
+import com.fidectus.eventlog.services.EventLogService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EventLogService against the in-memory H2 database, preloaded with a number of Events spread over 1000 users,
+ * to show how logging and paging scale with the size of the table.
+ * With dedup=true logEvent first checks the Bloom filter of EventDeduplicator, which these random Events almost always miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class EventLogServiceBenchmark {
+    private static final int USERS = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int preloadedEvents;
+
+    @Param({"false", "true"})
+    public boolean dedup;
+
+    private ConfigurableApplicationContext context;
+    private EventLogService eventLogService;
+    private List<UUID> userIds;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkSupport.startApplication(WebApplicationType.NONE,
+                "eventlog.dedup.enabled=" + dedup, "eventlog.dedup.expected-events=" + 2 * preloadedEvents);
+        eventLogService = context.getBean(EventLogService.class);
+
+        userIds = BenchmarkSupport.randomUserIds(USERS);
+        List<Event> batch = new ArrayList<>();
+        for (int i = 0; i < preloadedEvents; i++) {
+            batch.add(BenchmarkSupport.randomEvent(userIds));
+            if (batch.size() == 10_000) {
+                eventLogService.logEvents(batch);
+                batch.clear();
+            }
+        }
+        eventLogService.logEvents(batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        context.close();
+    }
+
+    @Benchmark
+    public LoggedEvent logEvent() {
+        return eventLogService.logEvent(BenchmarkSupport.randomEvent(userIds));
+    }
+
+    @Benchmark
+    public EventPage<Event> getEventsForUser() {
+        UUID userId = userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()));
+        return eventLogService.getEventsForUser(userId, null, null, null, null, null);
+    }
+}
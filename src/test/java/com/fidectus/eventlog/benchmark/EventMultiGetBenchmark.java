@@ -0,0 +1,109 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fidectus.eventlog.dto.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Looking up ids Events through MockMvc, as ids single GET /api/v1/event/{eventId} requests and as one
+ * POST /api/v1/event/_mget. The Event cache is turned off so every lookup reads the in-memory H2 database.
+ * Each operation looks up all ids Events, so the scores compare directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class EventMultiGetBenchmark {
+    private static final int USERS = 1000;
+    private static final int PRELOADED_EVENTS = 100_000;
+
+    @Param({"10", "100", "1000"})
+    public int ids;
+
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private ObjectMapper objectMapper;
+    private List<UUID> eventIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = BenchmarkSupport.startApplication(WebApplicationType.SERVLET, "eventlog.cache.maximum-size=0");
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        objectMapper = context.getBean(ObjectMapper.class);
+
+        List<UUID> userIds = BenchmarkSupport.randomUserIds(USERS);
+        eventIds = new ArrayList<>(PRELOADED_EVENTS);
+        List<Event> batch = new ArrayList<>();
+        for (int i = 0; i < PRELOADED_EVENTS; i++) {
+            Event event = BenchmarkSupport.randomEvent(userIds);
+            eventIds.add(event.getEventId());
+            batch.add(event);
+            if (batch.size() == 1000) {
+                mockMvc.perform(post("/api/v1/events")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsBytes(batch)));
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void singleGets(Blackhole blackhole) throws Exception {
+        for (UUID eventId : randomEventIds()) {
+            blackhole.consume(mockMvc.perform(get("/api/v1/event/" + eventId)).andReturn());
+        }
+    }
+
+    @Benchmark
+    public MvcResult multiGet() throws Exception {
+        return mockMvc.perform(post("/api/v1/event/_mget")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(randomEventIds())))
+                .andReturn();
+    }
+
+    private List<UUID> randomEventIds() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<UUID> randomIds = new ArrayList<>(ids);
+        for (int i = 0; i < ids; i++) {
+            randomIds.add(eventIds.get(random.nextInt(eventIds.size())));
+        }
+        return randomIds;
+    }
+}
@@ -0,0 +1,166 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fidectus.eventlog.dto.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * GET requests through MockMvc with open session in view off, as configured, and on, with the Event cache turned off
+ * so every request reads the in-memory H2 database.
+ *
+ * Run with -prof gc for the bytes allocated per request. How long each request holds a connection, from taking it
+ * from the pool to giving it back, is printed after each iteration: with open session in view that includes
+ * writing the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class EventReadBenchmark {
+    private static final int USERS = 1000;
+    private static final int PRELOADED_EVENTS = 100_000;
+
+    @Param({"false", "true"})
+    public boolean openInView;
+
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private List<UUID> userIds;
+    private List<UUID> eventIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = BenchmarkSupport.startApplication(List.of(ConnectionHoldTimer.class), WebApplicationType.SERVLET,
+                "eventlog.cache.maximum-size=0", "spring.jpa.open-in-view=" + openInView);
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        ObjectMapper objectMapper = context.getBean(ObjectMapper.class);
+
+        userIds = BenchmarkSupport.randomUserIds(USERS);
+        eventIds = new ArrayList<>(PRELOADED_EVENTS);
+        List<Event> batch = new ArrayList<>();
+        for (int i = 0; i < PRELOADED_EVENTS; i++) {
+            Event event = BenchmarkSupport.randomEvent(userIds);
+            eventIds.add(event.getEventId());
+            batch.add(event);
+            if (batch.size() == 1000) {
+                mockMvc.perform(post("/api/v1/events")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsBytes(batch)));
+                batch.clear();
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetConnectionHold() {
+        ConnectionHoldTimer.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printConnectionHold() {
+        System.out.printf("%nConnections held %.1f us each, %d taken%n",
+                ConnectionHoldTimer.meanMicros(), ConnectionHoldTimer.connections.sum());
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        context.close();
+    }
+
+    @Benchmark
+    public MvcResult getEvent() throws Exception {
+        return mockMvc.perform(get("/api/v1/event/" + eventIds.get(ThreadLocalRandom.current().nextInt(eventIds.size()))))
+                .andReturn();
+    }
+
+    @Benchmark
+    public MvcResult getEventsForUser() throws Exception {
+        return mockMvc.perform(get("/api/v1/event/user/" + userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()))))
+                .andReturn();
+    }
+
+    /**
+     * Times every connection from the application's DataSource, from getConnection() until it is closed.
+     */
+    public static class ConnectionHoldTimer implements BeanPostProcessor {
+        private static final LongAdder heldNanos = new LongAdder();
+        private static final LongAdder connections = new LongAdder();
+
+        static void reset() {
+            heldNanos.reset();
+            connections.reset();
+        }
+
+        static double meanMicros() {
+            long count = connections.sum();
+            return count == 0 ? 0 : heldNanos.sum() / 1000.0 / count;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!(bean instanceof DataSource)) {
+                return bean;
+            }
+            return new DelegatingDataSource((DataSource) bean) {
+                @Override
+                public Connection getConnection() throws SQLException {
+                    return timed(super.getConnection());
+                }
+            };
+        }
+
+        private static Connection timed(Connection connection) {
+            long taken = System.nanoTime();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("close")) {
+                            heldNanos.add(System.nanoTime() - taken);
+                            connections.increment();
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.persistence.EventStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the jpa and segment-log storage engines on writes, reads by eventId and a page of a user's events.
+ * The Event cache is disabled so reads go to storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class EventStoreBenchmark {
+    private static final int USERS = 1000;
+    private static final int PRELOADED_EVENTS = 100_000;
+
+    @Param({"jpa", "segment-log"})
+    public String engine;
+
+    @Param({"interval"})
+    public String fsyncPolicy;
+
+    private ConfigurableApplicationContext context;
+    private EventStore eventStore;
+    private Path segmentDirectory;
+    private List<UUID> userIds;
+    private List<UUID> eventIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        segmentDirectory = Files.createTempDirectory("event-log-benchmark");
+        context = BenchmarkSupport.startApplication(WebApplicationType.NONE,
+                "eventlog.storage.engine=" + engine,
+                "eventlog.storage.segment.directory=" + segmentDirectory,
+                "eventlog.storage.segment.fsync-policy=" + fsyncPolicy,
+                "eventlog.cache.maximum-size=0");
+        eventStore = context.getBean(EventStore.class);
+
+        userIds = BenchmarkSupport.randomUserIds(USERS);
+        eventIds = new ArrayList<>(PRELOADED_EVENTS);
+        List<Event> batch = new ArrayList<>();
+        for (int i = 0; i < PRELOADED_EVENTS; i++) {
+            Event event = BenchmarkSupport.randomEvent(userIds);
+            eventIds.add(event.getEventId());
+            batch.add(event);
+            if (batch.size() == 1000) {
+                eventStore.addEvents(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        context.close();
+        FileSystemUtils.deleteRecursively(segmentDirectory);
+    }
+
+    @Benchmark
+    public Event addEvent() {
+        return eventStore.addEvent(BenchmarkSupport.randomEvent(userIds));
+    }
+
+    @Benchmark
+    public Event getEvent() {
+        return eventStore.getEvent(eventIds.get(ThreadLocalRandom.current().nextInt(eventIds.size())));
+    }
+
+    @Benchmark
+    public List<Event> getEventsForUserId() {
+        return eventStore.getEventsForUserId(userIds.get(ThreadLocalRandom.current().nextInt(userIds.size())), null, null, null, null, 100);
+    }
+}
@@ -0,0 +1,116 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fidectus.eventlog.dto.EpochMicros;
+import com.fidectus.eventlog.dto.Event;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Loads the same random Events into the event table as Hibernate used to generate it (UUIDs as BINARY(255), time as
+ * TIMESTAMP, eventType as INTEGER) and as Event maps it now, in H2 file databases under target/table-size, and prints
+ * the disk space of each table and its (userId, time) index. Sizes are of the compacted database files, taken before
+ * and after creating the index.
+ *
+ * The only argument is the number of rows, default 10000000.
+ */
+public final class EventTableSizeReport {
+    private static final int USERS = 100_000;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String LEGACY_TABLE = "create table event (event_id binary(255) not null, event_hash integer not null, " +
+            "event_type integer, time timestamp, user_id binary(255), primary key (event_id))";
+    private static final String COMPACT_TABLE = "create table event (event_id BINARY(16) not null, event_hash integer not null, " +
+            "event_type TINYINT not null, time BIGINT not null, user_id BINARY(16) not null, primary key (event_id))";
+    private static final String INSERT_SQL =
+            "insert into event (event_id, user_id, event_type, time, event_hash) values (?, ?, ?, ?, ?)";
+    private static final String INDEX_SQL = "create index idx_event_user_id_time on event (user_id, time)";
+
+    private EventTableSizeReport() { }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Path directory = Paths.get("target", "table-size");
+        Files.createDirectories(directory);
+        List<UUID> userIds = BenchmarkSupport.randomUserIds(USERS);
+
+        System.out.printf("%-8s %12s %12s %12s %14s%n", "schema", "rows", "table MB", "index MB", "bytes per row");
+        // The same seed for both, so they hold identical Events
+        long seed = ThreadLocalRandom.current().nextLong();
+        report("legacy", LEGACY_TABLE, false, directory, rows, userIds, seed);
+        report("compact", COMPACT_TABLE, true, directory, rows, userIds, seed);
+    }
+
+    private static void report(String name, String createTable, boolean compact, Path directory, int rows,
+                               List<UUID> userIds, long seed) throws SQLException, IOException {
+        Path database = directory.resolve(name).toAbsolutePath();
+        Files.deleteIfExists(Paths.get(database + ".mv.db"));
+        String url = "jdbc:h2:file:" + database;
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute(createTable);
+            insert(connection, compact, rows, userIds, new Random(seed));
+            statement.execute("shutdown compact");
+        }
+        long tableBytes = Files.size(Paths.get(database + ".mv.db"));
+
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute(INDEX_SQL);
+            statement.execute("shutdown compact");
+        }
+        long indexBytes = Files.size(Paths.get(database + ".mv.db")) - tableBytes;
+        System.out.printf("%-8s %12d %12.1f %12.1f %14.1f%n", name, rows,
+                tableBytes / 1e6, indexBytes / 1e6, (double) (tableBytes + indexBytes) / rows);
+    }
+
+    private static void insert(Connection connection, boolean compact, int rows, List<UUID> userIds, Random random)
+            throws SQLException {
+        connection.setAutoCommit(false);
+        Event.EventType[] eventTypes = Event.EventType.values();
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_SQL)) {
+            for (int i = 0; i < rows; i++) {
+                Event event = new Event(new UUID(random.nextLong(), random.nextLong()),
+                        eventTypes[random.nextInt(eventTypes.length)],
+                        userIds.get(random.nextInt(userIds.size())),
+                        EpochMicros.toLocalDateTime(1_577_836_800_000_000L + (random.nextLong() & 0xFFFFFFFFFFFL)));
+                insert.setBytes(1, toBytes(event.getEventId()));
+                insert.setBytes(2, toBytes(event.getUserId()));
+                if (compact) {
+                    insert.setByte(3, (byte) event.getEventType().ordinal());
+                    insert.setLong(4, EpochMicros.of(event.getTime()));
+                } else {
+                    insert.setInt(3, event.getEventType().ordinal());
+                    insert.setTimestamp(4, Timestamp.valueOf(event.getTime()));
+                }
+                insert.setInt(5, event.getEventHash());
+                insert.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0 || i == rows - 1) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+        }
+        connection.setAutoCommit(true);
+    }
+
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+}
@@ -0,0 +1,90 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fidectus.eventlog.controller.EventBinaryHttpMessageConverter;
+import com.fidectus.eventlog.dto.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.GenericHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and writing Events as JSON and as the binary format, through the same HttpMessageConverter calls
+ * Spring MVC makes for a request and response body. Reports the average time per body and, with -prof gc, allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EventWireFormatBenchmark {
+    private static final Type EVENT_LIST_TYPE = new TypeReference<List<Event>>() {}.getType();
+
+    @Param({"json", "binary"})
+    public String format;
+
+    @Param({"1", "100"})
+    public int events;
+
+    private GenericHttpMessageConverter<Object> converter;
+    private MediaType mediaType;
+    private Type type;
+    private Object body;
+    private byte[] serializedBody;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (format.equals("json")) {
+            // Configured as Spring Boot configures the application's ObjectMapper
+            converter = new MappingJackson2HttpMessageConverter(Jackson2ObjectMapperBuilder.json().build());
+            mediaType = MediaType.APPLICATION_JSON;
+        } else {
+            converter = new EventBinaryHttpMessageConverter();
+            mediaType = EventBinaryHttpMessageConverter.MEDIA_TYPE;
+        }
+
+        List<Event> eventList = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            eventList.add(new Event(UUID.randomUUID(), Event.EventType.USER_UPDATED_REGISTRATION_INFO, UUID.randomUUID(),
+                    LocalDateTime.of(2020, 1, 1, 12, 0).plusSeconds(i)));
+        }
+        type = events == 1 ? Event.class : EVENT_LIST_TYPE;
+        body = events == 1 ? eventList.get(0) : eventList;
+        serializedBody = write().getBodyAsBytes();
+    }
+
+    @Benchmark
+    public Object read() throws IOException {
+        return converter.read(type, null, new MockHttpInputMessage(serializedBody));
+    }
+
+    @Benchmark
+    public MockHttpOutputMessage write() throws IOException {
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(body, type, mediaType, outputMessage);
+        return outputMessage;
+    }
+}
@@ -0,0 +1,242 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fidectus.eventlog.dto.Event;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Closed-loop HTTP load test: keeps a fixed number of requests in flight against the API over real connections, and
+ * reports throughput and latency percentiles. Unlike the JMH benchmarks this includes Tomcat's connection and thread
+ * handling, which is what eventlog.execution.mode changes.
+ *
+ * Options are key=value arguments:
+ * <ul>
+ *     <li>mode - eventlog.execution.mode of the application started for the test, blocking (default) or async</li>
+ *     <li>profile - spring.profiles.active of the application started for the test, instead of its default
+ *     high-throughput. Empty for none</li>
+ *     <li>url - base URL of an already running application to test instead, e.g. http://localhost:8080</li>
+ *     <li>concurrency - requests in flight, default 10000</li>
+ *     <li>warmup, duration - in seconds, default 10 and 30</li>
+ *     <li>writeRatio - fraction of requests that POST an Event, the rest GET a page of a user's Events. Default 0.2</li>
+ *     <li>result - JSON file the results are written to, default target/loadtest-{mode}.json, or
+ *     target/loadtest-{mode}-{profile}.json when a profile is given, -none when it is empty</li>
+ * </ul>
+ */
+public final class HttpLoadTest {
+    private static final int USERS = 1000;
+    private static final int PRELOADED_EVENTS = 100_000;
+    private static final int PRELOAD_BATCH_SIZE = 1000;
+    // Latencies are counted in 100us buckets, up to 10s
+    private static final long BUCKET_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int BUCKETS = 100_000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+    private final String baseUrl;
+    private final List<UUID> userIds = BenchmarkSupport.randomUserIds(USERS);
+
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKETS);
+    private final Map<Integer, AtomicLong> statusCounts = new HashMap<>();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile boolean recording;
+
+    private HttpLoadTest(HttpClient client, ObjectMapper objectMapper, String baseUrl) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.baseUrl = baseUrl;
+        for (int status : new int[]{200, 201, 404, 409, 503}) {
+            statusCounts.put(status, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
+        }
+        String mode = options.getOrDefault("mode", "blocking");
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "10000"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        double writeRatio = Double.parseDouble(options.getOrDefault("writeRatio", "0.2"));
+        String profile = options.get("profile");
+        Path result = Paths.get(options.getOrDefault("result",
+                "target/loadtest-" + mode + (profile == null ? "" : "-" + (profile.isEmpty() ? "none" : profile)) + ".json"));
+
+        ConfigurableApplicationContext context = null;
+        String baseUrl = options.get("url");
+        if (baseUrl == null) {
+            if (profile != null) {
+                // Above application.properties, where the default is set, unlike the properties passed to the builder
+                System.setProperty("spring.profiles.active", profile);
+            }
+            context = BenchmarkSupport.startApplication(WebApplicationType.SERVLET,
+                    "server.port=0", "eventlog.execution.mode=" + mode);
+            baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        }
+
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(30))
+                    .executor(clientExecutor)
+                    .build();
+            HttpLoadTest loadTest = new HttpLoadTest(client, new ObjectMapper().findAndRegisterModules()
+                    .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS), baseUrl);
+            loadTest.preload();
+            String json = loadTest.run(concurrency, warmupSeconds, durationSeconds, writeRatio, mode, profile);
+            Files.createDirectories(result.toAbsolutePath().getParent());
+            Files.write(result, json.getBytes(StandardCharsets.UTF_8));
+            System.out.println(json);
+        } finally {
+            clientExecutor.shutdownNow();
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    private void preload() throws IOException, InterruptedException {
+        for (int i = 0; i < PRELOADED_EVENTS; i += PRELOAD_BATCH_SIZE) {
+            List<Event> batch = new ArrayList<>(PRELOAD_BATCH_SIZE);
+            for (int j = 0; j < PRELOAD_BATCH_SIZE; j++) {
+                batch.add(BenchmarkSupport.randomEvent(userIds));
+            }
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/v1/events"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(batch)))
+                    .build(), HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Preloading Events failed with status " + response.statusCode());
+            }
+        }
+    }
+
+    private String run(int concurrency, int warmupSeconds, int durationSeconds, double writeRatio, String mode,
+                       String profile) throws IOException, InterruptedException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long measurementStart = 0;
+
+        while (System.nanoTime() < end) {
+            if (!inFlight.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            if (!recording && System.nanoTime() >= warmupEnd) {
+                measurementStart = System.nanoTime();
+                recording = true;
+            }
+            long start = System.nanoTime();
+            client.sendAsync(nextRequest(writeRatio), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, exception) -> {
+                        record(start, response, exception);
+                        inFlight.release();
+                    });
+        }
+        recording = false;
+        long measuredNanos = System.nanoTime() - measurementStart;
+        // Let requests still in flight finish before the application is closed
+        inFlight.tryAcquire(concurrency, 30, TimeUnit.SECONDS);
+        return report(mode, profile, concurrency, writeRatio, measuredNanos);
+    }
+
+    private HttpRequest nextRequest(double writeRatio) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < writeRatio) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/api/v1/event"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(
+                            objectMapper.writeValueAsBytes(BenchmarkSupport.randomEvent(userIds))))
+                    .build();
+        }
+        UUID userId = userIds.get(random.nextInt(userIds.size()));
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/api/v1/event/user/" + userId + "?limit=20"))
+                .GET()
+                .build();
+    }
+
+    private void record(long start, HttpResponse<Void> response, Throwable exception) {
+        if (!recording) {
+            return;
+        }
+        if (exception != null) {
+            errors.incrementAndGet();
+            return;
+        }
+        AtomicLong statusCount = statusCounts.get(response.statusCode());
+        if (statusCount == null) {
+            errors.incrementAndGet();
+            return;
+        }
+        statusCount.incrementAndGet();
+        latencyBuckets.incrementAndGet((int) Math.min((System.nanoTime() - start) / BUCKET_NANOS, BUCKETS - 1));
+    }
+
+    private String report(String mode, String profile, int concurrency, double writeRatio, long measuredNanos) throws IOException {
+        long responses = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            responses += latencyBuckets.get(i);
+        }
+        Map<String, Object> report = new HashMap<>();
+        report.put("mode", mode);
+        report.put("profile", profile);
+        report.put("concurrency", concurrency);
+        report.put("writeRatio", writeRatio);
+        report.put("requestsPerSecond", responses * 1e9 / measuredNanos);
+        report.put("errors", errors.get());
+        Map<Integer, Long> statuses = new HashMap<>();
+        statusCounts.forEach((status, count) -> statuses.put(status, count.get()));
+        report.put("statuses", statuses);
+
+        Map<String, Double> latencyMillis = new HashMap<>();
+        for (double percentile : PERCENTILES) {
+            latencyMillis.put("p" + percentile, percentileMillis(responses, percentile));
+        }
+        report.put("latencyMillis", latencyMillis);
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(report);
+    }
+
+    /**
+     * @return Upper bound of the latency bucket that the percentile falls in
+     */
+    private double percentileMillis(long responses, double percentile) {
+        long target = (long) Math.ceil(responses * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += latencyBuckets.get(i);
+            if (seen >= target && seen > 0) {
+                return (i + 1) * BUCKET_NANOS / 1e6;
+            }
+        }
+        return 0;
+    }
+}
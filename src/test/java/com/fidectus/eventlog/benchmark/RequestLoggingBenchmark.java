@@ -0,0 +1,104 @@
+package com.fidectus.eventlog.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fidectus.eventlog.dto.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Request throughput with per-request logging on (DEBUG, every request logs in the controller and the DAO) and off
+ * (INFO, only the sampled access log), with synchronous loggers that flush every message and with async loggers.
+ * Requests go through MockMvc, and GETs are for one cached Event so logging is a large share of the work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RequestLoggingBenchmark {
+    @Param({"sync", "async"})
+    public String loggers;
+
+    @Param({"DEBUG", "INFO"})
+    public String logLevel;
+
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private ObjectMapper objectMapper;
+    private List<UUID> userIds;
+    private UUID eventId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // Must be set before Log4j starts, each parameter combination runs in a new JVM
+        if (loggers.equals("async")) {
+            System.setProperty("Log4jContextSelector", "org.apache.logging.log4j.core.async.AsyncLoggerContextSelector");
+            System.setProperty("benchmark.log.immediateFlush", "false");
+        } else {
+            System.setProperty("Log4jContextSelector", "org.apache.logging.log4j.core.selector.ClassLoaderContextSelector");
+            System.setProperty("benchmark.log.immediateFlush", "true");
+        }
+        System.setProperty("benchmark.log.file", "target/request-logging-benchmark-" + loggers + "-" + logLevel + ".log");
+
+        context = BenchmarkSupport.startApplication(WebApplicationType.SERVLET,
+                "logging.config=classpath:log4j2-benchmark.xml",
+                "logging.level.com.fidectus.eventlog=" + logLevel);
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        objectMapper = context.getBean(ObjectMapper.class);
+
+        userIds = BenchmarkSupport.randomUserIds(1000);
+        Event event = BenchmarkSupport.randomEvent(userIds);
+        eventId = event.getEventId();
+        postEvent(event);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        context.close();
+    }
+
+    @Benchmark
+    public MvcResult getEvent() throws Exception {
+        return mockMvc.perform(get("/api/v1/event/" + eventId)).andReturn();
+    }
+
+    @Benchmark
+    public MvcResult postEvent() throws Exception {
+        return postEvent(BenchmarkSupport.randomEvent(userIds));
+    }
+
+    private MvcResult postEvent(Event event) throws Exception {
+        return mockMvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(event)))
+                .andReturn();
+    }
+}
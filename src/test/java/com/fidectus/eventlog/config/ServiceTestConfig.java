@@ -1,13 +1,25 @@
 package com.fidectus.eventlog.config;
 
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventCountRepository;
+import com.fidectus.eventlog.persistence.EventHashChain;
 import com.fidectus.eventlog.persistence.EventRepository;
 import com.fidectus.eventlog.persistence.EventRepositoryDao;
+import com.fidectus.eventlog.persistence.shard.EventShards;
+import com.fidectus.eventlog.services.EventCounters;
+import com.fidectus.eventlog.services.EventFeed;
+import com.fidectus.eventlog.services.EventLogMetrics;
 import com.fidectus.eventlog.services.EventLogService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
 
+import java.time.Duration;
+
 @Profile("service-test")
 @TestConfiguration
 public class ServiceTestConfig {
@@ -19,4 +31,42 @@ public class ServiceTestConfig {
 
     @MockBean
     public EventRepository repository;
+
+    @MockBean
+    public EventCountRepository eventCountRepository;
+
+    @Bean
+    public EventCache eventCache() {
+        return new EventCache(100, Duration.ofMinutes(10), Duration.ofSeconds(5));
+    }
+
+    @Bean
+    public EventShards eventShards(MeterRegistry meterRegistry) {
+        return new EventShards(1, 1, 1, meterRegistry);
+    }
+
+    @Bean
+    public EventHashChain eventHashChain() {
+        return new EventHashChain(16, 100);
+    }
+
+    @Bean
+    public EventCounters eventCounters(EventCountRepository eventCountRepository) {
+        return new EventCounters(eventCountRepository, Duration.ofMinutes(10));
+    }
+
+    @Bean
+    public EventFeed eventFeed(EventLogMetrics eventLogMetrics) {
+        return new EventFeed(eventLogMetrics, 100, 10, 1);
+    }
+
+    @Bean
+    public MeterRegistry meterRegistry() {
+        return new SimpleMeterRegistry();
+    }
+
+    @Bean
+    public EventLogMetrics eventLogMetrics(MeterRegistry meterRegistry) {
+        return new EventLogMetrics(meterRegistry);
+    }
 }
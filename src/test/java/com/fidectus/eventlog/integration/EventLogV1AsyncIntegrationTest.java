@@ -0,0 +1,269 @@
+package com.fidectus.eventlog.integration;
+
+import com.fidectus.eventlog.Application;
+import com.fidectus.eventlog.controller.AccessLogFilter;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventRepository;
+import com.fidectus.eventlog.persistence.EventRepositoryDao;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.reset;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = {"eventlog.execution.mode=async", "eventlog.execution.db-threads=1", "eventlog.execution.queue-capacity=1",
+                "eventlog.access-log.sample-rate=1"})
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+class EventLogV1AsyncIntegrationTest {
+    private static final UUID USER_ID = UUID.fromString("10000000-1111-1111-1111-000000000001");
+    private static final String ACCESS_LOGGER = "com.fidectus.eventlog.access";
+    private static final String END_OF_TEST = "end of test";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private EventCache eventCache;
+
+    @SpyBean
+    private EventRepositoryDao eventRepositoryDao;
+
+    private final AccessLogAppender accessLog = new AccessLogAppender();
+
+    @BeforeEach
+    private void setup() {
+        accessLog.start();
+        ((Logger) LogManager.getLogger(ACCESS_LOGGER)).addAppender(accessLog);
+    }
+
+    @AfterEach
+    private void teardown() {
+        ((Logger) LogManager.getLogger(ACCESS_LOGGER)).removeAppender(accessLog);
+        accessLog.stop();
+        reset(eventRepositoryDao);
+        repository.deleteAll();
+        eventCache.invalidateAll();
+    }
+
+    @Test
+    void givenEvents_postThenGetEventsAsync_returnsSameResponsesAsBlockingMode() throws Exception {
+        // Arrange
+        UUID firstEventId = UUID.fromString("00000000-0000-0000-aaaa-000000000000");
+        UUID secondEventId = UUID.fromString("00000000-0000-0000-bbbb-000000000000");
+        List<String> dbThreads = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            dbThreads.add(Thread.currentThread().getName());
+            return invocation.callRealMethod();
+        }).when(eventRepositoryDao).addEvent(any());
+
+        // Act
+        ResultActions firstPostResult = performAsync(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(firstEventId, LocalDateTime.of(2020, 1, 1, 12, 0))));
+        ResultActions duplicatePostResult = performAsync(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(firstEventId, LocalDateTime.of(2020, 1, 1, 12, 0))));
+        ResultActions batchResult = performAsync(post("/api/v1/events")
+                .contentType("application/x-ndjson")
+                .content(eventJson(secondEventId, LocalDateTime.of(2020, 1, 2, 12, 0))));
+        ResultActions getResult = performAsync(get("/api/v1/event/" + secondEventId));
+        ResultActions pageResult = performAsync(get("/api/v1/event/user/" + USER_ID).param("limit", "1"));
+
+        // Assert
+        firstPostResult.andExpect(status().isCreated());
+        duplicatePostResult.andExpect(status().isConflict());
+        batchResult.andExpect(status().isOk()).andExpect(jsonPath("$[0].status").value("CREATED"));
+        getResult.andExpect(status().isOk()).andExpect(jsonPath("$.eventId").value(secondEventId.toString()));
+        String link = pageResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].eventId").value(firstEventId.toString()))
+                .andReturn().getResponse().getHeader(HttpHeaders.LINK);
+        assertTrue(link.contains("after=" + firstEventId));
+
+        // DB work runs on the DB threads, not the request thread
+        assertEquals(List.of("event-db-0", "event-db-0"), dbThreads);
+    }
+
+    @Test
+    void givenBusyDbThreads_getEvent_returnsServiceUnavailable() throws Exception {
+        // Arrange
+        CountDownLatch dbThreadBlocked = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            dbThreadBlocked.await();
+            return invocation.callRealMethod();
+        }).when(eventRepositoryDao).getEvent(any());
+
+        // Act
+        MvcResult runningResult = mvc.perform(get("/api/v1/event/" + UUID.randomUUID()))
+                .andExpect(request().asyncStarted())
+                .andReturn(); // Takes the only DB thread
+        MvcResult queuedResult = mvc.perform(get("/api/v1/event/" + UUID.randomUUID()))
+                .andExpect(request().asyncStarted())
+                .andReturn(); // Takes the only place in the queue
+        ResultActions rejectedResult = mvc.perform(get("/api/v1/event/" + UUID.randomUUID()))
+                .andDo(MockMvcResultHandlers.print());
+        dbThreadBlocked.countDown();
+
+        // Assert
+        rejectedResult.andExpect(status().isServiceUnavailable());
+        mvc.perform(asyncDispatch(runningResult)).andExpect(status().isNotFound());
+        mvc.perform(asyncDispatch(queuedResult)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void givenEveryRequestSampled_postEventAsync_logsItOnceWithStatusOfWholeRequest() throws Exception {
+        // Arrange
+        String eventJson = eventJson(UUID.randomUUID(), LocalDateTime.of(2020, 1, 1, 12, 0));
+
+        // Act
+        MvcResult asyncResult = mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE).content(eventJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        List<String> loggedBeforeDispatch = accessLog.awaitEndOfTest();
+        mvc.perform(asyncDispatch(asyncResult)).andExpect(status().isCreated());
+
+        // Assert
+        assertEquals(List.of(), loggedBeforeDispatch);
+        List<String> logged = accessLog.awaitEndOfTest();
+        assertEquals(1, logged.size());
+        assertTrue(logged.get(0).startsWith("INFO POST /api/v1/event 201 "), logged.get(0));
+    }
+
+    @Test
+    void givenDbFailure_postEventAsync_logsServerErrorOnce() throws Exception {
+        // Arrange
+        doThrow(new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR)).when(eventRepositoryDao).addEvent(any());
+
+        // Act
+        performAsync(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(UUID.randomUUID(), LocalDateTime.of(2020, 1, 1, 12, 0))))
+                .andExpect(status().isInternalServerError());
+
+        // Assert
+        List<String> logged = accessLog.awaitEndOfTest();
+        assertEquals(1, logged.size());
+        assertTrue(logged.get(0).startsWith("WARN POST /api/v1/event 500 "), logged.get(0));
+    }
+
+    @Test
+    void givenNoRequestsSampled_filterRequestsThatSucceedAndThrow_logsOnlyTheExceptionAsServerError() throws Exception {
+        // Arrange
+        AccessLogFilter filter = new AccessLogFilter(0);
+        HttpServlet succeeding = new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) {
+                response.setStatus(HttpServletResponse.SC_OK);
+            }
+        };
+        HttpServlet throwing = new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) {
+                throw new IllegalStateException("Thrown by test");
+            }
+        };
+
+        // Act
+        new MockFilterChain(succeeding, filter).doFilter(new MockHttpServletRequest("GET", "/api/v1/event"), new MockHttpServletResponse());
+        assertThrows(IllegalStateException.class, () -> new MockFilterChain(throwing, filter)
+                .doFilter(new MockHttpServletRequest("GET", "/api/v1/events"), new MockHttpServletResponse()));
+
+        // Assert
+        List<String> logged = accessLog.awaitEndOfTest();
+        assertEquals(1, logged.size());
+        assertTrue(logged.get(0).startsWith("WARN GET /api/v1/events 500 "), logged.get(0));
+    }
+
+    private ResultActions performAsync(RequestBuilder request) throws Exception {
+        MvcResult asyncResult = mvc.perform(request)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mvc.perform(asyncDispatch(asyncResult))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    /**
+     * Keeps the access log lines logged while it's attached. Loggers are asynchronous, so awaitEndOfTest() logs a line
+     * of its own and waits for it, by which time everything logged before it has arrived.
+     */
+    private static class AccessLogAppender extends AbstractAppender {
+        private final List<String> lines = new CopyOnWriteArrayList<>();
+
+        AccessLogAppender() {
+            super("AccessLogAppender", null, null, true, Property.EMPTY_ARRAY);
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            // Log events are reused, so only their text is kept
+            lines.add(event.getLevel() + " " + event.getMessage().getFormattedMessage());
+        }
+
+        List<String> awaitEndOfTest() throws InterruptedException {
+            LogManager.getLogger(ACCESS_LOGGER).info(END_OF_TEST);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!lines.contains("INFO " + END_OF_TEST) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            List<String> logged = new ArrayList<>(lines.subList(0, lines.indexOf("INFO " + END_OF_TEST)));
+            lines.clear();
+            return logged;
+        }
+    }
+
+    private static String eventJson(UUID eventId, LocalDateTime time) {
+        return "{\"eventId\": \"" + eventId + "\", " +
+                "\"time\": \"" + time + "\", " +
+                "\"eventType\": \"USER_REGISTRATION\", " +
+                "\"userId\": \"" + USER_ID + "\"}";
+    }
+}
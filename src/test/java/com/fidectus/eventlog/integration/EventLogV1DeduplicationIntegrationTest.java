@@ -0,0 +1,139 @@
+package com.fidectus.eventlog.integration;
+
+import com.fidectus.eventlog.Application;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventHashChain;
+import com.fidectus.eventlog.persistence.EventRepository;
+import com.fidectus.eventlog.persistence.EventRepositoryDao;
+import com.fidectus.eventlog.services.EventDeduplicator;
+import com.fidectus.eventlog.services.EventLogMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = {"eventlog.dedup.enabled=true", "eventlog.dedup.expected-events=1000"})
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+class EventLogV1DeduplicationIntegrationTest {
+    private static final UUID USER_ID = UUID.fromString("10000000-1111-1111-1111-000000000001");
+    private static final LocalDateTime TIME = LocalDateTime.of(2020, 1, 1, 12, 0);
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private EventCache eventCache;
+
+    @Autowired
+    private EventHashChain hashChain;
+
+    @Autowired
+    private EventDeduplicator deduplicator;
+
+    @Autowired
+    private EventLogMetrics metrics;
+
+    @SpyBean
+    private EventRepositoryDao eventRepositoryDao;
+
+    @AfterEach
+    private void teardown() {
+        reset(eventRepositoryDao);
+        repository.deleteAll();
+        eventCache.invalidateAll();
+        hashChain.invalidateAll();
+        deduplicator.rebuild();
+    }
+
+    @Test
+    void givenLoggedEvent_postSameContentWithNewEventId_returnsOriginal() throws Exception {
+        // Arrange
+        UUID originalId = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        postEvent(originalId, Event.EventType.USER_REGISTRATION, TIME).andExpect(status().isCreated());
+
+        // Act
+        ResultActions retryResult = postEvent(UUID.fromString("00000000-0000-0000-0000-000000000002"),
+                Event.EventType.USER_REGISTRATION, TIME);
+        ResultActions sameIdResult = postEvent(originalId, Event.EventType.USER_REGISTRATION, TIME);
+
+        // Assert
+        retryResult.andExpect(status().isOk()).andExpect(jsonPath("$.eventId").value(originalId.toString()));
+        sameIdResult.andExpect(status().isOk()).andExpect(jsonPath("$.eventId").value(originalId.toString()));
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    void givenDifferentContent_postEvents_logsEachWithoutSearchingStore() throws Exception {
+        // Arrange
+        UUID firstId = UUID.randomUUID();
+        postEvent(firstId, Event.EventType.USER_REGISTRATION, TIME).andExpect(status().isCreated());
+
+        // Act
+        ResultActions otherTypeResult = postEvent(UUID.randomUUID(), Event.EventType.USER_DELETED, TIME);
+        ResultActions otherTimeResult = postEvent(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, TIME.plusSeconds(1));
+        ResultActions sameIdResult = postEvent(firstId, Event.EventType.USER_DELETED, TIME.plusSeconds(2));
+
+        // Assert
+        otherTypeResult.andExpect(status().isCreated());
+        otherTimeResult.andExpect(status().isCreated());
+        sameIdResult.andExpect(status().isConflict()); // A different Event reusing an eventId is still a conflict
+        assertEquals(3, repository.count());
+        // 1000 expected events at 1% is 9586 bits, these few Events shouldn't collide
+        verify(eventRepositoryDao, never()).findEventLike(any());
+    }
+
+    @Test
+    void givenStoredEvents_createDeduplicator_rebuildsFilterFromStore() throws Exception {
+        // Arrange
+        Event stored = new Event(UUID.randomUUID(), Event.EventType.USER_DEACTIVATED, USER_ID, TIME);
+        Event notStored = new Event(UUID.randomUUID(), Event.EventType.USER_DEACTIVATED, USER_ID, TIME.plusDays(1));
+        eventRepositoryDao.addEvent(stored);
+
+        // Act
+        EventDeduplicator rebuilt = new EventDeduplicator(eventRepositoryDao, metrics, 1000, 0.01);
+
+        // Assert
+        assertTrue(rebuilt.mightContain(stored.getEventHash()));
+        assertFalse(rebuilt.mightContain(notStored.getEventHash()));
+        assertEquals(stored, eventRepositoryDao.findEventLike(
+                new Event(UUID.randomUUID(), Event.EventType.USER_DEACTIVATED, USER_ID, TIME)));
+    }
+
+    private ResultActions postEvent(UUID eventId, Event.EventType eventType, LocalDateTime time) throws Exception {
+        String eventJson = "{\"eventId\": \"" + eventId + "\", " +
+                "\"time\": \"" + time + "\", " +
+                "\"eventType\": \"" + eventType + "\", " +
+                "\"userId\": \"" + USER_ID + "\"}";
+        return mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson))
+                .andDo(MockMvcResultHandlers.print());
+    }
+}
@@ -0,0 +1,272 @@
+package com.fidectus.eventlog.integration;
+
+import com.fidectus.eventlog.Application;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.FeedEvent;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventHashChain;
+import com.fidectus.eventlog.persistence.EventRepository;
+import com.fidectus.eventlog.services.EventFeed;
+import com.fidectus.eventlog.services.EventLogMetrics;
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = "eventlog.feed.replay-size=3")
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+class EventLogV1FeedIntegrationTest {
+    private static final UUID USER_ID = UUID.fromString("10000000-1111-1111-1111-000000000001");
+    private static final LocalDateTime TIME = LocalDateTime.of(2020, 1, 1, 12, 0);
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private EventCache eventCache;
+
+    @Autowired
+    private EventHashChain hashChain;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    private void teardown() {
+        repository.deleteAll();
+        eventCache.invalidateAll();
+        hashChain.invalidateAll();
+    }
+
+    @Test
+    void givenSubscriber_postEvents_streamsUsersEventsAndResumesAfterLastEventId() throws Exception {
+        // Arrange
+        MvcResult userFeed = mvc.perform(get("/api/v1/events/stream").param("userId", USER_ID.toString())
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Act
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(UUID.randomUUID(), USER_ID, "USER_REGISTRATION")))
+                .andExpect(status().isCreated());
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(UUID.randomUUID(), UUID.randomUUID(), "USER_REGISTRATION")))
+                .andExpect(status().isCreated());
+        mvc.perform(post("/api/v1/events").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[" + eventJson(UUID.randomUUID(), USER_ID, "USER_DELETED") + "]"))
+                .andExpect(status().isOk());
+        List<Map<String, String>> userMessages = awaitMessages(userFeed, 2);
+
+        MvcResult resumedFeed = mvc.perform(get("/api/v1/events/stream")
+                .header("Last-Event-ID", userMessages.get(0).get("id"))
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        List<Map<String, String>> resumedMessages = awaitMessages(resumedFeed, 2);
+
+        // Assert
+        assertEquals("event", userMessages.get(0).get("event"));
+        assertEquals("USER_REGISTRATION", JsonPath.read(userMessages.get(0).get("data"), "$.eventType"));
+        assertEquals("USER_DELETED", JsonPath.read(userMessages.get(1).get("data"), "$.eventType"));
+        assertEquals(USER_ID.toString(), JsonPath.read(userMessages.get(1).get("data"), "$.userId"));
+        // The other user's Event, then the user's second, replayed in the order they were logged
+        assertEquals("USER_REGISTRATION", JsonPath.read(resumedMessages.get(0).get("data"), "$.eventType"));
+        assertEquals(userMessages.get(1).get("id"), resumedMessages.get(1).get("id"));
+    }
+
+    @Test
+    void givenLastEventIdOfAnotherRun_subscribe_sendsGapThenReplay() throws Exception {
+        // Arrange
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(UUID.randomUUID(), USER_ID, "USER_REGISTRATION")))
+                .andExpect(status().isCreated());
+
+        // Act
+        MvcResult feed = mvc.perform(get("/api/v1/events/stream").param("lastEventId", "1-1")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        List<Map<String, String>> messages = awaitMessages(feed, 2);
+
+        // Assert
+        assertEquals("gap", messages.get(0).get("event"));
+        assertEquals("1-1", messages.get(0).get("id"));
+        assertEquals("event", messages.get(1).get("event"));
+    }
+
+    @Test
+    void givenSlowSubscriber_publishMoreThanItsBuffer_closesSubscription() throws Exception {
+        // Arrange
+        EventLogMetrics metrics = new EventLogMetrics(meterRegistry);
+        double overflowsBefore = meterRegistry.counter("eventlog.feed.overflows").count();
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        List<FeedEvent> received = new ArrayList<>();
+        EventFeed.Subscriber subscriber = new EventFeed.Subscriber() {
+            @Override
+            public void send(FeedEvent feedEvent) {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(feedEvent);
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        };
+
+        // Act
+        try (EventFeed feed = new EventFeed(metrics, 100, 2, 1)) {
+            feed.subscribe(null, null, null, subscriber);
+            feed.publish(new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, USER_ID, TIME));
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            // The first is being sent, two more fill the buffer and the fourth overflows it
+            for (int i = 1; i <= 3; i++) {
+                feed.publish(new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, USER_ID, TIME.plusMinutes(i)));
+            }
+            release.countDown();
+
+            // Assert
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            assertEquals(0, feed.getSubscriberCount());
+        }
+        assertEquals(1, received.size());
+        assertEquals(overflowsBefore + 1, meterRegistry.counter("eventlog.feed.overflows").count());
+    }
+
+    @Test
+    void givenDefaultSizes_resumeFromFarBehindAndAfterRestart_replaysEverythingWithoutClosing() throws Exception {
+        // Arrange
+        EventLogMetrics metrics = new EventLogMetrics(meterRegistry);
+        double overflowsBefore = meterRegistry.counter("eventlog.feed.overflows").count();
+        int replaySize = 10000;
+        int subscriberBuffer = 1000;
+        // Ten short of the replay, so the Events published while it is being sent don't overwrite it
+        int published = replaySize - 10;
+        CollectingSubscriber first = new CollectingSubscriber(1);
+        CollectingSubscriber resumed = new CollectingSubscriber(published - 1 + 5);
+        CollectingSubscriber restarted = new CollectingSubscriber(1 + published + 5);
+
+        // Act
+        try (EventFeed feed = new EventFeed(metrics, replaySize, subscriberBuffer, 2)) {
+            EventFeed.Subscription firstSubscription = feed.subscribe(null, null, null, first);
+            feed.publish(new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, USER_ID, TIME));
+            assertTrue(first.received.await(5, TimeUnit.SECONDS));
+            firstSubscription.cancel();
+            for (int i = 1; i < published; i++) {
+                feed.publish(new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, USER_ID, TIME.plusSeconds(i)));
+            }
+            feed.subscribe(null, null, first.messages.get(0).getId(), resumed);
+            feed.subscribe(null, null, "1-1", restarted);
+            // Published while the replay is being sent
+            for (int i = 0; i < 5; i++) {
+                feed.publish(new Event(UUID.randomUUID(), Event.EventType.USER_DELETED, USER_ID, TIME.plusDays(1).plusSeconds(i)));
+            }
+
+            // Assert
+            assertTrue(resumed.received.await(10, TimeUnit.SECONDS));
+            assertTrue(restarted.received.await(10, TimeUnit.SECONDS));
+            assertEquals(2, feed.getSubscriberCount());
+        }
+        assertEquals(overflowsBefore, meterRegistry.counter("eventlog.feed.overflows").count());
+        long sequence = Long.parseLong(first.messages.get(0).getId().split("-")[1]);
+        for (FeedEvent feedEvent : resumed.messages) {
+            assertEquals(FeedEvent.Kind.EVENT, feedEvent.getKind());
+            assertEquals(++sequence, Long.parseLong(feedEvent.getId().split("-")[1]));
+        }
+        assertEquals(FeedEvent.Kind.GAP, restarted.messages.get(0).getKind());
+        assertEquals(first.messages.get(0).getId(), restarted.messages.get(1).getId());
+        assertEquals(Event.EventType.USER_DELETED, restarted.messages.get(1 + published).getEvent().getEventType());
+    }
+
+    // Waits for count server-sent events, each as a map of its fields, ignoring heartbeats
+    private static List<Map<String, String>> awaitMessages(MvcResult feed, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<Map<String, String>> messages;
+        do {
+            messages = new ArrayList<>();
+            for (String block : feed.getResponse().getContentAsString().split("\n\n")) {
+                Map<String, String> message = new LinkedHashMap<>();
+                for (String line : block.split("\n")) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        message.put(line.substring(0, colon), line.substring(colon + 1));
+                    }
+                }
+                if (message.containsKey("event")) {
+                    messages.add(message);
+                }
+            }
+            if (messages.size() >= count) {
+                return messages;
+            }
+            Thread.sleep(20);
+        } while (System.currentTimeMillis() < deadline);
+        throw new AssertionError("Expected " + count + " messages but got " + messages);
+    }
+
+    // Collects the messages sent to it, until expected have been
+    private static class CollectingSubscriber implements EventFeed.Subscriber {
+        private final List<FeedEvent> messages = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch received;
+
+        CollectingSubscriber(int expected) {
+            this.received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void send(FeedEvent feedEvent) {
+            if (feedEvent.getKind() != FeedEvent.Kind.HEARTBEAT) {
+                messages.add(feedEvent);
+                received.countDown();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static String eventJson(UUID eventId, UUID userId, String eventType) {
+        return "{\"eventId\": \"" + eventId + "\", " +
+                "\"time\": \"" + TIME + "\", " +
+                "\"eventType\": \"" + eventType + "\", " +
+                "\"userId\": \"" + userId + "\"}";
+    }
+}
@@ -5,30 +5,63 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fidectus.eventlog.Application;
 import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBinaryFormat;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventHashChain;
 import com.fidectus.eventlog.persistence.EventRepository;
+import com.fidectus.eventlog.services.EventCounters;
+import com.jayway.jsonpath.JsonPath;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
 
+import javax.persistence.EntityManagerFactory;
+import java.nio.ByteBuffer;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = {"spring.jpa.properties.hibernate.generate_statistics=true", // To count statements sent to the DB
+                "eventlog.archive.directory=target/archive-integration-test",
+                "eventlog.archive.block-size=4", // Small blocks so archives hold several
+                "eventlog.archive.drop-indexes=true"})
 @AutoConfigureMockMvc
 @AutoConfigureTestDatabase
 class EventLogV1IntegrationTest {
@@ -39,9 +72,29 @@ class EventLogV1IntegrationTest {
     @Autowired
     private EventRepository repository;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private EventCache eventCache;
+
+    @Autowired
+    private EventHashChain hashChain;
+
+    @Autowired
+    private EventCounters counters;
+
     @AfterEach
     private void teardown() {
         repository.deleteAll();
+        eventCache.invalidateAll();
+        hashChain.invalidateAll();
     }
 
     @Test
@@ -90,4 +143,682 @@ class EventLogV1IntegrationTest {
 
         getEventsForUserResult.andExpect(status().isOk()).andExpect(content().string(listEventsAsJson)); // List of 1 Event
     }
+
+    @Test
+    void givenEventBatch_postEventsAsJsonThenNdjson_createsEachEventOnce() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID firstEventId = UUID.fromString("00000000-0000-0000-aaaa-000000000000");
+        UUID secondEventId = UUID.fromString("00000000-0000-0000-bbbb-000000000000");
+        UUID thirdEventId = UUID.fromString("00000000-0000-0000-cccc-000000000000");
+
+        String jsonBatch = "[" + eventJson(firstEventId, userId) + "," +
+                eventJson(secondEventId, userId) + "," +
+                eventJson(firstEventId, userId) + "]"; // Duplicate within the batch
+        String ndjsonBatch = eventJson(secondEventId, userId) + "\n" + // Duplicate of an event already in DB
+                eventJson(thirdEventId, userId) + "\n";
+
+        // Act
+        ResultActions jsonResult = mvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(jsonBatch))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions ndjsonResult = mvc.perform(post("/api/v1/events")
+                .contentType("application/x-ndjson")
+                .content(ndjsonBatch))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        jsonResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].status").value(contains("CREATED", "CREATED", "DUPLICATE")));
+        ndjsonResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].status").value(contains("DUPLICATE", "CREATED")));
+
+        assertEquals(3, repository.count());
+        assertEquals(3, repository.findAllByUserId(userId).size());
+    }
+
+    @Test
+    void givenEventWithTimeOutOfRangeInBatch_postEvents_reportsItInvalidAndCreatesTheRest() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID firstEventId = UUID.fromString("00000000-0000-0000-aaaa-000000000000");
+        UUID outOfRangeEventId = UUID.fromString("00000000-0000-0000-bbbb-000000000000");
+        UUID thirdEventId = UUID.fromString("00000000-0000-0000-cccc-000000000000");
+        String batch = "[" + eventJson(firstEventId, userId) + "," +
+                eventJson(outOfRangeEventId, userId, LocalDateTime.of(300000, 1, 1, 0, 0)) + "," +
+                eventJson(thirdEventId, userId) + "]";
+
+        // Act
+        ResultActions result = mvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(batch))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].status").value(contains("CREATED", "INVALID", "CREATED")))
+                .andExpect(jsonPath("$[1].error").value("Invalid Date-Time format submitted. Please use 2000-01-01T12:00 instead."));
+        assertEquals(2, repository.count());
+        assertTrue(repository.findById(outOfRangeEventId).isEmpty());
+    }
+
+    @Test
+    void givenEvent_postEventTwice_insertsOnceThenReturnsConflict() throws Exception {
+        // Arrange
+        UUID eventId = UUID.fromString("00000000-0000-0000-0000-000000000000");
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        // The user's first event also reads the end of their hash chain, which is then cached
+        mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(UUID.fromString("00000000-0000-0000-ffff-000000000000"), userId)))
+                .andExpect(status().isCreated());
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // Act
+        ResultActions firstPostResult = mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(eventId, userId)))
+                .andDo(MockMvcResultHandlers.print());
+        long firstPostStatements = statistics.getPrepareStatementCount();
+
+        ResultActions secondPostResult = mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(eventId, UUID.fromString("20000000-2222-2222-2222-000000000002"))))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        firstPostResult.andExpect(status().isCreated());
+        assertEquals(1, firstPostStatements); // Single INSERT, no SELECT beforehand
+
+        secondPostResult.andExpect(status().isConflict());
+        assertEquals(userId, repository.findById(eventId).orElseThrow().getUserId()); // Original is not overwritten
+    }
+
+    @Test
+    void givenEvents_postMultiGet_returnsFoundAndNotFoundWithOneQuery() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID firstEventId = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        UUID secondEventId = UUID.fromString("00000000-0000-0000-0000-000000000002");
+        UUID missingEventId = UUID.fromString("00000000-0000-0000-0000-000000000003");
+        mvc.perform(post("/api/v1/events").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[" + eventJson(firstEventId, userId) + ", " + eventJson(secondEventId, userId) + "]"))
+                .andExpect(status().isOk());
+        eventCache.invalidateAll();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // Act
+        ResultActions result = mvc.perform(post("/api/v1/event/_mget").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[\"" + secondEventId + "\", \"" + missingEventId + "\", \"" + firstEventId + "\"]"))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.events[*].eventId", contains(secondEventId.toString(), firstEventId.toString())))
+                .andExpect(jsonPath("$.events[0].userId").value(userId.toString()))
+                .andExpect(jsonPath("$.notFound", contains(missingEventId.toString())));
+        assertEquals(1, statistics.getPrepareStatementCount()); // One IN query for all three
+    }
+
+    @Test
+    void givenManyEvents_getEventsForUserFollowingNextLinks_returnsAllEventsInTimeOrder() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        StringBuilder batch = new StringBuilder();
+        for (int day = 5; day >= 1; day--) { // Logged in reverse time order
+            batch.append(eventJson(UUID.randomUUID(), userId, LocalDateTime.of(2020, 1, day, 12, 0))).append("\n");
+        }
+        batch.append(eventJson(UUID.randomUUID(), UUID.randomUUID(), LocalDateTime.of(2020, 1, 3, 12, 0))); // Another user
+        mvc.perform(post("/api/v1/events").contentType("application/x-ndjson").content(batch.toString()))
+                .andExpect(status().isOk());
+
+        // Act
+        List<String> times = new ArrayList<>();
+        String nextPage = "/api/v1/event/user/" + userId + "?limit=2&from=2020-01-02T00:00";
+        int pages = 0;
+        while (nextPage != null) {
+            MvcResult pageResult = mvc.perform(get(nextPage))
+                    .andDo(MockMvcResultHandlers.print())
+                    .andExpect(status().isOk())
+                    .andReturn();
+            times.addAll(JsonPath.read(pageResult.getResponse().getContentAsString(), "$[*].time"));
+            String link = pageResult.getResponse().getHeader(HttpHeaders.LINK);
+            nextPage = link == null ? null : link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+            pages++;
+        }
+
+        // Assert
+        assertEquals(List.of("2020-01-02T12:00:00", "2020-01-03T12:00:00", "2020-01-04T12:00:00", "2020-01-05T12:00:00"), times);
+        assertEquals(2, pages);
+    }
+
+    @Test
+    void givenEventsOfTypes_getEventFieldsForUserOfTypeFollowingNextLinks_returnsOnlyFieldsWithoutLoadingEvents() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        StringBuilder batch = new StringBuilder();
+        for (int day = 6; day >= 1; day--) { // Logged in reverse time order
+            String eventType = day % 2 == 0 ? "USER_DELETED" : "USER_REGISTRATION";
+            batch.append(eventJson(UUID.randomUUID(), userId, LocalDateTime.of(2020, 1, day, 12, 0))
+                    .replace("USER_REGISTRATION", eventType)).append("\n");
+        }
+        mvc.perform(post("/api/v1/events").contentType("application/x-ndjson").content(batch.toString()))
+                .andExpect(status().isOk());
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // Act
+        MvcResult firstPage = mvc.perform(get("/api/v1/event/user/" + userId + "?fields=time,eventType&type=USER_DELETED&limit=2"))
+                .andDo(MockMvcResultHandlers.print())
+                .andExpect(status().isOk())
+                .andReturn();
+        long entitiesLoaded = statistics.getEntityLoadCount();
+        String link = firstPage.getResponse().getHeader(HttpHeaders.LINK);
+        MvcResult secondPage = mvc.perform(get(link.substring(link.indexOf('<') + 1, link.indexOf('>'))))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        // Assert
+        String firstPageJson = firstPage.getResponse().getContentAsString();
+        assertEquals(List.of("2020-01-02T12:00:00", "2020-01-04T12:00:00"), JsonPath.read(firstPageJson, "$[*].time"));
+        assertEquals(List.of("USER_DELETED", "USER_DELETED"), JsonPath.read(firstPageJson, "$[*].eventType"));
+        assertEquals(Set.of("eventType", "time"), JsonPath.<Map<String, Object>>read(firstPageJson, "$[0]").keySet());
+        assertEquals(0, entitiesLoaded); // Only the columns were read
+        assertEquals(List.of("2020-01-06T12:00:00"), JsonPath.read(secondPage.getResponse().getContentAsString(), "$[*].time"));
+        assertNull(secondPage.getResponse().getHeader(HttpHeaders.LINK));
+        mvc.perform(get("/api/v1/event/user/" + userId + "?fields=time,chainHash"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void givenEventsOfManyUsers_getEventsByTimeFollowingNextLinks_returnsEventsInRangeOfTypeInTimeOrder() throws Exception {
+        // Arrange
+        StringBuilder batch = new StringBuilder();
+        for (int day = 6; day >= 1; day--) { // Logged in reverse time order, each by another user
+            String eventType = day % 2 == 0 ? "USER_DELETED" : "USER_REGISTRATION";
+            batch.append(eventJson(UUID.randomUUID(), UUID.randomUUID(), LocalDateTime.of(2020, 1, day, 12, 0))
+                    .replace("USER_REGISTRATION", eventType)).append("\n");
+        }
+        mvc.perform(post("/api/v1/events").contentType("application/x-ndjson").content(batch.toString()))
+                .andExpect(status().isOk());
+
+        // Act
+        List<String> times = new ArrayList<>();
+        String nextPage = "/api/v1/events?from=2020-01-02T00:00&to=2020-01-06T12:00&type=USER_DELETED&limit=1";
+        int pages = 0;
+        while (nextPage != null) {
+            MvcResult pageResult = mvc.perform(get(nextPage))
+                    .andDo(MockMvcResultHandlers.print())
+                    .andExpect(status().isOk())
+                    .andReturn();
+            times.addAll(JsonPath.read(pageResult.getResponse().getContentAsString(), "$[*].time"));
+            String link = pageResult.getResponse().getHeader(HttpHeaders.LINK);
+            nextPage = link == null ? null : link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+            pages++;
+        }
+
+        // Assert
+        assertEquals(List.of("2020-01-02T12:00:00", "2020-01-04T12:00:00"), times);
+        assertEquals(2, pages);
+        mvc.perform(get("/api/v1/events?from=2020-01-02T00:00&to=2020-01-02T00:00"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/v1/events?from=2020-01-02T00:00"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void givenTimeBoundOutOfRange_getEvents_returnsBadRequest() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        String outOfRange = "+300000-01-01T00:00"; // Parsed as a LocalDateTime, but the store can't compare it
+
+        // Act
+        ResultActions byTimeResult = mvc.perform(get("/api/v1/events").param("from", "2020-01-01T00:00").param("to", outOfRange));
+        ResultActions forUserResult = mvc.perform(get("/api/v1/event/user/" + userId).param("from", outOfRange));
+        ResultActions fieldsForUserResult = mvc.perform(get("/api/v1/event/user/" + userId).param("fields", "time").param("to", outOfRange));
+
+        // Assert
+        byTimeResult.andExpect(status().isBadRequest());
+        forUserResult.andExpect(status().isBadRequest());
+        fieldsForUserResult.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void givenManyEvents_streamEventsForUser_returnsAllEventsInTimeOrderAsNdjson() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        StringBuilder batch = new StringBuilder();
+        for (int day = 28; day >= 1; day--) { // Logged in reverse time order
+            batch.append(eventJson(UUID.randomUUID(), userId, LocalDateTime.of(2020, 1, day, 12, 0))).append("\n");
+        }
+        mvc.perform(post("/api/v1/events").contentType("application/x-ndjson").content(batch.toString()))
+                .andExpect(status().isOk());
+
+        // Act
+        MvcResult asyncResult = mvc.perform(get("/api/v1/event/user/" + userId).accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult streamResult = mvc.perform(asyncDispatch(asyncResult))
+                .andDo(MockMvcResultHandlers.print())
+                .andExpect(status().isOk())
+                .andReturn();
+
+        // Assert
+        String[] lines = streamResult.getResponse().getContentAsString().split("\n");
+        assertEquals(28, lines.length);
+        for (int day = 1; day <= 28; day++) {
+            assertEquals(LocalDateTime.of(2020, 1, day, 12, 0).toString() + ":00", JsonPath.read(lines[day - 1], "$.time"));
+        }
+    }
+
+    @Test
+    void givenEvent_getEventTwice_cacheStatisticsCountHit() throws Exception {
+        // Arrange
+        UUID eventId = UUID.fromString("00000000-0000-0000-0000-000000000000");
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        mvc.perform(post("/api/v1/events").contentType(MediaType.APPLICATION_JSON_VALUE).content("[" + eventJson(eventId, userId) + "]"))
+                .andExpect(status().isOk());
+        long hitsBefore = eventCache.stats().hitCount();
+
+        // Act
+        mvc.perform(get("/api/v1/event/" + eventId)).andExpect(status().isOk());
+        mvc.perform(get("/api/v1/event/" + eventId)).andExpect(status().isOk());
+        ResultActions statsResult = mvc.perform(get("/api/v1/admin/cache"))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        // Batch inserts populate the cache, so both GETs are hits
+        statsResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.hitCount").value(hitsBefore + 2))
+                .andExpect(jsonPath("$.size").value(1));
+    }
+
+    @Test
+    void givenBinaryEventBatch_postEventsThenGetEventsForUserAsBinary_returnsSameEvents() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        List<Event> events = new ArrayList<>();
+        for (int day = 1; day <= 3; day++) {
+            events.add(new Event(UUID.randomUUID(), Event.EventType.USER_UPDATED_REGISTRATION_INFO, userId,
+                    LocalDateTime.of(2020, 1, day, 12, 0, 0, 123_456_000)));
+        }
+        ByteBuffer batch = ByteBuffer.allocate(events.size() * EventBinaryFormat.SIZE);
+        events.forEach(event -> EventBinaryFormat.write(batch, event));
+
+        // Act
+        ResultActions postResult = mvc.perform(post("/api/v1/events")
+                .contentType(EventBinaryFormat.MEDIA_TYPE_VALUE)
+                .content(batch.array()))
+                .andDo(MockMvcResultHandlers.print());
+        MvcResult getResult = mvc.perform(get("/api/v1/event/user/" + userId).accept(EventBinaryFormat.MEDIA_TYPE_VALUE))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        // Assert
+        postResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].status").value(contains("CREATED", "CREATED", "CREATED")));
+        ByteBuffer body = ByteBuffer.wrap(getResult.getResponse().getContentAsByteArray());
+        List<Event> actualEvents = new ArrayList<>();
+        while (body.hasRemaining()) {
+            actualEvents.add(EventBinaryFormat.read(body));
+        }
+        assertEquals(events, actualEvents);
+        assertEquals(events.get(0).getTime(), actualEvents.get(0).getTime()); // Microseconds survive the round trip
+    }
+
+    @Test
+    void givenRequests_getPrometheusEndpoint_returnsRequestStoreAndEventMetrics() throws Exception {
+        // Arrange
+        UUID eventId = UUID.fromString("00000000-0000-0000-0000-000000000000");
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE).content(eventJson(eventId, userId)))
+                .andExpect(status().isCreated());
+        mvc.perform(get("/api/v1/event/" + UUID.randomUUID())).andExpect(status().isNotFound());
+
+        // Act
+        MvcResult scrapeResult = mvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        // Assert
+        String scrape = scrapeResult.getResponse().getContentAsString();
+        assertTrue(scrape.contains("eventlog_events_created_total"));
+        assertTrue(scrape.contains("eventlog_events_not_found_total"));
+        assertTrue(scrape.contains("http_server_requests_seconds_bucket{exception=\"None\",method=\"POST\",outcome=\"SUCCESS\",status=\"201\",uri=\"/api/v1/event\""));
+        assertTrue(scrape.contains("eventlog_service_seconds_bucket{class=\"com.fidectus.eventlog.services.EventLogService\",exception=\"none\",method=\"logEvent\""));
+        assertTrue(scrape.contains("eventlog_store_seconds_bucket{class=\"com.fidectus.eventlog.persistence.EventRepositoryDao\",exception=\"none\",method=\"addEvent\""));
+    }
+
+    @Test
+    void givenEvents_verifyChainFromStartThenFromCheckpoint_verifiesOnlyNewEvents() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID firstEventId = UUID.fromString("00000000-0000-0000-aaaa-000000000000");
+        UUID secondEventId = UUID.fromString("00000000-0000-0000-bbbb-000000000000");
+        UUID thirdEventId = UUID.fromString("00000000-0000-0000-cccc-000000000000");
+        mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(firstEventId, userId)))
+                .andExpect(status().isCreated());
+        mvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[" + eventJson(secondEventId, userId) + "]"))
+                .andExpect(status().isOk());
+
+        // Act
+        ResultActions fullResult = mvc.perform(get("/api/v1/event/user/" + userId + "/verify"))
+                .andDo(MockMvcResultHandlers.print());
+        String checkpointHash = JsonPath.read(fullResult.andReturn().getResponse().getContentAsString(), "$.hash");
+        mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(thirdEventId, userId)))
+                .andExpect(status().isCreated());
+        ResultActions incrementalResult = mvc.perform(get("/api/v1/event/user/" + userId + "/verify")
+                .param("sequence", "2")
+                .param("hash", checkpointHash))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        fullResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.valid").value(true))
+                .andExpect(jsonPath("$.fromSequence").value(0))
+                .andExpect(jsonPath("$.verifiedEvents").value(2))
+                .andExpect(jsonPath("$.sequence").value(2));
+        assertEquals(64, checkpointHash.length());
+        incrementalResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.valid").value(true))
+                .andExpect(jsonPath("$.fromSequence").value(2))
+                .andExpect(jsonPath("$.verifiedEvents").value(1))
+                .andExpect(jsonPath("$.sequence").value(3));
+    }
+
+    @Test
+    void givenTamperedEvent_verifyChain_reportsWhereChainBreaks() throws Exception {
+        // Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID firstEventId = UUID.fromString("00000000-0000-0000-aaaa-000000000000");
+        UUID secondEventId = UUID.fromString("00000000-0000-0000-bbbb-000000000000");
+        mvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[" + eventJson(firstEventId, userId) + "," + eventJson(secondEventId, userId) + "]"))
+                .andExpect(status().isOk());
+        // Change the second event's type behind the application's back
+        jdbcTemplate.update("update event set event_type = 1 where event_id = ?", toBytes(secondEventId));
+
+        // Act
+        ResultActions verifyResult = mvc.perform(get("/api/v1/event/user/" + userId + "/verify"))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions badCheckpointResult = mvc.perform(get("/api/v1/event/user/" + userId + "/verify")
+                .param("sequence", "1"))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        verifyResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.valid").value(false))
+                .andExpect(jsonPath("$.sequence").value(1))
+                .andExpect(jsonPath("$.brokenEventId").value(secondEventId.toString()))
+                .andExpect(jsonPath("$.error").value("Hash does not match at sequence 2"));
+        badCheckpointResult.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void givenEvents_getStatsBeforeAndAfterFlush_countsEventsWithoutReadingThem() throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        long globalTotalBefore = ((Number) JsonPath.read(mvc.perform(get("/api/v1/event/stats"))
+                .andReturn().getResponse().getContentAsString(), "$.total")).longValue();
+        mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(UUID.randomUUID(), userId, LocalDateTime.of(2020, 1, 1, 10, 30))))
+                .andExpect(status().isCreated());
+        mvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[" + eventJson(UUID.randomUUID(), userId, LocalDateTime.of(2020, 1, 1, 11, 0)) + "," +
+                        eventJson(UUID.randomUUID(), userId, LocalDateTime.of(2020, 1, 3, 9, 15)) + "]"))
+                .andExpect(status().isOk());
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // Act
+        ResultActions unflushedResult = mvc.perform(get("/api/v1/event/user/" + userId + "/stats"))
+                .andDo(MockMvcResultHandlers.print());
+        counters.flush();
+        ResultActions flushedResult = mvc.perform(get("/api/v1/event/user/" + userId + "/stats").param("interval", "HOUR"))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions globalResult = mvc.perform(get("/api/v1/event/stats"))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        unflushedResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(3))
+                .andExpect(jsonPath("$.countsByType.USER_REGISTRATION").value(3))
+                .andExpect(jsonPath("$.countsByType.USER_DELETED").value(0))
+                .andExpect(jsonPath("$.firstEventTime").value("2020-01-01T10:30:00"))
+                .andExpect(jsonPath("$.lastEventTime").value("2020-01-03T09:15:00"))
+                .andExpect(jsonPath("$.interval").value("DAY"))
+                .andExpect(jsonPath("$.eventsPerInterval['2020-01-01T00:00']").value(2))
+                .andExpect(jsonPath("$.eventsPerInterval['2020-01-03T00:00']").value(1));
+        flushedResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(3))
+                .andExpect(jsonPath("$.interval").value("HOUR"))
+                .andExpect(jsonPath("$.eventsPerInterval['2020-01-01T10:00']").value(1))
+                .andExpect(jsonPath("$.eventsPerInterval['2020-01-01T11:00']").value(1))
+                .andExpect(jsonPath("$.eventsPerInterval['2020-01-03T09:00']").value(1));
+        globalResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.userId").doesNotExist())
+                .andExpect(jsonPath("$.total").value(globalTotalBefore + 3));
+        assertEquals(0, statistics.getEntityLoadCount()); // No Events were read
+        assertEquals(3L, (long) jdbcTemplate.queryForObject(
+                "select count(*) from user_event_counts where user_id = ?", Long.class, toBytes(userId)));
+    }
+
+    @Test
+    void givenEventsOfTwoUsers_exportDeleteAllThenImportTwice_restoresEventsAndChainsOnce() throws Exception {
+        // Arrange
+        UUID firstUserId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID secondUserId = UUID.fromString("10000000-1111-1111-1111-000000000002");
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 10; i++) {
+            batch.append(i == 0 ? "" : ",")
+                    .append(eventJson(UUID.randomUUID(), i % 2 == 0 ? firstUserId : secondUserId, LocalDateTime.of(2020, 1, 1, 12, i)));
+        }
+        mvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(batch.append("]").toString()))
+                .andExpect(status().isOk());
+        List<Event> exportedEvents = allEvents();
+
+        // Act
+        MvcResult exportResult = mvc.perform(post("/api/v1/admin/export"))
+                .andDo(MockMvcResultHandlers.print())
+                .andReturn();
+        String file = JsonPath.read(exportResult.getResponse().getContentAsString(), "$.file");
+        repository.deleteAll();
+        hashChain.invalidateAll();
+        ResultActions importResult = mvc.perform(post("/api/v1/admin/import").param("file", file))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions secondImportResult = mvc.perform(post("/api/v1/admin/import").param("file", file));
+        ResultActions outsideDirectoryResult = mvc.perform(post("/api/v1/admin/import").param("file", "../" + file));
+
+        // Assert
+        assertEquals(200, exportResult.getResponse().getStatus());
+        assertEquals(10, (int) JsonPath.read(exportResult.getResponse().getContentAsString(), "$.events"));
+        importResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.events").value(10))
+                .andExpect(jsonPath("$.skipped").value(0));
+        secondImportResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.events").value(0))
+                .andExpect(jsonPath("$.skipped").value(10));
+        outsideDirectoryResult.andExpect(status().isBadRequest());
+        List<Event> importedEvents = allEvents();
+        assertEquals(10, importedEvents.size());
+        for (Event exported : exportedEvents) {
+            Event imported = importedEvents.stream()
+                    .filter(event -> event.getEventId().equals(exported.getEventId()))
+                    .findFirst().orElseThrow();
+            assertEquals(exported, imported);
+            assertEquals(exported.getChainSequence(), imported.getChainSequence());
+            assertArrayEquals(exported.getChainHash(), imported.getChainHash());
+        }
+        mvc.perform(get("/api/v1/event/user/" + firstUserId + "/verify"))
+                .andExpect(jsonPath("$.valid").value(true))
+                .andExpect(jsonPath("$.verifiedEvents").value(5));
+        // Indexes dropped for the import into the empty table are back
+        assertEquals(List.of("USER_ID", "TIME"), indexColumns("idx_event_user_id_time"));
+        assertEquals(List.of("TIME", "EVENT_ID"), indexColumns("idx_event_time"));
+    }
+
+    @Test
+    void givenOtherChainOfOneUserStored_importExport_skipsOnlyThatUsersEvents() throws Exception {
+        // Arrange
+        UUID firstUserId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID secondUserId = UUID.fromString("10000000-1111-1111-1111-000000000002");
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 10; i++) {
+            batch.append(i == 0 ? "" : ",")
+                    .append(eventJson(UUID.randomUUID(), i % 2 == 0 ? firstUserId : secondUserId, LocalDateTime.of(2020, 1, 1, 12, i)));
+        }
+        mvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(batch.append("]").toString()))
+                .andExpect(status().isOk());
+        MvcResult exportResult = mvc.perform(post("/api/v1/admin/export")).andReturn();
+        String file = JsonPath.read(exportResult.getResponse().getContentAsString(), "$.file");
+        repository.deleteAll();
+        hashChain.invalidateAll();
+        mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(UUID.randomUUID(), firstUserId, LocalDateTime.of(2019, 1, 1, 12, 0))))
+                .andExpect(status().isCreated());
+
+        // Act
+        ResultActions importResult = mvc.perform(post("/api/v1/admin/import").param("file", file))
+                .andDo(MockMvcResultHandlers.print());
+
+        // Assert
+        importResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$.events").value(5))
+                .andExpect(jsonPath("$.skipped").value(5));
+        mvc.perform(get("/api/v1/event/user/" + firstUserId + "/verify"))
+                .andExpect(jsonPath("$.valid").value(true))
+                .andExpect(jsonPath("$.verifiedEvents").value(1));
+        mvc.perform(get("/api/v1/event/user/" + secondUserId + "/verify"))
+                .andExpect(jsonPath("$.valid").value(true))
+                .andExpect(jsonPath("$.verifiedEvents").value(5));
+    }
+
+    @Test
+    void eventTable_hasUserIdTimeIndex() {
+        assertEquals(List.of("USER_ID", "TIME"), indexColumns("idx_event_user_id_time"));
+    }
+
+    @Test
+    void eventTable_hasTimeIndex() {
+        assertEquals(List.of("TIME", "EVENT_ID"), indexColumns("idx_event_time"));
+    }
+
+    @Test
+    void highThroughputProfile_isActiveByDefault() {
+        SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+
+        assertTrue(List.of(applicationContext.getEnvironment().getActiveProfiles()).contains("high-throughput"));
+        assertEquals(500, sessionFactory.getSessionFactoryOptions().getJdbcBatchSize());
+        assertTrue(sessionFactory.getSessionFactoryOptions().isOrderInsertsEnabled());
+    }
+
+    @Test
+    void givenEvents_getRequests_readInReadOnlyTransactionsWithoutFlushing() throws Exception {
+        // Arrange
+        UUID eventId = UUID.fromString("00000000-0000-0000-0000-000000000000");
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE).content(eventJson(eventId, userId)))
+                .andExpect(status().isCreated());
+        eventCache.invalidateAll();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // Act
+        mvc.perform(get("/api/v1/event/" + eventId)).andExpect(status().isOk());
+        mvc.perform(get("/api/v1/event/user/" + userId)).andExpect(status().isOk());
+        mvc.perform(get("/api/v1/events?from=2020-01-01T00:00&to=2020-01-02T00:00")).andExpect(status().isOk());
+
+        // Assert
+        assertEquals(3, statistics.getSuccessfulTransactionCount()); // One per read
+        assertEquals(0, statistics.getFlushCount()); // Nothing dirty-checked at commit
+        // So the session, and its connection, is closed when each read ends rather than after the response is written
+        assertTrue(applicationContext.getBeansOfType(OpenEntityManagerInViewInterceptor.class).isEmpty());
+    }
+
+    @Test
+    void eventTable_hasCompactColumnTypes() throws Exception {
+        // Column types are H2's, see db/migration/postgresql for the PostgreSQL ones
+        assumeTrue("H2".equals(jdbcTemplate.execute(
+                (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName())));
+        // Arrange
+        UUID eventId = UUID.fromString("00000000-0000-0000-0000-000000000000");
+        mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(eventId, UUID.fromString("10000000-1111-1111-1111-000000000001"),
+                        LocalDateTime.of(2020, 1, 1, 0, 0, 0, 1000))))
+                .andExpect(status().isCreated());
+
+        // Act
+        List<String> columnTypes = jdbcTemplate.queryForList(
+                "select column_name || ' ' || type_name || '(' || character_maximum_length || ')' from information_schema.columns " +
+                        "where table_name = 'EVENT' order by column_name",
+                String.class);
+        Long time = jdbcTemplate.queryForObject("select time from event", Long.class);
+        Integer eventType = jdbcTemplate.queryForObject("select event_type from event", Integer.class);
+
+        // Assert
+        // H2 1.4 reports BINARY columns as VARBINARY
+        assertEquals(List.of("CHAIN_HASH VARBINARY(32)", "CHAIN_SEQUENCE BIGINT(19)", "EVENT_HASH INTEGER(10)", "EVENT_ID VARBINARY(16)", "EVENT_TYPE TINYINT(3)",
+                "TIME BIGINT(19)", "USER_ID VARBINARY(16)"), columnTypes);
+        assertEquals(1_577_836_800_000_001L, time); // Epoch micros
+        assertEquals(0, eventType); // USER_REGISTRATION ordinal
+    }
+
+    // Upper case column names of the event table's index, in order, through the JDBC metadata of whichever database is used
+    private List<String> indexColumns(String indexName) {
+        return jdbcTemplate.execute((ConnectionCallback<List<String>>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String table = metaData.storesUpperCaseIdentifiers() ? "EVENT" : "event";
+            List<String> columns = new ArrayList<>();
+            try (ResultSet indexInfo = metaData.getIndexInfo(null, null, table, false, false)) {
+                while (indexInfo.next()) {
+                    if (indexName.equalsIgnoreCase(indexInfo.getString("INDEX_NAME"))) {
+                        columns.add(indexInfo.getString("COLUMN_NAME").toUpperCase(Locale.ROOT));
+                    }
+                }
+            }
+            return columns;
+        });
+    }
+
+    private List<Event> allEvents() {
+        List<Event> events = new ArrayList<>();
+        repository.findAll().forEach(events::add);
+        return events;
+    }
+
+    private static String eventJson(UUID eventId, UUID userId) {
+        return eventJson(eventId, userId, LocalDateTime.of(2020, 1, 1, 12, 0));
+    }
+
+    private static String eventJson(UUID eventId, UUID userId, LocalDateTime time) {
+        return "{\"eventId\": \"" + eventId + "\", " +
+                "\"time\": \"" + time + "\", " +
+                "\"eventType\": \"USER_REGISTRATION\", " +
+                "\"userId\": \"" + userId + "\"}";
+    }
+
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
 }
@@ -0,0 +1,495 @@
+package com.fidectus.eventlog.integration;
+
+import com.fidectus.eventlog.Application;
+import com.fidectus.eventlog.dto.ChainVerification;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.dto.EventField;
+import com.fidectus.eventlog.dto.EventProjection;
+import com.fidectus.eventlog.persistence.EventHashChain;
+import com.fidectus.eventlog.persistence.EventRepository;
+import com.fidectus.eventlog.persistence.EventStore;
+import com.fidectus.eventlog.persistence.archive.EventArchiveReader;
+import com.fidectus.eventlog.persistence.archive.EventArchiveWriter;
+import com.fidectus.eventlog.persistence.segment.FsyncPolicy;
+import com.fidectus.eventlog.persistence.segment.SegmentLogEventStore;
+import com.fidectus.eventlog.services.EventLogService;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = {"eventlog.storage.engine=segment-log",
+                "eventlog.storage.segment.directory=" + EventLogV1SegmentLogIntegrationTest.DIRECTORY,
+                "eventlog.storage.segment.records-per-segment=16"}) // Small segments so tests roll over to new files
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+class EventLogV1SegmentLogIntegrationTest {
+    static final String DIRECTORY = "target/segment-log-integration-test";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @Autowired
+    private EventRepository repository;
+
+    @BeforeAll
+    static void cleanDirectory() {
+        FileSystemUtils.deleteRecursively(Paths.get(DIRECTORY).toFile());
+    }
+
+    @Test
+    void givenEvent_postEventThenGetEvent_returnsEventFromLog() throws Exception {
+        // Arrange
+        UUID eventId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+
+        // Act
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE).content(eventJson(eventId, userId)))
+                .andDo(MockMvcResultHandlers.print())
+                .andExpect(status().isCreated());
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE).content(eventJson(eventId, UUID.randomUUID())))
+                .andDo(MockMvcResultHandlers.print())
+                .andExpect(status().isConflict());
+
+        // Assert
+        assertTrue(eventStore instanceof SegmentLogEventStore);
+        assertEquals(0, repository.count()); // Nothing written to the database
+        mvc.perform(get("/api/v1/event/" + eventId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.userId").value(userId.toString()));
+        mvc.perform(get("/api/v1/event/" + UUID.randomUUID()))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void givenManyEvents_getEventsForUserFollowingNextLinksAndStreaming_returnsAllEventsInTimeOrder() throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        UUID duplicateEventId = UUID.randomUUID();
+        StringBuilder batch = new StringBuilder();
+        for (int day = 28; day >= 1; day--) { // Logged in reverse time order, across several segments
+            UUID eventId = day == 28 ? duplicateEventId : UUID.randomUUID();
+            batch.append(eventJson(eventId, userId, LocalDateTime.of(2020, 1, day, 12, 0))).append("\n");
+            batch.append(eventJson(UUID.randomUUID(), UUID.randomUUID(), LocalDateTime.of(2020, 1, day, 12, 0))).append("\n"); // Another user
+        }
+        batch.append(eventJson(duplicateEventId, userId));
+        MvcResult batchResult = mvc.perform(post("/api/v1/events").contentType("application/x-ndjson").content(batch.toString()))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        // Act
+        List<String> pagedTimes = new ArrayList<>();
+        String nextPage = "/api/v1/event/user/" + userId + "?limit=10";
+        while (nextPage != null) {
+            MvcResult pageResult = mvc.perform(get(nextPage)).andExpect(status().isOk()).andReturn();
+            pagedTimes.addAll(JsonPath.read(pageResult.getResponse().getContentAsString(), "$[*].time"));
+            String link = pageResult.getResponse().getHeader(HttpHeaders.LINK);
+            nextPage = link == null ? null : link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+        }
+        MvcResult asyncResult = mvc.perform(get("/api/v1/event/user/" + userId).accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String[] streamedLines = mvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        // Assert
+        List<String> statuses = JsonPath.read(batchResult.getResponse().getContentAsString(), "$[*].status");
+        assertEquals("DUPLICATE", statuses.get(statuses.size() - 1));
+        assertEquals(28, pagedTimes.size());
+        assertEquals(28, streamedLines.length);
+        for (int day = 1; day <= 28; day++) {
+            String time = LocalDateTime.of(2020, 1, day, 12, 0).toString() + ":00";
+            assertEquals(time, pagedTimes.get(day - 1));
+            assertEquals(time, JsonPath.read(streamedLines[day - 1], "$.time"));
+        }
+    }
+
+    @Test
+    void givenClosedLog_reopen_rebuildsIndexesFromSegments(@TempDir Path directory) throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            events.add(new Event(UUID.randomUUID(), Event.EventType.USER_UPDATED_REGISTRATION_INFO, userId, LocalDateTime.of(2020, 1, 1, 12, 0).plusMinutes(i)));
+        }
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            store.addEvents(events);
+        }
+
+        // Act
+        try (SegmentLogEventStore reopened = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            List<Event> page = reopened.getEventsForUserId(userId, null, null, null, events.get(9), 100);
+
+            // Assert
+            assertEquals(events.get(39), reopened.getEvent(events.get(39).getEventId()));
+            assertNull(reopened.getEvent(UUID.randomUUID()));
+            assertEquals(events.subList(10, 40), page);
+            assertEquals(EventBatchResult.Status.DUPLICATE, reopened.addEvents(List.of(events.get(0))).get(0).getStatus());
+        }
+    }
+
+    @Test
+    void givenClosedLog_reopenAndAddEvent_continuesUsersHashChain(@TempDir Path directory) throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 12, 0);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // Out of time order, the chain follows the order events are stored in
+            events.add(new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, userId, time.minusMinutes(i)));
+        }
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            store.addEvents(events);
+        }
+        Event lateEvent = new Event(UUID.randomUUID(), Event.EventType.USER_DELETED, userId, time.plusDays(1));
+
+        // Act
+        List<Event> chain = new ArrayList<>();
+        try (SegmentLogEventStore reopened = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            reopened.addEvent(lateEvent);
+            reopened.streamChainForUserId(userId, 0, chain::add);
+        }
+
+        // Assert
+        assertEquals(21, chain.size());
+        byte[] hash = EventHashChain.genesisHash();
+        for (int i = 0; i < chain.size(); i++) {
+            assertEquals(i + 1, chain.get(i).getChainSequence());
+            hash = EventHashChain.hash(hash, chain.get(i));
+            assertArrayEquals(hash, chain.get(i).getChainHash());
+        }
+        assertEquals(lateEvent, chain.get(20));
+    }
+
+    @Test
+    void givenTornRecordBeforeValidOnes_reopenAddEventAndReopenAgain_neverReadsRecordsAfterTornOne(@TempDir Path directory) throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(new Event(UUID.randomUUID(), Event.EventType.USER_UPDATED_REGISTRATION_INFO, userId, LocalDateTime.of(2020, 1, 1, 12, 0).plusMinutes(i)));
+        }
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            store.addEvents(events);
+        }
+        // Tear the third record, after an 8 byte header and two 89 byte records, so it fails its CRC
+        Path segment = directory.resolve(String.format("%020d.log", 0));
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[8 + 2 * 89 + 20] ^= 1;
+        Files.write(segment, bytes);
+        Event lateEvent = new Event(UUID.randomUUID(), Event.EventType.USER_DELETED, userId, LocalDateTime.of(2020, 1, 2, 12, 0));
+
+        // Act
+        try (SegmentLogEventStore reopened = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            reopened.addEvent(lateEvent);
+        }
+        List<Event> page;
+        List<Event> chain = new ArrayList<>();
+        try (SegmentLogEventStore reopened = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            page = reopened.getEventsForUserId(userId, null, null, null, null, 100);
+            reopened.streamChainForUserId(userId, 0, chain::add);
+
+            // Assert
+            assertNull(reopened.getEvent(events.get(3).getEventId()));
+            assertNull(reopened.getEvent(events.get(4).getEventId()));
+        }
+        assertEquals(List.of(events.get(0), events.get(1), lateEvent), page);
+        assertEquals(3, chain.size());
+        assertEquals(3, chain.get(2).getChainSequence());
+    }
+
+    @Test
+    void givenLogOfTwoUsers_exportToArchiveAndImportIntoLogWithOtherChainOfOneUser_keepsChainsThatNewEventsContinue(@TempDir Path directory) throws Exception {
+        // Arrange
+        UUID firstUserId = UUID.randomUUID();
+        UUID secondUserId = UUID.randomUUID();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            events.add(new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, i % 3 == 0 ? firstUserId : secondUserId,
+                    LocalDateTime.of(2020, 1, 1, 12, 0).plusMinutes(i)));
+        }
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (SegmentLogEventStore source = new SegmentLogEventStore(directory.resolve("source"), 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100));
+             EventArchiveWriter writer = new EventArchiveWriter(Channels.newChannel(archive), 7)) {
+            source.addEvents(events);
+            source.forEachEvent(event -> {
+                try {
+                    writer.write(event);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+
+        // Act
+        List<Event> imported = new ArrayList<>();
+        List<Event> chain = new ArrayList<>();
+        List<Event> otherChain = new ArrayList<>();
+        Event otherEvent = new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, secondUserId, LocalDateTime.of(2019, 1, 1, 12, 0));
+        Event lateEvent = new Event(UUID.randomUUID(), Event.EventType.USER_DELETED, firstUserId, LocalDateTime.of(2020, 1, 2, 12, 0));
+        try (SegmentLogEventStore target = new SegmentLogEventStore(directory.resolve("target"), 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100));
+             EventArchiveReader reader = new EventArchiveReader(Channels.newChannel(new ByteArrayInputStream(archive.toByteArray())), 7)) {
+            List<List<Event>> blocks = new ArrayList<>();
+            for (List<Event> block = reader.readBlock(); block != null; block = reader.readBlock()) {
+                blocks.add(block);
+            }
+            // The second user already has a chain in the target, which the exported one would fork
+            target.addEvent(otherEvent);
+            target.importEvents(blocks.iterator(), imported::add);
+            target.addEvent(lateEvent);
+            target.streamChainForUserId(firstUserId, 0, chain::add);
+            target.streamChainForUserId(secondUserId, 0, otherChain::add);
+        }
+
+        // Assert
+        assertEquals(10, imported.size());
+        assertEquals(List.of(otherEvent), otherChain);
+        assertEquals(11, chain.size());
+        byte[] hash = EventHashChain.genesisHash();
+        for (int i = 0; i < chain.size(); i++) {
+            assertEquals(i + 1, chain.get(i).getChainSequence());
+            hash = EventHashChain.hash(hash, chain.get(i));
+            assertArrayEquals(hash, chain.get(i).getChainHash());
+        }
+        assertEquals(events.get(27), chain.get(9));
+        assertEquals(lateEvent, chain.get(10));
+    }
+
+    @Test
+    void givenArchiveOfLargerBlocks_readBlock_rejectsItAsCorrupt() throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (EventArchiveWriter writer = new EventArchiveWriter(Channels.newChannel(archive), 8)) {
+            for (int i = 0; i < 8; i++) {
+                Event event = new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, userId, LocalDateTime.of(2020, 1, 1, 12, i));
+                event.setChain(i + 1, EventHashChain.genesisHash());
+                writer.write(event);
+            }
+        }
+
+        // Act
+        try (EventArchiveReader reader = new EventArchiveReader(Channels.newChannel(new ByteArrayInputStream(archive.toByteArray())), 7)) {
+            IOException thrown = assertThrows(IOException.class, reader::readBlock);
+
+            // Assert
+            assertTrue(thrown.getMessage().startsWith("Corrupt event archive block header"), thrown.getMessage());
+        }
+    }
+
+    @Test
+    void givenEventsAcrossSegments_getEventsByTime_returnsPagesOfRangeInTimeOrder(@TempDir Path directory) throws Exception {
+        // Arrange
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 12, 0);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // Late events in every segment, alternating users and types
+            Event.EventType eventType = i % 2 == 0 ? Event.EventType.USER_REGISTRATION : Event.EventType.USER_DELETED;
+            events.add(new Event(UUID.randomUUID(), eventType, new UUID(0, i % 3), time.plusMinutes(i % 5 == 0 ? i - 20 : i)));
+        }
+        List<Event> expected = new ArrayList<>();
+        for (Event event : events) {
+            if (event.getEventType() == Event.EventType.USER_DELETED && !event.getTime().isBefore(time.plusMinutes(5))
+                    && event.getTime().isBefore(time.plusMinutes(35))) {
+                expected.add(event);
+            }
+        }
+        expected.sort((first, second) -> first.getTime().compareTo(second.getTime()));
+
+        // Act
+        List<Event> found = new ArrayList<>();
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            store.addEvents(events);
+            List<Event> page = store.getEventsByTime(time.plusMinutes(5), time.plusMinutes(35), Event.EventType.USER_DELETED, null, 4);
+            while (!page.isEmpty()) {
+                found.addAll(page);
+                page = store.getEventsByTime(time.plusMinutes(5), time.plusMinutes(35), Event.EventType.USER_DELETED, page.get(page.size() - 1), 4);
+            }
+        }
+
+        // Assert
+        assertEquals(expected, found);
+    }
+
+    @Test
+    void givenEventsOfTypesAcrossSegments_getEventFieldsForUserIdOfType_returnsPagesOfOnlyFields(@TempDir Path directory) throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Event.EventType eventType = i % 3 == 0 ? Event.EventType.USER_DELETED : Event.EventType.USER_UPDATED_REGISTRATION_INFO;
+            events.add(new Event(UUID.randomUUID(), eventType, userId, LocalDateTime.of(2020, 1, 1, 12, 0).plusMinutes(i)));
+        }
+        List<LocalDateTime> expected = new ArrayList<>();
+        for (int i = 0; i < 40; i += 3) {
+            expected.add(events.get(i).getTime());
+        }
+
+        // Act
+        List<EventProjection> found = new ArrayList<>();
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            store.addEvents(events);
+            List<EventProjection> page = store.getEventFieldsForUserId(userId, null, null, Event.EventType.USER_DELETED, null, 4, EnumSet.of(EventField.TIME));
+            while (!page.isEmpty()) {
+                found.addAll(page);
+                Event after = store.getEvent(page.get(page.size() - 1).getEventId());
+                page = store.getEventFieldsForUserId(userId, null, null, Event.EventType.USER_DELETED, after, 4, EnumSet.of(EventField.TIME));
+            }
+        }
+
+        // Assert
+        List<LocalDateTime> times = new ArrayList<>();
+        for (EventProjection projection : found) {
+            assertEquals(Set.of("time"), projection.getFields().keySet());
+            times.add((LocalDateTime) projection.getFields().get("time"));
+        }
+        assertEquals(expected, times);
+    }
+
+    @Test
+    void givenOldSegments_dropSegmentsBefore_deletesTheirFilesAndEvents(@TempDir Path directory) throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            events.add(new Event(UUID.randomUUID(), Event.EventType.USER_UPDATED_REGISTRATION_INFO, userId, LocalDateTime.of(2020, 1, 1, 12, 0).plusDays(i)));
+        }
+
+        // Act
+        long dropped;
+        List<Event> chain = new ArrayList<>();
+        List<Event> page;
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            store.addEvents(events);
+            // The second segment has an event after the cutoff, so it and the ones after it are kept
+            dropped = store.dropSegmentsBefore(LocalDateTime.of(2020, 1, 20, 0, 0));
+            page = store.getEventsForUserId(userId, null, null, null, null, 100);
+            store.streamChainForUserId(userId, 19, chain::add);
+
+            // Assert
+            assertNull(store.getEvent(events.get(15).getEventId()));
+            assertEquals(events.get(16), store.getEvent(events.get(16).getEventId()));
+            assertEquals(events.get(15), store.getChainBase(userId));
+            assertEquals(16, store.getChainBase(userId).getChainSequence());
+        }
+        assertEquals(16, dropped);
+        assertEquals(events.subList(16, 40), page);
+        assertEquals(events.subList(19, 40), chain);
+        assertEquals(20, chain.get(0).getChainSequence());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.filter(file -> file.toString().endsWith(".log")).count());
+        }
+        // Everything is past a day's retention, and all but the segment being appended to is dropped on opening
+        try (SegmentLogEventStore reopened = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ofDays(1), new EventHashChain(16, 100))) {
+            assertEquals(events.subList(32, 40), reopened.getEventsForUserId(userId, null, null, null, null, 100));
+        }
+    }
+
+    @Test
+    void givenChainsPartlyAndWhollyDropped_verifyAddEventAndReopen_continuesThemFromTheirBases(@TempDir Path directory) throws Exception {
+        // Arrange
+        UUID partlyDroppedUserId = UUID.randomUUID();
+        UUID whollyDroppedUserId = UUID.randomUUID();
+        UUID keptUserId = UUID.randomUUID();
+        LocalDateTime january = LocalDateTime.of(2020, 1, 1, 12, 0);
+        LocalDateTime march = LocalDateTime.of(2020, 3, 1, 12, 0);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            // The first segment, to be dropped, holds 8 Events of each of two users
+            events.add(new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, i % 2 == 0 ? partlyDroppedUserId : whollyDroppedUserId, january.plusMinutes(i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            // The second segment starts with 4 more of the first user's, and isn't dropped
+            events.add(new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, i < 4 ? partlyDroppedUserId : keptUserId, (i < 4 ? january : march).plusHours(i)));
+        }
+        Event lateEvent = new Event(UUID.randomUUID(), Event.EventType.USER_DELETED, whollyDroppedUserId, march.plusDays(1));
+        EventLogService service = new EventLogService();
+
+        // Act
+        ChainVerification partlyDroppedVerification;
+        try (SegmentLogEventStore store = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            store.addEvents(events);
+            assertEquals(16, store.dropSegmentsBefore(LocalDateTime.of(2020, 2, 1, 0, 0)));
+            ReflectionTestUtils.setField(service, "eventStore", store);
+            partlyDroppedVerification = service.verifyChain(partlyDroppedUserId, null, null);
+            store.addEvent(lateEvent);
+        }
+        List<Event> chain = new ArrayList<>();
+        ChainVerification whollyDroppedVerification;
+        try (SegmentLogEventStore reopened = new SegmentLogEventStore(directory, 16, FsyncPolicy.BATCH, Duration.ofSeconds(1), 1000, Duration.ZERO, new EventHashChain(16, 100))) {
+            reopened.streamChainForUserId(whollyDroppedUserId, 0, chain::add);
+            ReflectionTestUtils.setField(service, "eventStore", reopened);
+            whollyDroppedVerification = service.verifyChain(whollyDroppedUserId, null, null);
+
+            // Assert
+            assertEquals(events.get(15), reopened.getChainBase(whollyDroppedUserId));
+            assertNull(reopened.getChainBase(keptUserId));
+        }
+        assertTrue(partlyDroppedVerification.isValid(), partlyDroppedVerification.getError());
+        assertEquals(8, partlyDroppedVerification.getFromSequence());
+        assertEquals(4, partlyDroppedVerification.getVerifiedEvents());
+        assertEquals(List.of(lateEvent), chain);
+        assertEquals(9, chain.get(0).getChainSequence());
+        assertArrayEquals(EventHashChain.hash(events.get(15).getChainHash(), lateEvent), chain.get(0).getChainHash());
+        assertTrue(whollyDroppedVerification.isValid(), whollyDroppedVerification.getError());
+        assertEquals(8, whollyDroppedVerification.getFromSequence());
+        assertEquals(1, whollyDroppedVerification.getVerifiedEvents());
+    }
+
+    private static String eventJson(UUID eventId, UUID userId) {
+        return eventJson(eventId, userId, LocalDateTime.of(2020, 1, 1, 12, 0));
+    }
+
+    private static String eventJson(UUID eventId, UUID userId, LocalDateTime time) {
+        return "{\"eventId\": \"" + eventId + "\", " +
+                "\"time\": \"" + time + "\", " +
+                "\"eventType\": \"USER_REGISTRATION\", " +
+                "\"userId\": \"" + userId + "\"}";
+    }
+}
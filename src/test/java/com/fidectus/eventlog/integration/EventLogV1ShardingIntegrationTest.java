@@ -0,0 +1,395 @@
+package com.fidectus.eventlog.integration;
+
+import com.fidectus.eventlog.Application;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.ShardRebalanceReport;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventHashChain;
+import com.fidectus.eventlog.persistence.EventRepository;
+import com.fidectus.eventlog.persistence.EventRepositoryDao;
+import com.fidectus.eventlog.persistence.shard.EventShardRebalancer;
+import com.fidectus.eventlog.persistence.shard.EventShards;
+import com.fidectus.eventlog.persistence.shard.ShardRing;
+import com.fidectus.eventlog.persistence.shard.ShardRoutingDataSource;
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Three in-memory H2 shards, whatever backend profile the build runs with
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = {"spring.profiles.active=high-throughput",
+                "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                "eventlog.sharding.enabled=true",
+                "eventlog.sharding.urls=jdbc:h2:mem:sharding-test-0;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE," +
+                        "jdbc:h2:mem:sharding-test-1;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE," +
+                        "jdbc:h2:mem:sharding-test-2;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE) // Keep the shards' DataSource
+class EventLogV1ShardingIntegrationTest {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private EventShards shards;
+
+    @Autowired
+    private ShardRoutingDataSource dataSource;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private EventRepositoryDao eventRepositoryDao;
+
+    @Autowired
+    private EventCache eventCache;
+
+    @Autowired
+    private EventHashChain hashChain;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private EventShardRebalancer rebalancer;
+
+    @AfterEach
+    private void teardown() {
+        shards.runOnEach(repository::deleteAll);
+        new JdbcTemplate(dataSource.getShardDataSources().get("shard0")).update("delete from event_owner");
+        eventCache.invalidateAll();
+        hashChain.invalidateAll();
+    }
+
+    @Test
+    void givenEventsOfManyUsers_postEventsThenRead_storesEachUsersEventsOnOneShardAndReadsAcrossShards() throws Exception {
+        // Arrange
+        List<UUID> userIds = new ArrayList<>();
+        StringBuilder batch = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            UUID userId = UUID.randomUUID();
+            userIds.add(userId);
+            for (int day = 1; day <= 3; day++) { // 20 events at each time, ordered by eventId
+                batch.append(eventJson(UUID.randomUUID(), userId, LocalDateTime.of(2020, 1, day, 12, 0))).append("\n");
+            }
+        }
+        mvc.perform(post("/api/v1/events").contentType("application/x-ndjson").content(batch.toString()))
+                .andExpect(status().isOk());
+
+        // Act
+        Map<UUID, Set<String>> shardsByUserId = new HashMap<>();
+        for (Map.Entry<String, DataSource> shard : dataSource.getShardDataSources().entrySet()) {
+            new JdbcTemplate(shard.getValue()).query("select user_id from event", resultSet -> {
+                shardsByUserId.computeIfAbsent(toUuid(resultSet.getBytes(1)), userId -> new HashSet<>()).add(shard.getKey());
+            });
+        }
+        UUID userId = userIds.get(0);
+        MvcResult userResult = mvc.perform(get("/api/v1/event/user/" + userId)).andReturn();
+        String eventId = JsonPath.read(userResult.getResponse().getContentAsString(), "$[0].eventId");
+        List<String> pagedEventIds = new ArrayList<>();
+        List<String> pagedTimes = new ArrayList<>();
+        String nextPage = "/api/v1/events?from=2020-01-01T00:00&to=2020-01-04T00:00&limit=7";
+        while (nextPage != null) {
+            MvcResult pageResult = mvc.perform(get(nextPage)).andExpect(status().isOk()).andReturn();
+            pagedEventIds.addAll(JsonPath.read(pageResult.getResponse().getContentAsString(), "$[*].eventId"));
+            pagedTimes.addAll(JsonPath.read(pageResult.getResponse().getContentAsString(), "$[*].time"));
+            String link = pageResult.getResponse().getHeader(HttpHeaders.LINK);
+            nextPage = link == null ? null : link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+        }
+
+        // Assert
+        assertEquals(20, shardsByUserId.size());
+        Set<String> usedShards = new HashSet<>();
+        for (UUID storedUserId : userIds) {
+            assertEquals(Set.of(shards.shardOf(storedUserId)), shardsByUserId.get(storedUserId));
+            usedShards.add(shards.shardOf(storedUserId));
+        }
+        assertEquals(3, usedShards.size());
+        assertEquals(200, userResult.getResponse().getStatus());
+        assertEquals(3, (int) JsonPath.read(userResult.getResponse().getContentAsString(), "$.length()"));
+        mvc.perform(get("/api/v1/event/" + eventId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.userId").value(userId.toString()));
+        mvc.perform(get("/api/v1/event/user/" + userId + "/verify"))
+                .andExpect(jsonPath("$.valid").value(true))
+                .andExpect(jsonPath("$.verifiedEvents").value(3));
+        // Every event once, in time order, so the merged pages follow the shards' keyset order
+        assertEquals(60, pagedEventIds.size());
+        assertEquals(60, new HashSet<>(pagedEventIds).size());
+        for (int i = 1; i < pagedTimes.size(); i++) {
+            assertTrue(pagedTimes.get(i - 1).compareTo(pagedTimes.get(i)) <= 0);
+        }
+        for (String shard : shards.getShards()) {
+            assertTrue(meterRegistry.get("eventlog.shard.calls").tag("shard", shard).timer().count() > 0);
+            assertEquals(10.0, meterRegistry.get("hikaricp.connections").tag("pool", "eventlog-" + shard).gauge().value());
+        }
+    }
+
+    @Test
+    void givenEventIdOnAnotherShard_postEventForAnotherUser_returnsConflict() throws Exception {
+        // Arrange
+        UUID eventId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        UUID otherShardUserId = UUID.randomUUID();
+        while (shards.shardOf(otherShardUserId).equals(shards.shardOf(userId))) {
+            otherShardUserId = UUID.randomUUID();
+        }
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE).content(eventJson(eventId, userId)))
+                .andExpect(status().isCreated());
+
+        // Act
+        MvcResult singleResult = mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(eventId, otherShardUserId)))
+                .andReturn();
+        MvcResult batchResult = mvc.perform(post("/api/v1/events")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[" + eventJson(eventId, otherShardUserId) + "]"))
+                .andReturn();
+
+        // Assert
+        assertEquals(409, singleResult.getResponse().getStatus());
+        assertEquals("DUPLICATE", JsonPath.read(batchResult.getResponse().getContentAsString(), "$[0].status"));
+    }
+
+    @Test
+    void givenTimeOutOfRange_postEvent_returnsBadRequestWithoutClaimingEventId() throws Exception {
+        // Arrange
+        UUID eventId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        JdbcTemplate ownerShard = new JdbcTemplate(dataSource.getShardDataSources().get("shard0"));
+
+        // Act
+        MvcResult result = mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson(eventId, userId, LocalDateTime.of(300000, 1, 1, 0, 0))))
+                .andReturn();
+
+        // Assert
+        assertEquals(400, result.getResponse().getStatus());
+        assertEquals("Invalid Date-Time format submitted. Please use 2000-01-01T12:00 instead.",
+                result.getResponse().getErrorMessage());
+        assertEquals(0, ownerShard.queryForObject("select count(*) from event_owner", Integer.class));
+        mvc.perform(post("/api/v1/event").contentType(MediaType.APPLICATION_JSON_VALUE).content(eventJson(eventId, userId)))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    void givenEventThatCantBeStoredOnSecondShard_addEvents_keepsOnlyTheStoredEventsClaims() {
+        // Arrange
+        List<UUID> userIds = new ArrayList<>();
+        Set<String> userShards = new HashSet<>();
+        while (userShards.size() < 3) {
+            UUID userId = UUID.randomUUID();
+            if (userShards.add(shards.shardOf(userId))) {
+                userIds.add(userId);
+            }
+        }
+        Event stored = new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, userIds.get(0), LocalDateTime.of(2020, 1, 1, 12, 0));
+        Event outOfRange = new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, userIds.get(1), LocalDateTime.of(300000, 1, 1, 0, 0));
+        Event later = new Event(UUID.randomUUID(), Event.EventType.USER_REGISTRATION, userIds.get(2), LocalDateTime.of(2020, 1, 1, 12, 0));
+        JdbcTemplate ownerShard = new JdbcTemplate(dataSource.getShardDataSources().get("shard0"));
+
+        // Act
+        assertThrows(IllegalArgumentException.class, () -> eventRepositoryDao.addEvents(List.of(stored, outOfRange, later)));
+
+        // Assert
+        assertEquals(1, ownerShard.queryForObject("select count(*) from event_owner", Integer.class));
+        assertTrue(shards.callOnShardOf(stored.getUserId(), () -> repository.existsById(stored.getEventId())));
+        assertFalse(shards.callOnShardOf(later.getUserId(), () -> repository.existsById(later.getEventId())));
+    }
+
+    @Test
+    void givenUsersOnDifferentShards_postSameEventIdConcurrently_storesItOnce() throws Exception {
+        // Arrange
+        UUID eventId = UUID.randomUUID();
+        List<UUID> userIds = new ArrayList<>();
+        Set<String> userShards = new HashSet<>();
+        while (userIds.size() < 6 || userShards.size() < 3) {
+            UUID userId = UUID.randomUUID();
+            userIds.add(userId);
+            userShards.add(shards.shardOf(userId));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(userIds.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> statuses = new ArrayList<>();
+
+        // Act
+        for (UUID userId : userIds) {
+            statuses.add(executor.submit(() -> {
+                start.await();
+                return mvc.perform(post("/api/v1/event")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(eventJson(eventId, userId)))
+                        .andReturn().getResponse().getStatus();
+            }));
+        }
+        start.countDown();
+        List<Integer> results = new ArrayList<>();
+        for (Future<Integer> status : statuses) {
+            results.add(status.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        long stored = 0;
+        for (String shard : shards.getShards()) {
+            stored += shards.call(shard, repository::count);
+        }
+
+        // Assert
+        assertEquals(1, results.stream().filter(status -> status == 201).count(), results.toString());
+        assertEquals(userIds.size() - 1, results.stream().filter(status -> status == 409).count(), results.toString());
+        assertEquals(1, stored);
+    }
+
+    @Test
+    void givenConcurrentLookups_callOnAll_runsThemOnEachShardAtOnce() throws Exception {
+        // Arrange
+        int lookups = 4;
+        Map<String, CyclicBarrier> barriers = new HashMap<>();
+        shards.getShards().forEach(shard -> barriers.put(shard, new CyclicBarrier(lookups)));
+        ExecutorService executor = Executors.newFixedThreadPool(lookups);
+        List<Future<List<Long>>> counts = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < lookups; i++) {
+            counts.add(executor.submit(() -> shards.callOnAll(() -> {
+                long count = repository.count();
+                try {
+                    // Only passes once every lookup has reached this shard
+                    barriers.get(shards.currentShard()).await(10, TimeUnit.SECONDS);
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return count;
+            })));
+        }
+        List<List<Long>> results = new ArrayList<>();
+        for (Future<List<Long>> count : counts) {
+            results.add(count.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        // Assert
+        for (List<Long> result : results) {
+            assertEquals(List.of(0L, 0L, 0L), result);
+        }
+    }
+
+    @Test
+    void givenUserOnAnotherShardPartlyCopied_rebalance_movesRestOfUsersChainToTheirShard() throws Exception {
+        // Arrange
+        UUID userId = UUID.randomUUID();
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 5; i++) {
+            batch.append(i == 0 ? "" : ",").append(eventJson(UUID.randomUUID(), userId, LocalDateTime.of(2020, 1, 1, 12, i)));
+        }
+        mvc.perform(post("/api/v1/events").contentType(MediaType.APPLICATION_JSON_VALUE).content(batch.append("]").toString()))
+                .andExpect(status().isOk());
+        // As if the user had been stored before the ring changed, without owners as before sharding was enabled,
+        // and a rebalance had stopped after copying the first two Events
+        String userShard = shards.shardOf(userId);
+        String otherShard = shards.getShards().stream().filter(shard -> !shard.equals(userShard)).findFirst().orElseThrow();
+        List<Event> chain = new ArrayList<>();
+        shards.run(userShard, () -> repository.forEachInChainByUserId(userId, 0, chain::add));
+        shards.run(otherShard, () -> repository.insertAll(chain));
+        shards.run(userShard, () -> repository.deleteByUserId(userId));
+        shards.run(userShard, () -> repository.insertAll(chain.subList(0, 2)));
+        JdbcTemplate ownerShard = new JdbcTemplate(dataSource.getShardDataSources().get("shard0"));
+        ownerShard.update("delete from event_owner");
+        hashChain.invalidateAll();
+
+        // Act
+        ShardRebalanceReport report = rebalancer.rebalance();
+
+        // Assert
+        assertEquals(1, report.getUsersMoved());
+        assertEquals(3, report.getEventsMoved());
+        assertEquals(0, report.getUsersSkipped());
+        assertEquals(0L, (long) shards.call(otherShard, repository::count));
+        assertEquals(5, ownerShard.queryForObject("select count(*) from event_owner", Integer.class));
+        mvc.perform(get("/api/v1/event/user/" + userId + "/verify"))
+                .andExpect(jsonPath("$.valid").value(true))
+                .andExpect(jsonPath("$.verifiedEvents").value(5));
+    }
+
+    @Test
+    void givenRingOfThreeShards_addFourthShard_movesAboutAQuarterOfUsersAllToTheNewShard() {
+        // Arrange
+        ShardRing threeShards = new ShardRing(List.of("shard0", "shard1", "shard2"), 128);
+        ShardRing fourShards = new ShardRing(List.of("shard0", "shard1", "shard2", "shard3"), 128);
+        int users = 30000;
+
+        // Act
+        Map<String, Integer> usersByShard = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < users; i++) {
+            UUID userId = UUID.randomUUID();
+            String before = threeShards.shardOf(userId);
+            String after = fourShards.shardOf(userId);
+            usersByShard.merge(before, 1, Integer::sum);
+            if (!before.equals(after)) {
+                moved++;
+                assertEquals("shard3", after);
+            }
+        }
+
+        // Assert
+        assertTrue(moved > users * 0.15 && moved < users * 0.35, "moved " + moved);
+        for (int shardUsers : usersByShard.values()) {
+            assertTrue(shardUsers > users / 3 * 0.75 && shardUsers < users / 3 * 1.25, "shard has " + shardUsers);
+        }
+    }
+
+    private static String eventJson(UUID eventId, UUID userId) {
+        return eventJson(eventId, userId, LocalDateTime.of(2020, 1, 1, 12, 0));
+    }
+
+    private static String eventJson(UUID eventId, UUID userId, LocalDateTime time) {
+        return "{\"eventId\": \"" + eventId + "\", " +
+                "\"time\": \"" + time + "\", " +
+                "\"eventType\": \"USER_REGISTRATION\", " +
+                "\"userId\": \"" + userId + "\"}";
+    }
+
+    private static UUID toUuid(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
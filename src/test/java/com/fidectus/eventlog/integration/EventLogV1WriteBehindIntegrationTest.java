@@ -0,0 +1,339 @@
+package com.fidectus.eventlog.integration;
+
+import com.fidectus.eventlog.Application;
+import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventRepository;
+import com.fidectus.eventlog.persistence.EventRepositoryDao;
+import com.fidectus.eventlog.services.EventWriteBehindQueue;
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.reset;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = {"eventlog.ingest.mode=write-behind", "eventlog.ingest.queue-capacity=2",
+                "eventlog.ingest.writer-threads=1", "eventlog.ingest.flush-interval=10ms", "eventlog.ingest.max-attempts=2",
+                "eventlog.ingest.dead-letter-file=target/write-behind-test/dead-letter.ndjson"})
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+class EventLogV1WriteBehindIntegrationTest {
+    private static final UUID USER_ID = UUID.fromString("10000000-1111-1111-1111-000000000001");
+    private static final Path DEAD_LETTER_FILE = Paths.get("target/write-behind-test/dead-letter.ndjson");
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private EventRepository repository;
+
+    @Autowired
+    private EventCache eventCache;
+
+    @Autowired
+    private EventWriteBehindQueue writeBehindQueue;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @SpyBean
+    private EventRepositoryDao eventRepositoryDao;
+
+    @AfterEach
+    private void teardown() {
+        reset(eventRepositoryDao);
+        repository.deleteAll();
+        eventCache.invalidateAll();
+    }
+
+    @Test
+    void givenEvent_postEvent_returnsAcceptedThenWritesEvent() throws Exception {
+        // Arrange
+        UUID eventId = UUID.fromString("00000000-0000-0000-0000-000000000000");
+        CountDownLatch writerBlocked = blockWriter();
+
+        // Act
+        ResultActions postResult = postEvent(eventId);
+        ResultActions getPendingResult = mvc.perform(get("/api/v1/event/" + eventId))
+                .andDo(MockMvcResultHandlers.print());
+        writerBlocked.countDown();
+
+        // Assert
+        postResult.andExpect(status().isAccepted());
+        getPendingResult.andExpect(status().isOk()); // Readable before it is written
+        waitFor(() -> repository.existsById(eventId));
+    }
+
+    @Test
+    void givenFullQueue_postEvent_returnsServiceUnavailable() throws Exception {
+        // Arrange
+        CountDownLatch writerBlocked = blockWriter();
+        postEvent(UUID.randomUUID()).andExpect(status().isAccepted()); // Taken by the blocked writer
+        waitFor(() -> writeBehindQueue.size() == 0);
+        postEvent(UUID.randomUUID()).andExpect(status().isAccepted());
+        postEvent(UUID.randomUUID()).andExpect(status().isAccepted()); // Queue is now at capacity
+
+        // Act
+        ResultActions fullQueueResult = postEvent(UUID.randomUUID());
+        writerBlocked.countDown();
+
+        // Assert
+        fullQueueResult.andExpect(status().isServiceUnavailable());
+        waitFor(() -> repository.count() == 3); // Every accepted event is written
+    }
+
+    @Test
+    @DirtiesContext // Closes the queue
+    void givenQueuedEvents_closeQueue_writesAllEvents() throws Exception {
+        // Arrange
+        CountDownLatch writerBlocked = blockWriter();
+        postEvent(UUID.randomUUID()).andExpect(status().isAccepted());
+        postEvent(UUID.randomUUID()).andExpect(status().isAccepted());
+        postEvent(UUID.randomUUID()).andExpect(status().isAccepted());
+
+        // Act
+        writerBlocked.countDown();
+        writeBehindQueue.close();
+
+        // Assert
+        assertEquals(3, repository.count());
+        postEvent(UUID.randomUUID()).andExpect(status().isServiceUnavailable()); // No longer accepting events
+    }
+
+    @Test
+    @DirtiesContext // Closes the queue
+    void givenConcurrentPosts_closeQueue_writesEveryAcceptedEvent() throws Exception {
+        // Arrange
+        int posters = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(posters);
+        CountDownLatch posting = new CountDownLatch(posters);
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicInteger accepted = new AtomicInteger();
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < posters; i++) {
+            results.add(executor.submit(() -> {
+                posting.countDown();
+                // Full queues are retried until the queue has been closed
+                while (true) {
+                    int status = postEvent(UUID.randomUUID(), false).andReturn().getResponse().getStatus();
+                    if (status == 202) {
+                        accepted.incrementAndGet();
+                    } else if (closed.get()) {
+                        return null;
+                    }
+                }
+            }));
+        }
+        posting.await();
+        Thread.sleep(100);
+
+        // Act
+        writeBehindQueue.close();
+        closed.set(true);
+        for (Future<?> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Assert
+        assertTrue(accepted.get() > 0);
+        assertEquals(accepted.get(), repository.count());
+    }
+
+    @Test
+    void givenStoreFailing_postEvent_addsEventToDeadLetterFileForReposting() throws Exception {
+        // Arrange
+        Files.deleteIfExists(DEAD_LETTER_FILE);
+        double deadLettersBefore = meterRegistry.counter("eventlog.ingest.dead.letters").count();
+        doThrow(new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR)).when(eventRepositoryDao).addEvents(anyList());
+        UUID eventId = UUID.randomUUID();
+
+        // Act
+        postEvent(eventId).andExpect(status().isAccepted());
+        waitFor(() -> writeBehindQueue.getPendingEvent(eventId) == null);
+        List<String> deadLetters = Files.readAllLines(DEAD_LETTER_FILE);
+        reset(eventRepositoryDao);
+        mvc.perform(post("/api/v1/events")
+                .contentType("application/x-ndjson")
+                .content(String.join("\n", deadLetters)))
+                .andExpect(status().isOk());
+
+        // Assert
+        assertEquals(1, deadLetters.size());
+        assertEquals(eventId.toString(), JsonPath.read(deadLetters.get(0), "$.eventId"));
+        assertEquals(deadLettersBefore + 1, meterRegistry.counter("eventlog.ingest.dead.letters").count());
+        assertTrue(repository.existsById(eventId));
+    }
+
+    @Test
+    void givenOneEventOfBatchFailing_writeBatch_addsOnlyThatEventToDeadLetterFile() throws Exception {
+        // Arrange
+        Files.deleteIfExists(DEAD_LETTER_FILE);
+        double deadLettersBefore = meterRegistry.counter("eventlog.ingest.dead.letters").count();
+        UUID firstEventId = UUID.randomUUID();
+        UUID goodEventId = UUID.randomUUID();
+        UUID badEventId = UUID.randomUUID();
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            List<Event> events = invocation.getArgument(0);
+            if (events.stream().anyMatch(event -> event.getEventId().equals(badEventId))) {
+                throw new IllegalStateException("Event can't be written");
+            }
+            if (Thread.currentThread().getName().startsWith("event-writer-")) {
+                writerBlocked.await();
+            }
+            return invocation.callRealMethod();
+        }).when(eventRepositoryDao).addEvents(anyList());
+        postEvent(firstEventId).andExpect(status().isAccepted()); // Taken by the blocked writer
+        waitFor(() -> writeBehindQueue.size() == 0);
+        postEvent(goodEventId).andExpect(status().isAccepted());
+        postEvent(badEventId).andExpect(status().isAccepted()); // Written in one batch with goodEventId
+
+        // Act
+        writerBlocked.countDown();
+        waitFor(() -> writeBehindQueue.getPendingEvent(badEventId) == null);
+
+        // Assert
+        List<String> deadLetters = Files.readAllLines(DEAD_LETTER_FILE);
+        assertEquals(1, deadLetters.size());
+        assertEquals(badEventId.toString(), JsonPath.read(deadLetters.get(0), "$.eventId"));
+        assertEquals(deadLettersBefore + 1, meterRegistry.counter("eventlog.ingest.dead.letters").count());
+        assertTrue(repository.existsById(firstEventId));
+        assertTrue(repository.existsById(goodEventId));
+    }
+
+    @Test
+    void givenEventQueued_postBatchWithSameEventId_reportsItDuplicateAndWritesQueuedOne() throws Exception {
+        // Arrange
+        UUID queuedEventId = UUID.randomUUID();
+        UUID newEventId = UUID.randomUUID();
+        CountDownLatch writerBlocked = blockWriter();
+        postEvent(queuedEventId).andExpect(status().isAccepted());
+
+        // Act
+        ResultActions batchResult = postBatch(queuedEventId, newEventId);
+        writerBlocked.countDown();
+
+        // Assert
+        batchResult.andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("DUPLICATE"))
+                .andExpect(jsonPath("$[1].status").value("CREATED"));
+        waitFor(() -> writeBehindQueue.getPendingEvent(queuedEventId) == null);
+        assertEquals(Event.EventType.USER_REGISTRATION, repository.findById(queuedEventId).orElseThrow().getEventType());
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    void givenBatchBeingWritten_postEventWithSameEventId_returnsConflict() throws Exception {
+        // Arrange
+        UUID eventId = UUID.randomUUID();
+        CountDownLatch batchWriting = new CountDownLatch(1);
+        CountDownLatch batchBlocked = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            batchWriting.countDown();
+            batchBlocked.await();
+            return invocation.callRealMethod();
+        }).when(eventRepositoryDao).addEvents(anyList());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // Act
+        Future<ResultActions> batchResult = executor.submit(() -> postBatch(eventId));
+        assertTrue(batchWriting.await(5, TimeUnit.SECONDS));
+        ResultActions postResult = postEvent(eventId);
+        batchBlocked.countDown();
+
+        // Assert
+        postResult.andExpect(status().isConflict());
+        batchResult.get(5, TimeUnit.SECONDS).andExpect(jsonPath("$[0].status").value("CREATED"));
+        executor.shutdown();
+        assertEquals(Event.EventType.USER_DELETED, repository.findById(eventId).orElseThrow().getEventType());
+        assertEquals(1, repository.count());
+    }
+
+    private ResultActions postEvent(UUID eventId) throws Exception {
+        return postEvent(eventId, true);
+    }
+
+    private ResultActions postEvent(UUID eventId, boolean print) throws Exception {
+        String eventJson = "{\"eventId\": \"" + eventId + "\", " +
+                "\"time\": \"2020-01-01T12:00\", " +
+                "\"eventType\": \"USER_REGISTRATION\", " +
+                "\"userId\": \"" + USER_ID + "\"}";
+        ResultActions result = mvc.perform(post("/api/v1/event")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(eventJson));
+        return print ? result.andDo(MockMvcResultHandlers.print()) : result;
+    }
+
+    // Holds the writer thread in addEvents until the returned latch is counted down
+    private CountDownLatch blockWriter() {
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            if (Thread.currentThread().getName().startsWith("event-writer-")) {
+                latch.await();
+            }
+            return invocation.callRealMethod();
+        }).when(eventRepositoryDao).addEvents(anyList());
+        return latch;
+    }
+
+    private ResultActions postBatch(UUID... eventIds) throws Exception {
+        StringBuilder batch = new StringBuilder();
+        for (UUID eventId : eventIds) {
+            batch.append("{\"eventId\": \"").append(eventId).append("\", ")
+                    .append("\"time\": \"2020-01-02T12:00\", ")
+                    .append("\"eventType\": \"USER_DELETED\", ")
+                    .append("\"userId\": \"").append(USER_ID).append("\"}\n");
+        }
+        return mvc.perform(post("/api/v1/events")
+                .contentType("application/x-ndjson")
+                .content(batch.toString()))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the write-behind queue");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -6,30 +6,55 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fidectus.eventlog.config.ServiceTestConfig;
 import com.fidectus.eventlog.controller.EventLogV1Controller;
 import com.fidectus.eventlog.dto.Event;
+import com.fidectus.eventlog.dto.EventBatchResult;
+import com.fidectus.eventlog.dto.EventBinaryFormat;
+import com.fidectus.eventlog.dto.EventField;
+import com.fidectus.eventlog.dto.EventProjection;
+import com.fidectus.eventlog.persistence.EventCache;
+import com.fidectus.eventlog.persistence.EventCountRepository;
 import com.fidectus.eventlog.persistence.EventRepository;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
 
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = EventLogV1Controller.class)
@@ -42,9 +67,19 @@ class EventLogV1ServiceTest {
     @Autowired
     private EventRepository repository;
 
+    @Autowired
+    private EventCache eventCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private EventCountRepository eventCountRepository;
+
     @BeforeEach
     private void setup() {
         reset(repository);
+        eventCache.invalidateAll();
     }
 
     @AfterEach
@@ -159,6 +194,31 @@ class EventLogV1ServiceTest {
         verify(repository, times(1)).save(event);
     }
 
+    @Test
+    void givenExistingEventId_PostCreateEvent_returnsConflict() throws Exception {
+        //Arrange
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule()); // Required for Jackson to parse LocalDateTime format
+
+        Event event = new Event(UUID.fromString("00000000-0000-0000-0000-000000000000"),
+                Event.EventType.USER_REGISTRATION,
+                UUID.fromString("10000000-1111-1111-1111-000000000001"),
+                LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+
+        String jsonRequest = objectMapper.writeValueAsString(event);
+        when(repository.save(event)).thenThrow(new DataIntegrityViolationException("Unique index or primary key violation"));
+
+        //Act
+        ResultActions resultsActions = mockMvc
+                .perform(post("/api/v1/event").contentType("application/json").content(jsonRequest))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        resultsActions.andExpect(status().isConflict()); // 409 Response
+
+        verify(repository, times(1)).save(event);
+    }
+
     @Test
     void givenEventId_GetEvent_returnsEvent() throws Exception {
         //Arrange
@@ -195,6 +255,106 @@ class EventLogV1ServiceTest {
         verify(repository, times(1)).findById(eventId);
     }
 
+    @Test
+    void givenEventId_GetEventRepeatedly_readsDbOnce() throws Exception {
+        //Arrange
+        UUID eventId = UUID.fromString("00000000-0000-0000-0000-000000000000");
+        UUID missingEventId = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+        Event event = new Event(eventId,
+                Event.EventType.USER_REGISTRATION,
+                UUID.fromString("10000000-1111-1111-1111-000000000001"),
+                LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+
+        when(repository.findById(eventId)).thenReturn(Optional.of(event));
+        when(repository.findById(missingEventId)).thenReturn(Optional.empty());
+        CacheStats statsBefore = eventCache.stats();
+
+        //Act
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(get("/api/v1/event/" + eventId)).andExpect(status().isOk());
+            mockMvc.perform(get("/api/v1/event/" + missingEventId)).andExpect(status().isNotFound());
+        }
+
+        //Assert
+        // Found and not found events are both cached
+        verify(repository, times(1)).findById(eventId);
+        verify(repository, times(1)).findById(missingEventId);
+        CacheStats stats = eventCache.stats().minus(statsBefore);
+        assertEquals(4, stats.hitCount());
+        assertEquals(2, stats.missCount());
+    }
+
+    @Test
+    void givenEventJson_PostCreateEventThenGetEvent_readsFromCache() throws Exception {
+        //Arrange
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule()); // Required for Jackson to parse LocalDateTime format
+
+        Event event = new Event(UUID.fromString("00000000-0000-0000-0000-000000000000"),
+                Event.EventType.USER_REGISTRATION,
+                UUID.fromString("10000000-1111-1111-1111-000000000001"),
+                LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+
+        when(repository.save(event)).thenReturn(event);
+
+        //Act
+        mockMvc.perform(post("/api/v1/event").contentType("application/json").content(objectMapper.writeValueAsString(event)))
+                .andExpect(status().isCreated());
+        ResultActions resultsActions = mockMvc.perform(get("/api/v1/event/" + event.getEventId()))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        resultsActions.andExpect(status().isOk());
+
+        // Cache is populated by the POST
+        verify(repository, never()).findById(any());
+    }
+
+    @Test
+    void givenEventIds_PostMultiGet_readsMissesInOneQuery() throws Exception {
+        //Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        Event cachedEvent = new Event(UUID.fromString("00000000-0000-0000-0000-000000000000"),
+                Event.EventType.USER_REGISTRATION, userId, LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+        Event storedEvent = new Event(UUID.fromString("00000000-0000-0000-0000-000000000001"),
+                Event.EventType.USER_DELETED, userId, LocalDateTime.of(2020, 1, 2, 12, 0, 0));
+        UUID missingEventId = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+        eventCache.put(cachedEvent);
+        when(repository.findAllById(Set.of(storedEvent.getEventId(), missingEventId))).thenReturn(List.of(storedEvent));
+
+        //Act
+        ResultActions resultsActions = mockMvc.perform(post("/api/v1/event/_mget")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[\"" + missingEventId + "\", \"" + storedEvent.getEventId() + "\", \"" +
+                        cachedEvent.getEventId() + "\", \"" + storedEvent.getEventId() + "\"]"))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        // Found Events in the order asked for, each once
+        resultsActions.andExpect(status().isOk())
+                .andExpect(jsonPath("$.events[*].eventId", contains(storedEvent.getEventId().toString(),
+                        cachedEvent.getEventId().toString())))
+                .andExpect(jsonPath("$.notFound", contains(missingEventId.toString())));
+
+        // Only the Events that weren't cached are read, with one query
+        verify(repository, times(1)).findAllById(Set.of(storedEvent.getEventId(), missingEventId));
+        verify(repository, never()).findById(any());
+    }
+
+    @Test
+    void givenNullEventId_PostMultiGet_returnsBadRequest() throws Exception {
+        //Act
+        ResultActions resultsActions = mockMvc.perform(post("/api/v1/event/_mget")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[\"00000000-0000-0000-0000-000000000000\", null]"));
+
+        //Assert
+        resultsActions.andExpect(status().isBadRequest());
+        verify(repository, never()).findAllById(any());
+    }
+
     @Test
     void givenEventId_NoSuchEvent_returns404() throws Exception {
         //Arrange
@@ -228,7 +388,7 @@ class EventLogV1ServiceTest {
 
         List<Event> events = Arrays.asList(eventReg, eventUpdated, eventDeactivated);
 
-        when(repository.findAllByUserId(userId)).thenReturn(events);
+        when(repository.findPageByUserId(userId, null, null, null, null, 101)).thenReturn(events);
 
         //Act
         ResultActions resultsActions = mockMvc
@@ -245,8 +405,219 @@ class EventLogV1ServiceTest {
         assertEquals(3, actualEvents.size());
         assertTrue(actualEvents.containsAll(events));
 
+        // Single page, so no link to a next page
+        assertNull(result.getResponse().getHeader("Link"));
+
         // Verify call to DB
-        verify(repository, times(1)).findAllByUserId(userId);
+        verify(repository, times(1)).findPageByUserId(userId, null, null, null, null, 101);
+    }
+
+    @Test
+    void givenUserIdAndCursor_GetEventsForUser_returnsPageWithNextLink() throws Exception {
+        //Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        LocalDateTime from = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2020, 2, 1, 0, 0, 0);
+
+        Event eventReg = new Event(UUID.fromString("00000000-0000-0000-aaaa-000000000000"), Event.EventType.USER_REGISTRATION, userId, LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+        Event eventUpdated = new Event(UUID.fromString("00000000-0000-0000-bbbb-000000000000"), Event.EventType.USER_UPDATED_REGISTRATION_INFO, userId, LocalDateTime.of(2020, 1, 2, 12, 0, 0));
+        Event eventDeactivated = new Event(UUID.fromString("00000000-0000-0000-cccc-000000000000"), Event.EventType.USER_DEACTIVATED, userId, LocalDateTime.of(2020, 1, 3, 12, 0, 0));
+        Event eventDeleted = new Event(UUID.fromString("00000000-0000-0000-dddd-000000000000"), Event.EventType.USER_DELETED, userId, LocalDateTime.of(2020, 1, 4, 12, 0, 0));
+
+        when(repository.findById(eventReg.getEventId())).thenReturn(Optional.of(eventReg));
+        when(repository.findPageByUserId(userId, from, to, null, eventReg, 3))
+                .thenReturn(Arrays.asList(eventUpdated, eventDeactivated, eventDeleted));
+
+        //Act
+        ResultActions resultsActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId)
+                        .param("limit", "2")
+                        .param("after", eventReg.getEventId().toString())
+                        .param("from", from.toString())
+                        .param("to", to.toString()))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        MvcResult result = resultsActions.andExpect(status().isOk()).andReturn(); // 200 Response
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule()); // Required for Jackson to parse LocalDateTime format
+        List<Event> actualEvents = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {});
+
+        // Only the requested number of events, with a link to the page after the last one
+        assertEquals(Arrays.asList(eventUpdated, eventDeactivated), actualEvents);
+        String link = result.getResponse().getHeader("Link");
+        assertTrue(link.contains("after=" + eventDeactivated.getEventId()));
+        assertTrue(link.contains("limit=2"));
+        assertTrue(link.endsWith("; rel=\"next\""));
+    }
+
+    @Test
+    void givenFieldsAndType_GetEventsForUser_returnsOnlyFieldsWithNextLink() throws Exception {
+        //Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID firstEventId = UUID.fromString("00000000-0000-0000-aaaa-000000000000");
+        UUID secondEventId = UUID.fromString("00000000-0000-0000-bbbb-000000000000");
+        Set<EventField> fields = EnumSet.of(EventField.EVENT_TYPE, EventField.TIME);
+
+        Map<String, Object> firstFields = new LinkedHashMap<>();
+        firstFields.put("eventType", Event.EventType.USER_DELETED);
+        firstFields.put("time", LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+        Map<String, Object> secondFields = new LinkedHashMap<>();
+        secondFields.put("eventType", Event.EventType.USER_DELETED);
+        secondFields.put("time", LocalDateTime.of(2020, 1, 2, 12, 0, 0));
+
+        when(repository.findFieldsPageByUserId(userId, null, null, Event.EventType.USER_DELETED, null, 2, fields))
+                .thenReturn(Arrays.asList(new EventProjection(firstEventId, firstFields), new EventProjection(secondEventId, secondFields)));
+
+        //Act
+        ResultActions resultsActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId)
+                        .param("fields", "time,eventType")
+                        .param("type", "USER_DELETED")
+                        .param("limit", "1"))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions unknownFieldResultActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId).param("fields", "time,chainHash"))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        MvcResult result = resultsActions
+                .andExpect(status().isOk()) // 200 Response
+                .andExpect(content().json("[{\"eventType\": \"USER_DELETED\", \"time\": \"2020-01-01T12:00:00\"}]", true))
+                .andReturn();
+
+        // The next page keeps the fields and type
+        String link = result.getResponse().getHeader("Link");
+        assertTrue(link.contains("after=" + firstEventId));
+        assertTrue(link.contains("fields=time,eventType"));
+        assertTrue(link.contains("type=USER_DELETED"));
+
+        unknownFieldResultActions.andExpect(status().isBadRequest());
+
+        // Only the fields are queried, never whole Events
+        verify(repository, times(1)).findFieldsPageByUserId(userId, null, null, Event.EventType.USER_DELETED, null, 2, fields);
+        verify(repository, never()).findPageByUserId(any(), any(), any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void givenUserId_StreamEventsForUser_returnsNdjson() throws Exception {
+        //Arrange
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule()); // Required for Jackson to parse LocalDateTime format
+
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+
+        Event eventReg = new Event(UUID.fromString("00000000-0000-0000-aaaa-000000000000"), Event.EventType.USER_REGISTRATION, userId, LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+        Event eventDeleted = new Event(UUID.fromString("00000000-0000-0000-bbbb-000000000000"), Event.EventType.USER_DELETED, userId, LocalDateTime.of(2020, 1, 2, 12, 0, 0));
+
+        doAnswer(invocation -> {
+            Consumer<Event> action = invocation.getArgument(1);
+            action.accept(eventReg);
+            action.accept(eventDeleted);
+            return null;
+        }).when(repository).forEachByUserId(eq(userId), any());
+
+        //Act
+        MvcResult asyncResult = mockMvc
+                .perform(get("/api/v1/event/user/" + userId).accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        ResultActions resultsActions = mockMvc.perform(asyncDispatch(asyncResult))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        MvcResult result = resultsActions.andExpect(status().isOk()).andReturn(); // 200 Response
+
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+
+        // One event per line, in the order read from the DB
+        assertEquals(2, lines.length);
+        assertEquals(eventReg, objectMapper.readValue(lines[0], Event.class));
+        assertEquals(eventDeleted, objectMapper.readValue(lines[1], Event.class));
+
+        // Verify call to DB
+        verify(repository, times(1)).forEachByUserId(eq(userId), any());
+        verify(repository, never()).findPageByUserId(any(), any(), any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void givenInvalidPageParams_GetEventsForUser_returnsBadRequest() throws Exception {
+        //Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+        UUID unknownEventId = UUID.fromString("00000000-0000-0000-0000-000000000000");
+
+        when(repository.findById(unknownEventId)).thenReturn(Optional.empty());
+
+        //Act
+        ResultActions tooLargeLimitResultActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId).param("limit", "1001"))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions unknownCursorResultActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId).param("after", unknownEventId.toString()))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        tooLargeLimitResultActions.andExpect(status().isBadRequest());
+        unknownCursorResultActions.andExpect(status().isBadRequest());
+        verify(repository, never()).findPageByUserId(any(), any(), any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void givenInvalidCheckpoint_verifyChain_returnsBadRequest() throws Exception {
+        //Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+
+        //Act
+        ResultActions missingHashResultActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId + "/verify").param("sequence", "5"))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions shortHashResultActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId + "/verify").param("sequence", "5").param("hash", "abcd"))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions notHexResultActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId + "/verify").param("sequence", "5").param("hash", "z".repeat(64)))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        missingHashResultActions.andExpect(status().isBadRequest());
+        shortHashResultActions.andExpect(status().isBadRequest());
+        notHexResultActions.andExpect(status().isBadRequest());
+        verify(repository, never()).forEachInChainByUserId(any(), anyLong(), any());
+    }
+
+    @Test
+    void givenStoredAndUnflushedCounts_getStatsForUser_addsThemUp() throws Exception {
+        //Arrange
+        UUID userId = UUID.randomUUID();
+        long hour = LocalDateTime.of(2020, 1, 1, 12, 0).toEpochSecond(ZoneOffset.UTC) / 3600;
+        long time = hour * 3_600_000_000L;
+        when(eventCountRepository.findByUserId(userId)).thenReturn(new ArrayList<>(List.of(
+                new EventCountRepository.Bucket(userId, Event.EventType.USER_DELETED, hour, 4, time, time))));
+        Event event = new Event(UUID.randomUUID(), Event.EventType.USER_DELETED, userId, LocalDateTime.of(2020, 1, 2, 8, 0));
+        when(repository.save(event)).thenReturn(event);
+        mockMvc.perform(post("/api/v1/event").contentType("application/json")
+                .content("{\"eventId\": \"" + event.getEventId() + "\", \"time\": \"2020-01-02T08:00\", " +
+                        "\"eventType\": \"USER_DELETED\", \"userId\": \"" + userId + "\"}"))
+                .andExpect(status().isCreated());
+
+        //Act
+        ResultActions resultActions = mockMvc.perform(get("/api/v1/event/user/" + userId + "/stats"))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions badIntervalResultActions = mockMvc.perform(get("/api/v1/event/user/" + userId + "/stats")
+                .param("interval", "WEEK"))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        resultActions.andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(5))
+                .andExpect(jsonPath("$.countsByType.USER_DELETED").value(5))
+                .andExpect(jsonPath("$.firstEventTime").value("2020-01-01T12:00:00"))
+                .andExpect(jsonPath("$.lastEventTime").value("2020-01-02T08:00:00"))
+                .andExpect(jsonPath("$.eventsPerInterval['2020-01-01T00:00']").value(4))
+                .andExpect(jsonPath("$.eventsPerInterval['2020-01-02T00:00']").value(1));
+        badIntervalResultActions.andExpect(status().isBadRequest());
+        verify(repository, never()).findAllByUserId(any());
     }
 
     @Test
@@ -267,4 +638,171 @@ class EventLogV1ServiceTest {
         // Verify call to DB
         verify(repository, times(1)).findById(eventId);
     }
+
+    @Test
+    void givenEventBatch_PostCreateEvents_returnsResultPerEvent() throws Exception {
+        //Arrange
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule()); // Required for Jackson to parse LocalDateTime format
+
+        UUID newEventId = UUID.fromString("00000000-0000-0000-aaaa-000000000000");
+        UUID invalidEventId = UUID.fromString("00000000-0000-0000-bbbb-000000000000");
+        UUID duplicateEventId = UUID.fromString("00000000-0000-0000-cccc-000000000000");
+
+        String batchJson = "[" +
+                "{\"eventId\": \"" + newEventId + "\", \"time\": \"2020-01-01T12:00\", " +
+                "\"eventType\": \"USER_REGISTRATION\", \"userId\": \"10000000-1111-1111-1111-000000000001\"}," +
+                "{\"eventId\": \"" + invalidEventId + "\", \"time\": \"2020-01-01T12:00\", " +
+                "\"eventType\": \"USER_REGISTRATION\", \"userId\": \"1234\"}," + // Not a UUID
+                "{\"eventId\": \"" + duplicateEventId + "\", \"time\": \"2020-01-01T12:00\", " +
+                "\"eventType\": \"USER_DELETED\", \"userId\": \"10000000-1111-1111-1111-000000000001\"}" +
+                "]";
+
+        when(repository.findExistingEventIds(anyCollection())).thenReturn(Collections.singletonList(duplicateEventId));
+
+        //Act
+        ResultActions resultsActions = mockMvc
+                .perform(post("/api/v1/events").contentType("application/json").content(batchJson))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        MvcResult result = resultsActions.andExpect(status().isOk()).andReturn(); // 200 Response
+
+        List<Map<String, String>> results = objectMapper.readValue(result.getResponse().getContentAsString(),
+                new TypeReference<>() {});
+
+        // One result per event, in the order submitted
+        assertEquals(3, results.size());
+        assertEquals(EventBatchResult.Status.CREATED.name(), results.get(0).get("status"));
+        assertEquals(EventBatchResult.Status.INVALID.name(), results.get(1).get("status"));
+        assertEquals(invalidEventId.toString(), results.get(1).get("eventId"));
+        assertTrue(results.get(1).get("error").contains("Invalid UUID format"));
+        assertEquals(EventBatchResult.Status.DUPLICATE.name(), results.get(2).get("status"));
+
+        // Only the new event is inserted
+        verify(repository, times(1)).insertAll(argThat(events -> events.size() == 1 && events.get(0).getEventId().equals(newEventId)));
+    }
+
+    @Test
+    void givenEvents_PostAndGetEvents_countsCreatedDuplicateAndNotFound() throws Exception {
+        //Arrange
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule()); // Required for Jackson to parse LocalDateTime format
+
+        Event event = new Event(UUID.fromString("00000000-0000-0000-0000-000000000000"),
+                Event.EventType.USER_REGISTRATION,
+                UUID.fromString("10000000-1111-1111-1111-000000000001"),
+                LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+        UUID missingEventId = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+        when(repository.save(event)).thenReturn(event)
+                .thenThrow(new DataIntegrityViolationException("Unique index or primary key violation"));
+        when(repository.findById(missingEventId)).thenReturn(Optional.empty());
+        double createdBefore = meterRegistry.counter("eventlog.events.created").count();
+        double duplicateBefore = meterRegistry.counter("eventlog.events.duplicate").count();
+        double notFoundBefore = meterRegistry.counter("eventlog.events.not.found").count();
+
+        //Act
+        String jsonRequest = objectMapper.writeValueAsString(event);
+        mockMvc.perform(post("/api/v1/event").contentType("application/json").content(jsonRequest))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/api/v1/event").contentType("application/json").content(jsonRequest))
+                .andExpect(status().isConflict());
+        mockMvc.perform(get("/api/v1/event/" + missingEventId))
+                .andExpect(status().isNotFound());
+
+        //Assert
+        assertEquals(1, meterRegistry.counter("eventlog.events.created").count() - createdBefore, 0);
+        assertEquals(1, meterRegistry.counter("eventlog.events.duplicate").count() - duplicateBefore, 0);
+        assertEquals(1, meterRegistry.counter("eventlog.events.not.found").count() - notFoundBefore, 0);
+    }
+
+    @Test
+    void givenBinaryEvent_PostCreateEvent_returnsCreatedWithBinaryEvent() throws Exception {
+        //Arrange
+        Event event = new Event(UUID.fromString("00000000-0000-0000-0000-000000000000"),
+                Event.EventType.USER_REGISTRATION,
+                UUID.fromString("10000000-1111-1111-1111-000000000001"),
+                LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+
+        when(repository.save(event)).thenReturn(event);
+
+        //Act
+        ResultActions resultsActions = mockMvc
+                .perform(post("/api/v1/event")
+                        .contentType(EventBinaryFormat.MEDIA_TYPE_VALUE)
+                        .accept(EventBinaryFormat.MEDIA_TYPE_VALUE)
+                        .content(toBinary(event)))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        MvcResult result = resultsActions.andExpect(status().isCreated()).andReturn(); // 201 Response
+
+        // Binary response is the same 41 bytes that were sent
+        assertEquals(EventBinaryFormat.MEDIA_TYPE_VALUE, result.getResponse().getContentType());
+        assertEquals(event, EventBinaryFormat.read(ByteBuffer.wrap(result.getResponse().getContentAsByteArray())));
+
+        verify(repository, times(1)).save(event);
+    }
+
+    @Test
+    void givenUserId_GetEventsForUserAsBinary_returnsBinaryEventList() throws Exception {
+        //Arrange
+        UUID userId = UUID.fromString("10000000-1111-1111-1111-000000000001");
+
+        Event eventReg = new Event(UUID.fromString("00000000-0000-0000-aaaa-000000000000"), Event.EventType.USER_REGISTRATION, userId, LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+        Event eventDeleted = new Event(UUID.fromString("00000000-0000-0000-bbbb-000000000000"), Event.EventType.USER_DELETED, userId, LocalDateTime.of(2020, 1, 2, 12, 0, 0));
+
+        when(repository.findPageByUserId(userId, null, null, null, null, 101)).thenReturn(Arrays.asList(eventReg, eventDeleted));
+
+        //Act
+        ResultActions resultsActions = mockMvc
+                .perform(get("/api/v1/event/user/" + userId).accept(EventBinaryFormat.MEDIA_TYPE_VALUE))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        MvcResult result = resultsActions.andExpect(status().isOk()).andReturn(); // 200 Response
+
+        // Events are written one record after another
+        ByteBuffer body = ByteBuffer.wrap(result.getResponse().getContentAsByteArray());
+        assertEquals(2 * EventBinaryFormat.SIZE, body.remaining());
+        assertEquals(eventReg, EventBinaryFormat.read(body));
+        assertEquals(eventDeleted, EventBinaryFormat.read(body));
+    }
+
+    @Test
+    void givenBadBinaryEvent_PostCreateEvent_returnsBadRequest() throws Exception {
+        //Arrange
+        Event event = new Event(UUID.fromString("00000000-0000-0000-0000-000000000000"),
+                Event.EventType.USER_REGISTRATION,
+                UUID.fromString("10000000-1111-1111-1111-000000000001"),
+                LocalDateTime.of(2020, 1, 1, 12, 0, 0));
+
+        byte[] badEventType = toBinary(event);
+        badEventType[32] = 99; // No such eventType ordinal
+
+        //Act
+        ResultActions truncatedResultsActions = mockMvc
+                .perform(post("/api/v1/event").contentType(EventBinaryFormat.MEDIA_TYPE_VALUE).content(new byte[40]))
+                .andDo(MockMvcResultHandlers.print());
+        ResultActions badEventTypeResultsActions = mockMvc
+                .perform(post("/api/v1/events").contentType(EventBinaryFormat.MEDIA_TYPE_VALUE).content(badEventType))
+                .andDo(MockMvcResultHandlers.print());
+
+        //Assert
+        MvcResult truncatedResult = truncatedResultsActions.andExpect(status().isBadRequest()).andReturn();
+        assertTrue(truncatedResult.getResponse().getContentAsString().contains("Body must be 41 bytes"));
+
+        MvcResult badEventTypeResult = badEventTypeResultsActions.andExpect(status().isBadRequest()).andReturn();
+        assertTrue(badEventTypeResult.getResponse().getContentAsString().contains("Invalid eventType"));
+        // No calls to DB
+        verify(repository, never()).save(any(Event.class));
+        verify(repository, never()).insertAll(any());
+    }
+
+    private static byte[] toBinary(Event event) {
+        ByteBuffer buffer = ByteBuffer.allocate(EventBinaryFormat.SIZE);
+        EventBinaryFormat.write(buffer, event);
+        return buffer.array();
+    }
 }